@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A circuit breaker that tracks the health of one upstream host that the phone talks to on behalf
+ * of the watch. It keeps a rolling window of the outcome and latency of the recent calls; when too
+ * many of them fail or are too slow, the circuit "opens" and calls are rejected right away instead
+ * of tying up a thread and a socket and keeping the watch waiting for its own timeout. After a
+ * cool-down period, the circuit goes "half-open" and lets a single probe through; the outcome of
+ * that probe decides whether the circuit closes again or stays open.
+ *
+ * <p>Use {@link #forHost(String)} to get the breaker for a host.
+ */
+public class CircuitBreaker {
+
+    private static final String TAG = "CircuitBreaker";
+
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    // the rolling window is made of BUCKET_COUNT buckets, each BUCKET_MS long
+    private static final int BUCKET_COUNT = 10;
+    private static final long BUCKET_MS = 1000;
+
+    // the circuit opens when, in the window, there have been at least MIN_CALLS calls and either
+    // the failures or the slow calls make up at least the given percentage of them
+    private static final int MIN_CALLS = 5;
+    private static final int FAILURE_PERCENT_THRESHOLD = 50;
+    private static final int SLOW_PERCENT_THRESHOLD = 50;
+    private static final long SLOW_CALL_MS = 3000;
+
+    // how long the circuit stays open before letting a probe through
+    private static final long OPEN_DURATION_MS = 5000;
+
+    private static final Map<String, CircuitBreaker> sBreakers = new HashMap<>();
+
+    private final String mHost;
+    private final long[] mBucketStart = new long[BUCKET_COUNT];
+    private final int[] mCalls = new int[BUCKET_COUNT];
+    private final int[] mFailures = new int[BUCKET_COUNT];
+    private final int[] mSlowCalls = new int[BUCKET_COUNT];
+    private final long[] mLatencySum = new long[BUCKET_COUNT];
+
+    private int mState = STATE_CLOSED;
+    private long mOpenedAt;
+    private boolean mProbeInFlight;
+
+    private CircuitBreaker(String host) {
+        mHost = host;
+    }
+
+    /**
+     * Returns the breaker for the given {@code host}, creating one if needed.
+     */
+    public static CircuitBreaker forHost(String host) {
+        synchronized (sBreakers) {
+            CircuitBreaker breaker = sBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(host);
+                sBreakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Returns {@code true} if a call to the upstream is allowed. Every allowed call must be
+     * followed by a call to {@link #onSuccess(long)} or {@link #onFailure(long)}, whatever way it
+     * ends, best from a {@code finally} block; while half-open, the breaker lets no other call
+     * through until the probe reports back.
+     */
+    public synchronized boolean allowRequest() {
+        switch (mState) {
+            case STATE_OPEN:
+                if (SystemClock.elapsedRealtime() - mOpenedAt < OPEN_DURATION_MS) {
+                    return false;
+                }
+                setState(STATE_HALF_OPEN);
+                mProbeInFlight = true;
+                return true;
+            case STATE_HALF_OPEN:
+                if (mProbeInFlight) {
+                    return false;
+                }
+                mProbeInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Records a call that completed successfully in {@code latencyMs} milliseconds.
+     */
+    public synchronized void onSuccess(long latencyMs) {
+        record(false, latencyMs);
+        if (mState == STATE_HALF_OPEN) {
+            mProbeInFlight = false;
+            if (latencyMs < SLOW_CALL_MS) {
+                resetWindow();
+                setState(STATE_CLOSED);
+            } else {
+                open();
+            }
+            return;
+        }
+        evaluate();
+    }
+
+    /**
+     * Records a call that failed after {@code latencyMs} milliseconds.
+     */
+    public synchronized void onFailure(long latencyMs) {
+        record(true, latencyMs);
+        if (mState == STATE_HALF_OPEN) {
+            mProbeInFlight = false;
+            open();
+            return;
+        }
+        evaluate();
+    }
+
+    /**
+     * Returns the current state; one of {@link #STATE_CLOSED}, {@link #STATE_OPEN} or
+     * {@link #STATE_HALF_OPEN}.
+     */
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the percentage of the calls in the rolling window that failed.
+     */
+    public synchronized int getFailurePercent() {
+        long now = SystemClock.elapsedRealtime();
+        int calls = 0;
+        int failures = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (isLive(i, now)) {
+                calls += mCalls[i];
+                failures += mFailures[i];
+            }
+        }
+        return calls == 0 ? 0 : failures * 100 / calls;
+    }
+
+    /**
+     * Returns the average latency, in milliseconds, of the calls in the rolling window.
+     */
+    public synchronized long getAverageLatencyMs() {
+        long now = SystemClock.elapsedRealtime();
+        int calls = 0;
+        long latency = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (isLive(i, now)) {
+                calls += mCalls[i];
+                latency += mLatencySum[i];
+            }
+        }
+        return calls == 0 ? 0 : latency / calls;
+    }
+
+    /**
+     * A short, human readable description of the health of this upstream.
+     */
+    public synchronized String describe() {
+        return String.format("%s: %s, errors: %d%%, avg latency: %dms", mHost,
+                stateName(mState), getFailurePercent(), getAverageLatencyMs());
+    }
+
+    public static String stateName(int state) {
+        switch (state) {
+            case STATE_OPEN:
+                return "OPEN";
+            case STATE_HALF_OPEN:
+                return "HALF_OPEN";
+            default:
+                return "CLOSED";
+        }
+    }
+
+    private void record(boolean failed, long latencyMs) {
+        long now = SystemClock.elapsedRealtime();
+        long bucketStart = now - now % BUCKET_MS;
+        int index = (int) ((now / BUCKET_MS) % BUCKET_COUNT);
+        if (mBucketStart[index] != bucketStart) {
+            // this bucket holds data from an older round of the window; recycle it
+            mBucketStart[index] = bucketStart;
+            mCalls[index] = 0;
+            mFailures[index] = 0;
+            mSlowCalls[index] = 0;
+            mLatencySum[index] = 0;
+        }
+        mCalls[index]++;
+        mLatencySum[index] += latencyMs;
+        if (failed) {
+            mFailures[index]++;
+        }
+        if (latencyMs >= SLOW_CALL_MS) {
+            mSlowCalls[index]++;
+        }
+    }
+
+    private void evaluate() {
+        if (mState != STATE_CLOSED) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        int calls = 0;
+        int failures = 0;
+        int slowCalls = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (isLive(i, now)) {
+                calls += mCalls[i];
+                failures += mFailures[i];
+                slowCalls += mSlowCalls[i];
+            }
+        }
+        if (calls < MIN_CALLS) {
+            return;
+        }
+        if (failures * 100 >= calls * FAILURE_PERCENT_THRESHOLD
+                || slowCalls * 100 >= calls * SLOW_PERCENT_THRESHOLD) {
+            open();
+        }
+    }
+
+    private boolean isLive(int index, long now) {
+        return now - mBucketStart[index] < BUCKET_COUNT * BUCKET_MS;
+    }
+
+    private void open() {
+        mOpenedAt = SystemClock.elapsedRealtime();
+        setState(STATE_OPEN);
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBucketStart[i] = 0;
+            mCalls[i] = 0;
+            mFailures[i] = 0;
+            mSlowCalls[i] = 0;
+            mLatencySum[i] = 0;
+        }
+    }
+
+    private void setState(int state) {
+        if (mState != state) {
+            Log.d(TAG, String.format("%s: %s -> %s", mHost, stateName(mState),
+                    stateName(state)));
+            mState = state;
+        }
+    }
+}
@@ -18,60 +18,153 @@ package com.example.android.wearable.wcldemo;
 
 import android.app.Application;
 
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.Node;
 import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.filters.NearbyFilter;
 
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.MessageDispatcher;
+import com.example.android.wearable.wcldemo.common.NavigationChannel;
+import com.example.android.wearable.wcldemo.common.NavigationState;
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.common.StartupPipeline;
+import com.example.android.wearable.wcldemo.common.StartupTrace;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
+import com.example.android.wearable.wcldemo.voice.VoiceMixer;
 
+import java.util.HashSet;
 import java.util.Set;
 
 /**
  * The application instance for the mobile app. We need to initialize the {@link WearManager} in the
  * {@link #onCreate()} method of the application instance to make sure it is available before any
- * other component of the application has been instantiated.
+ * other component of the application has been instantiated. The rest of the set up that reads from
+ * the disk is done in the background, by a {@link StartupPipeline}, so it does not hold up the
+ * first frame.
+ *
+ * <p>The transport, and what is built on it (the dispatcher, the node directory and the navigation
+ * state and channel), stay in {@link #onCreate()}: the pages reach them from their own
+ * {@code onCreate()}, and none of them blocks, since the Wearable API connects asynchronously.
+ * What no page reads while it is created waits for the pipeline to be ready.
  */
 public class MobileApplication extends Application {
 
     private static String sPackageName;
     private static int sCurrentPage = Constants.TARGET_INTRO;
+    private static NavigationState sNavigationState;
+    private static NavigationChannel sNavigationChannel;
+    private static VoiceMixer sVoiceMixer;
+    private static TransferInbox sTransferInbox;
+    private static StartupPipeline sStartupPipeline;
+
+    // how long the voice mixer is kept warm for a watch on the voice page, in case we miss the
+    // message that it left
+    private static final long VOICE_PREWARM_MS = 5 * 60 * 1000;
+
+    // the watches that show the voice streaming page
+    private final Set<String> mVoiceNodes = new HashSet<>();
 
     @Override
     public void onCreate() {
         super.onCreate();
-        WearManager.initialize(getApplicationContext());
+        StartupTrace.begin();
+        if (BuildConfig.DEBUG) {
+            Tracer.getInstance().enable("phone");
+        }
+        sStartupPipeline = new StartupPipeline();
+        // the pages use the transport and the components below as soon as they are created, so
+        // they cannot wait for the pipeline; none of them blocks
+        WearTransport.initialize(getApplicationContext());
+        StartupTrace.traceWearManager();
+        MessageDispatcher.initialize();
+        NodeDirectory.initialize();
+        sNavigationState = new NavigationState(this, NavigationState.STATE_PATH_MOBILE,
+                Constants.NAVIGATION_PATH_WEAR, NavigationState.STATE_PATH_WEAR);
+        sStartupPipeline.runInBackground("NavigationState", new Runnable() {
+            @Override
+            public void run() {
+                sNavigationState.preload();
+            }
+        });
+        sNavigationChannel = new NavigationChannel(this, Constants.NAVIGATION_PATH_MOBILE,
+                sNavigationState);
         sPackageName = getApplicationContext().getPackageName();
+        sVoiceMixer = new VoiceMixer();
+        sTransferInbox = new TransferInbox(this, sStartupPipeline);
+        sStartupPipeline.finish();
+        // the listener is told the known state of the watches when it is added, so it loses
+        // nothing by waiting
+        sStartupPipeline.whenReady(new Runnable() {
+            @Override
+            public void run() {
+                sNavigationState.addListener(new NavigationState.Listener() {
+                    @Override
+                    public void onNavigationStateChanged(String nodeId, int page, long version) {
+                        onWatchNavigated(nodeId, page);
+                    }
+                });
+            }
+        });
     }
 
     /**
-     * A helper method to send a message to the nearby nodes with the information about the pages
-     * that are being opened as we navigate through this app. This information is used on the
-     * "Data Exchange" demo page.
+     * Gets the audio output ready as soon as a watch opens the voice streaming page, so the first
+     * words that it streams are not lost to setting up the audio track.
      */
-    public static void sendNavMessage(int page) {
-        WearManager wearManager = WearManager.getInstance();
-        Set<Node> nodes = wearManager.getConnectedNodes();
-        if (nodes == null) {
-            return;
-        }
-        Set<Node> nearbyNodes = new NearbyFilter().filterNodes(nodes);
-        DataMap dataMap = new DataMap();
-        dataMap.putInt(Constants.KEY_PAGE, page);
-        for(Node node : nearbyNodes) {
-            wearManager.sendMessage(node.getId(), Constants.NAVIGATION_PATH_MOBILE, dataMap, null);
+    private void onWatchNavigated(String nodeId, int page) {
+        synchronized (mVoiceNodes) {
+            if (page == Constants.TARGET_VOICE_STREAM) {
+                mVoiceNodes.add(nodeId);
+                sVoiceMixer.prewarm(VOICE_PREWARM_MS);
+            } else if (mVoiceNodes.remove(nodeId) && mVoiceNodes.isEmpty()) {
+                sVoiceMixer.cool();
+            }
         }
     }
 
+    /**
+     * Records the page that is being opened as we navigate through this app; the nearby nodes are
+     * informed through a debounced message. This information is used on the "Data Exchange" demo
+     * page.
+     */
     public static void setPage(int page) {
         sCurrentPage = page;
-        sendNavMessage(page);
+        sNavigationChannel.setPage(page);
     }
 
     public static int getPage() {
         return sCurrentPage;
     }
 
+    /**
+     * Returns the navigation state of this device and of the paired watches.
+     */
+    public static NavigationState getNavigationState() {
+        return sNavigationState;
+    }
+
+    /**
+     * Returns the mixer that plays the incoming voice streams; it outlives the pages, so that its
+     * audio track can be reused from one stream to the next.
+     */
+    public static VoiceMixer getVoiceMixer() {
+        return sVoiceMixer;
+    }
+
+    /**
+     * Returns the pipeline that finishes the set up of the app in the background; the features
+     * that need it done wait for it to be ready.
+     */
+    public static StartupPipeline getStartupPipeline() {
+        return sStartupPipeline;
+    }
+
+    /**
+     * Returns the inbox that receives what the watches send, whichever page is showing.
+     */
+    public static TransferInbox getTransferInbox() {
+        return sTransferInbox;
+    }
+
     /**
      * Returns the package name of this app (same on wear or mobile sides)
      */
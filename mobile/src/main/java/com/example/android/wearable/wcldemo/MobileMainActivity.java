@@ -20,7 +20,6 @@ import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.design.widget.NavigationView;
 import android.support.v4.app.Fragment;
-import android.support.v4.app.FragmentTransaction;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
@@ -34,9 +33,11 @@ import android.widget.Toast;
 import com.google.devrel.wcl.WearManager;
 
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.StartupTrace;
 import com.example.android.wearable.wcldemo.pages.DataExchangeFragment;
 import com.example.android.wearable.wcldemo.pages.FileTransferFragment;
 import com.example.android.wearable.wcldemo.pages.IntroFragment;
+import com.example.android.wearable.wcldemo.pages.MetricsFragment;
 import com.example.android.wearable.wcldemo.pages.StockFragment;
 import com.example.android.wearable.wcldemo.pages.VoiceFragment;
 
@@ -49,11 +50,14 @@ public class MobileMainActivity extends AppCompatActivity
 
     private static final String TAG = "MobileMainActivity";
     private static final String WEAR_APP_CAPABILITY = "wear_app_capability";
+    private PageHost mPageHost;
+    private SimulatedWatches mSimulatedWatches;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.mobile_main);
+        StartupTrace.traceFirstFrame(getWindow().getDecorView());
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
 
@@ -74,30 +78,80 @@ public class MobileMainActivity extends AppCompatActivity
 
         NavigationView navigationView = (NavigationView) findViewById(R.id.nav_view);
         navigationView.setNavigationItemSelectedListener(this);
+        navigationView.getMenu().findItem(R.id.nav_open_metrics).setVisible(BuildConfig.DEBUG);
 
-
-        IntroFragment fragment = new IntroFragment();
-        getSupportFragmentManager().beginTransaction()
-                .add(R.id.fragment_container, fragment).commit();
+        mPageHost = new PageHost(getSupportFragmentManager(), R.id.fragment_container,
+                new PageHost.PageFactory() {
+                    @Override
+                    public Fragment createPage(int page) {
+                        return createFragment(page);
+                    }
+                });
+        if (savedInstanceState == null) {
+            mPageHost.showPage(Constants.TARGET_INTRO);
+        } else {
+            mPageHost.onRestoreInstanceState(savedInstanceState);
+        }
 
         if (getIntent() != null && getIntent().getExtras() != null) {
             Bundle bundle = getIntent().getExtras();
             int target = bundle.getInt(Constants.KEY_TARGET);
             Log.d(TAG, "target = " + target);
             navigateTo(target);
+            if (BuildConfig.DEBUG && bundle.containsKey(PageSwitchBenchmark.EXTRA_RUNS)) {
+                startBenchmark(bundle.getInt(PageSwitchBenchmark.EXTRA_RUNS));
+            }
+            if (BuildConfig.DEBUG && bundle.containsKey(SimulatedWatches.EXTRA_WATCHES)) {
+                mSimulatedWatches = new SimulatedWatches(
+                        bundle.getInt(SimulatedWatches.EXTRA_WATCHES),
+                        bundle.getInt(SimulatedWatches.EXTRA_VOICE));
+                mSimulatedWatches.start();
+            }
         }
     }
 
+    /**
+     * Times the switches between the pages; see {@link PageSwitchBenchmark}.
+     */
+    private void startBenchmark(int runs) {
+        new PageSwitchBenchmark(getWindow().getDecorView(), new PageSwitchBenchmark.Navigator() {
+            @Override
+            public void navigateTo(int target) {
+                MobileMainActivity.this.navigateTo(target);
+            }
+        }, runs).start();
+    }
+
     @Override
     public void onBackPressed() {
         DrawerLayout drawer = (DrawerLayout) findViewById(R.id.drawer_layout);
         if (drawer.isDrawerOpen(GravityCompat.START)) {
             drawer.closeDrawer(GravityCompat.START);
-        } else {
+        } else if (!mPageHost.goBack()) {
             super.onBackPressed();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        if (mSimulatedWatches != null) {
+            mSimulatedWatches.stop();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        mPageHost.onSaveInstanceState(outState);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mPageHost.onTrimMemory(level);
+    }
+
     @Override
     public boolean onNavigationItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -118,6 +172,9 @@ public class MobileMainActivity extends AppCompatActivity
             case R.id.nav_open_voice_stream:
                 navigateTo(Constants.TARGET_VOICE_STREAM);
                 break;
+            case R.id.nav_open_metrics:
+                navigateTo(Constants.TARGET_METRICS);
+                break;
 
         }
 
@@ -126,10 +183,15 @@ public class MobileMainActivity extends AppCompatActivity
         return true;
     }
 
-    private void navigateTo(int target) {
-        if (MobileApplication.getPage() == target) {
-            return;
-        }
+    void navigateTo(int target) {
+        mPageHost.showPage(target);
+    }
+
+    /**
+     * Creates the page for {@code target}; it is only called the first time the page is shown, or
+     * after it has been let go of to save memory.
+     */
+    private Fragment createFragment(int target) {
         Fragment fragment = null;
         switch (target) {
             case Constants.TARGET_INTRO:
@@ -147,16 +209,11 @@ public class MobileMainActivity extends AppCompatActivity
             case Constants.TARGET_VOICE_STREAM:
                 fragment = new VoiceFragment();
                 break;
+            case Constants.TARGET_METRICS:
+                fragment = new MetricsFragment();
+                break;
         }
-
-        if (fragment != null) {
-            FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
-
-            transaction.replace(R.id.fragment_container, fragment);
-            transaction.addToBackStack(null);
-
-            transaction.commit();
-        }
+        return fragment;
     }
 
     /**
@@ -185,6 +242,9 @@ public class MobileMainActivity extends AppCompatActivity
             case Constants.TARGET_VOICE_STREAM:
                 activityName = ".pages.StreamingVoiceActivity";
                 break;
+            case Constants.TARGET_METRICS:
+                activityName = ".pages.MetricsActivity";
+                break;
         }
         if (!wearManager
                 .launchAppOnNodes(MobileApplication.getPackage() + activityName, null, false,
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import android.content.ComponentCallbacks2;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
+import android.util.Log;
+
+import com.example.android.wearable.wcldemo.pages.PageFragment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hosts the pages of {@link MobileMainActivity} in one container. Each {@code Constants.TARGET_*}
+ * page is created once and, when the user switches to another page, is hidden rather than
+ * destroyed, so coming back to it does not inflate its views or register its listeners again.
+ * The pages are kept by the {@link FragmentManager}, under a tag of their own, so they survive
+ * the activity being re-created as well.
+ *
+ * <p>The host remembers the order the pages were visited in, for the back button; a page is only
+ * in that history once, at the place it was last visited, so it never grows beyond the number of
+ * pages. When memory runs low, the pages are asked to trim what they hold, and the hidden pages
+ * are let go of altogether if it gets critical; they are created again when visited.
+ */
+class PageHost {
+
+    private static final String TAG = "PageHost";
+    private static final String PAGE_TAG_PREFIX = "page-";
+    private static final String KEY_HISTORY = "page_history";
+
+    private final FragmentManager mFragmentManager;
+    private final int mContainerId;
+    private final PageFactory mPageFactory;
+
+    // the pages in the order they were last visited; the last one is in front
+    private final List<Integer> mHistory = new ArrayList<>();
+
+    PageHost(FragmentManager fragmentManager, int containerId, PageFactory pageFactory) {
+        mFragmentManager = fragmentManager;
+        mContainerId = containerId;
+        mPageFactory = pageFactory;
+    }
+
+    /**
+     * Brings back the history that was saved with {@link #onSaveInstanceState(Bundle)}; the pages
+     * themselves are brought back by the {@link FragmentManager}.
+     */
+    void onRestoreInstanceState(Bundle savedInstanceState) {
+        int[] history = savedInstanceState.getIntArray(KEY_HISTORY);
+        if (history == null) {
+            return;
+        }
+        for (int page : history) {
+            mHistory.add(page);
+        }
+    }
+
+    void onSaveInstanceState(Bundle outState) {
+        int[] history = new int[mHistory.size()];
+        for (int i = 0; i < history.length; i++) {
+            history[i] = mHistory.get(i);
+        }
+        outState.putIntArray(KEY_HISTORY, history);
+    }
+
+    /**
+     * Returns the page that is in front, or -1 if there is none yet.
+     */
+    int getCurrentPage() {
+        return mHistory.isEmpty() ? -1 : mHistory.get(mHistory.size() - 1);
+    }
+
+    /**
+     * Brings {@code page} in front, creating it if it is not there yet.
+     */
+    void showPage(int page) {
+        int current = getCurrentPage();
+        if (page == current) {
+            return;
+        }
+        if (!switchPage(current, page)) {
+            Log.w(TAG, "No such page: " + page);
+            return;
+        }
+        mHistory.remove(Integer.valueOf(page));
+        mHistory.add(page);
+    }
+
+    /**
+     * Goes back to the page that was visited before the one in front; returns {@code false} if
+     * there is none.
+     */
+    boolean goBack() {
+        if (mHistory.size() < 2) {
+            return false;
+        }
+        int current = mHistory.remove(mHistory.size() - 1);
+        switchPage(current, getCurrentPage());
+        return true;
+    }
+
+    /**
+     * Passes on a {@link ComponentCallbacks2} level to the pages; the hidden ones are removed if
+     * the app is about to be killed otherwise.
+     */
+    void onTrimMemory(int level) {
+        boolean critical = level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE;
+        FragmentTransaction transaction = null;
+        for (int page : mHistory) {
+            Fragment fragment = findPage(page);
+            if (!(fragment instanceof PageFragment)) {
+                continue;
+            }
+            ((PageFragment) fragment).onTrimMemory(level);
+            if (critical && page != getCurrentPage()) {
+                if (transaction == null) {
+                    transaction = mFragmentManager.beginTransaction();
+                }
+                transaction.remove(fragment);
+            }
+        }
+        if (transaction != null) {
+            Log.d(TAG, "Releasing the hidden pages, trim level: " + level);
+            transaction.commitAllowingStateLoss();
+        }
+    }
+
+    private boolean switchPage(int from, int to) {
+        Fragment next = findPage(to);
+        FragmentTransaction transaction = mFragmentManager.beginTransaction();
+        if (next == null) {
+            next = mPageFactory.createPage(to);
+            if (next == null) {
+                return false;
+            }
+            transaction.add(mContainerId, next, getPageTag(to));
+        } else {
+            transaction.show(next);
+        }
+        Fragment previous = findPage(from);
+        if (previous != null) {
+            transaction.hide(previous);
+        }
+        transaction.commit();
+        // so that a page that was just added is found by the next switch, however soon it comes
+        mFragmentManager.executePendingTransactions();
+        return true;
+    }
+
+    private Fragment findPage(int page) {
+        return page < 0 ? null : mFragmentManager.findFragmentByTag(getPageTag(page));
+    }
+
+    /**
+     * Returns the tag that {@code page} is kept under by the {@link FragmentManager}.
+     */
+    static String getPageTag(int page) {
+        return PAGE_TAG_PREFIX + page;
+    }
+
+    /**
+     * Creates the pages as they are first needed.
+     */
+    interface PageFactory {
+
+        /**
+         * Returns a new instance of {@code page}, or {@code null} if there is no such page.
+         */
+        Fragment createPage(int page);
+    }
+}
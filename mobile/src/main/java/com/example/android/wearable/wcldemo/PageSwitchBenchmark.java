@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.StartupTrace;
+import com.example.android.wearable.wcldemo.common.metrics.FlowTimer;
+
+import java.util.Map;
+
+/**
+ * Switches between the pages of {@link MobileMainActivity} over and over, and logs how long each
+ * switch takes, from the call to {@code navigateTo()} until the new page is about to be drawn,
+ * along with how many objects it allocates. It is only available in debug builds, and is started
+ * from the command line, on a device or an emulator:
+ *
+ * <pre>
+ * adb shell am start -W -n com.example.android.wearable.wcldemo/.MobileMainActivity \
+ *         --ei benchmark_runs 50
+ * adb logcat -s PageSwitchBenchmark
+ * </pre>
+ *
+ * <p>The {@code -W} option of {@code am start} reports the cold start time of the activity; the
+ * phases of the start, as recorded by {@link StartupTrace}, are logged along with the results.
+ */
+class PageSwitchBenchmark {
+
+    private static final String TAG = "PageSwitchBenchmark";
+
+    /**
+     * The extra of the launch intent that gives how many times to go through the pages.
+     */
+    static final String EXTRA_RUNS = "benchmark_runs";
+
+    // the intro page goes last, so that each round starts from where the activity opens
+    static final int[] TARGETS = new int[]{
+            Constants.TARGET_STOCK,
+            Constants.TARGET_DATA,
+            Constants.TARGET_FILE_TRANSFER,
+            Constants.TARGET_VOICE_STREAM,
+            Constants.TARGET_INTRO
+    };
+
+    private final View mRoot;
+    private final Navigator mNavigator;
+    private final int mRuns;
+    private final FlowTimer[] mTimers = new FlowTimer[TARGETS.length];
+    private int mStep;
+
+    /**
+     * @param root The view that is drawn when the page changes
+     * @param runs How many times to go through all the pages
+     */
+    PageSwitchBenchmark(View root, Navigator navigator, int runs) {
+        mRoot = root;
+        mNavigator = navigator;
+        mRuns = runs;
+        for (int i = 0; i < TARGETS.length; i++) {
+            mTimers[i] = new FlowTimer("navigateTo(" + TARGETS[i] + ")");
+        }
+    }
+
+    /**
+     * Starts the benchmark once the activity is up; the switches run one after the other on the
+     * main thread.
+     */
+    void start() {
+        Log.i(TAG, "Switching through " + TARGETS.length + " pages " + mRuns + " times");
+        FlowTimer.startAllocCounting();
+        mRoot.post(new Runnable() {
+            @Override
+            public void run() {
+                next();
+            }
+        });
+    }
+
+    private void next() {
+        if (mStep == mRuns * TARGETS.length) {
+            finish();
+            return;
+        }
+        final FlowTimer timer = mTimers[mStep % TARGETS.length];
+        int target = TARGETS[mStep % TARGETS.length];
+        mStep++;
+        timer.start();
+        mNavigator.navigateTo(target);
+        mRoot.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                mRoot.getViewTreeObserver().removeOnPreDrawListener(this);
+                timer.stop();
+                mRoot.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        next();
+                    }
+                });
+                return true;
+            }
+        });
+        mRoot.invalidate();
+    }
+
+    private void finish() {
+        FlowTimer.stopAllocCounting();
+        for (Map.Entry<String, Long> phase : StartupTrace.getPhases()) {
+            Log.i(TAG, "Startup " + phase.getKey() + ": " + phase.getValue() + "ms");
+        }
+        for (FlowTimer timer : mTimers) {
+            Log.i(TAG, timer.getSummary());
+        }
+        Log.i(TAG, "Done");
+    }
+
+    /**
+     * Switches the activity to a page.
+     */
+    interface Navigator {
+
+        void navigateTo(int target);
+    }
+}
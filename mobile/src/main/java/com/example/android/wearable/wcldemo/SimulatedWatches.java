@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import android.util.Log;
+
+import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.ControlMessageCodec;
+import com.example.android.wearable.wcldemo.common.sim.LinkProfile;
+import com.example.android.wearable.wcldemo.common.sim.NodeSimulator;
+import com.example.android.wearable.wcldemo.common.sim.SimulatedNode;
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+import com.example.android.wearable.wcldemo.common.voice.VoiceStreamWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts the load of many watches on the app, with a {@link NodeSimulator}, to see how the phone
+ * side scales. Every simulated watch moves to a random page every second, which goes through the
+ * {@code MessageDispatcher} to the navigation state and the "Data Exchange" page, and some of the
+ * watches stream voice to the {@link TransferInbox}, which plays it if the voice page is showing.
+ * The simulator logs how late the messages get every few seconds.
+ *
+ * <p>It is only available in debug builds, and is started from the command line:
+ *
+ * <pre>
+ * adb shell am start -n com.example.android.wearable.wcldemo/.MobileMainActivity \
+ *         --ei simulate_watches 200 --ei simulate_voice 8
+ * adb logcat -s NodeSimulator SimulatedWatches
+ * </pre>
+ */
+class SimulatedWatches {
+
+    private static final String TAG = "SimulatedWatches";
+
+    /**
+     * The extra of the launch intent that gives how many watches to simulate.
+     */
+    static final String EXTRA_WATCHES = "simulate_watches";
+
+    /**
+     * The extra of the launch intent that gives how many of the watches stream voice.
+     */
+    static final String EXTRA_VOICE = "simulate_voice";
+
+    private static final long NAVIGATION_INTERVAL_MS = 1000;
+    private static final long REPORT_INTERVAL_MS = 5000;
+    private static final int VOICE_DURATION_S = 30;
+    private static final int TONE_HZ = 440;
+
+    private static final int[] PAGES = new int[]{
+            Constants.TARGET_LIST,
+            Constants.TARGET_DATA,
+            Constants.TARGET_FILE_TRANSFER,
+            Constants.TARGET_STOCK,
+            Constants.TARGET_VOICE_STREAM
+    };
+
+    private final NodeSimulator mSimulator = new NodeSimulator();
+    private final List<SimulatedNode> mVoiceWatches;
+    private final ScheduledExecutorService mExecutor = Executors.newScheduledThreadPool(1);
+    private final ControlMessageCodec.Encoder mEncoder = new ControlMessageCodec.Encoder();
+    private final Random mRandom = new Random(0);
+    private long mVersion;
+
+    /**
+     * @param watches How many watches to simulate in all
+     * @param voiceWatches How many of them stream voice; they send it compressed
+     */
+    SimulatedWatches(int watches, int voiceWatches) {
+        voiceWatches = Math.min(voiceWatches, watches);
+        mVoiceWatches = mSimulator.addNodes(voiceWatches, LinkProfile.BLUETOOTH,
+                Constants.CAPABILITY_VOICE_CODEC_ADPCM);
+        mSimulator.addNodes(watches - voiceWatches, LinkProfile.BLUETOOTH);
+    }
+
+    void start() {
+        mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                navigate();
+            }
+        }, 0, NAVIGATION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, mSimulator.getSummary());
+            }
+        }, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        if (!mVoiceWatches.isEmpty()) {
+            streamVoice();
+        }
+    }
+
+    void stop() {
+        mExecutor.shutdownNow();
+        mSimulator.shutdown();
+        Log.i(TAG, "Stopped; " + mSimulator.getSummary());
+    }
+
+    private void navigate() {
+        // the versions only have to increase; they are shared by all the watches for simplicity
+        mVersion = Math.max(mVersion + 1, System.currentTimeMillis());
+        for (SimulatedNode watch : mSimulator.getNodes()) {
+            byte[] message = mEncoder.begin(ControlMessageCodec.TYPE_PAGE_STATE)
+                    .putInt(PAGES[mRandom.nextInt(PAGES.length)])
+                    .putLong(mVersion)
+                    .toByteArray();
+            mSimulator.sendMessage(watch, Constants.NAVIGATION_PATH_WEAR, message);
+        }
+    }
+
+    private void streamVoice() {
+        final byte[] stream;
+        try {
+            stream = createVoiceStream(VoiceStreamWriter.CODEC_IMA_ADPCM);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create the voice stream", e);
+            return;
+        }
+        int bytesPerSecond = stream.length / VOICE_DURATION_S;
+        final TransferInbox inbox = MobileApplication.getTransferInbox();
+        for (SimulatedNode watch : mVoiceWatches) {
+            mSimulator.openStream(watch, new ByteArrayInputStream(stream), bytesPerSecond,
+                    new NodeSimulator.StreamReceiver() {
+                        @Override
+                        public void onStreamOpened(String nodeId, InputStream inputStream) {
+                            inbox.receiveStream(nodeId, Constants.STREAM_ID_PREFIX_VOICE
+                                    + UUID.randomUUID(), null, inputStream);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Returns a voice stream of a steady tone, {@link #VOICE_DURATION_S} long.
+     */
+    private static byte[] createVoiceStream(int codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VoiceStreamWriter writer = new VoiceStreamWriter(out, codec);
+        short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+        int frames = VOICE_DURATION_S * 1000 / VoiceFormat.FRAME_DURATION_MS;
+        for (int i = 0; i < frames; i++) {
+            for (int j = 0; j < frame.length; j++) {
+                double t = (double) (i * frame.length + j) / VoiceFormat.SAMPLE_RATE;
+                frame[j] = (short) (Math.sin(2 * Math.PI * TONE_HZ * t) * Short.MAX_VALUE / 4);
+            }
+            writer.writeFrame(frame);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Channel;
+import com.google.android.gms.wearable.WearableStatusCodes;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+
+import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.StartupPipeline;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.metrics.Counter;
+import com.example.android.wearable.wcldemo.common.metrics.Histogram;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Receives the files and the channels that the watches send, whichever page is in front and even
+ * when no page is. It is registered with the {@link WearTransport} by the application, so the
+ * listener service of the Wear Companion Library can hand it the transfers while the app is in
+ * the background.
+ *
+ * <p>Each channel is routed as it opens, by the request id that the watch gave it: a voice stream
+ * goes straight to the {@link VoiceHandler}, if there is one, since it is only worth playing live.
+ * Anything else is staged to a file of the inbox, as are the files that are sent as such, and kept
+ * there until the {@link Listener} that is attached takes it and marks it as
+ * {@link #consume(Transfer) consumed}. The staged transfers survive a restart of the app, so
+ * nothing has to be sent again because the user was looking at another page.
+ *
+ * <p>All the methods of this class should be called on the main thread; so are the listeners.
+ */
+public class TransferInbox {
+
+    private static final String TAG = "TransferInbox";
+
+    /**
+     * A file that was sent with {@code WearFileTransfer#startTransfer()}.
+     */
+    public static final int KIND_FILE = 0;
+
+    /**
+     * The content of a channel.
+     */
+    public static final int KIND_STREAM = 1;
+
+    private static final String INBOX_DIR = "inbox";
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final String STREAM_NAME = "stream";
+    private static final String UNNAMED = "unnamed";
+    private static final String SEPARATOR = "-";
+
+    private static final Counter sTransfersReceived =
+            Metrics.getInstance().counter(Metrics.TRANSFERS_RECEIVED);
+    private static final Counter sBytesReceived =
+            Metrics.getInstance().counter(Metrics.TRANSFER_BYTES_RECEIVED);
+    private static final Histogram sThroughput =
+            Metrics.getInstance().histogram(Metrics.TRANSFER_THROUGHPUT_KBPS, 4096, 4);
+
+    private final File mDir;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // a thread per channel, so a long transfer does not hold up a voice stream
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final List<Transfer> mPending = new ArrayList<>();
+    private Listener mListener;
+    private VoiceHandler mVoiceHandler;
+    // the time in the name of the last staged file; guarded by the inbox
+    private long mLastStagedAtMs;
+
+    /**
+     * @param startupPipeline The pipeline that the transfers staged before a restart are read on;
+     * they are delivered once it is ready
+     */
+    public TransferInbox(Context context, StartupPipeline startupPipeline) {
+        mDir = new File(context.getFilesDir(), INBOX_DIR);
+        final List<Transfer> staged = new ArrayList<>();
+        final long startMs = System.currentTimeMillis();
+        startupPipeline.runInBackground("TransferInbox", new Runnable() {
+            @Override
+            public void run() {
+                loadStagedTransfers(staged, startMs);
+            }
+        });
+        startupPipeline.whenReady(new Runnable() {
+            @Override
+            public void run() {
+                // these are older than anything that was staged in the meantime
+                mPending.addAll(0, staged);
+                if (mListener != null) {
+                    for (Transfer transfer : staged) {
+                        mListener.onTransferReceived(transfer);
+                    }
+                }
+            }
+        });
+        WearTransport.getInstance().addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableInputStreamForChannelOpened(int statusCode, String requestId,
+                    Channel channel, InputStream inputStream) {
+                if (statusCode != WearableStatusCodes.SUCCESS) {
+                    Log.e(TAG, "Failed to get the input stream of a channel: " + statusCode);
+                    return;
+                }
+                // the watch traces the channel by its path, which both ends see
+                receiveStream(channel.getNodeId(), requestId, channel.getPath(), inputStream);
+            }
+
+            @Override
+            public void onWearableFileReceivedResult(int statusCode, String requestId,
+                    File savedFile, String originalName) {
+                if (statusCode != WearableStatusCodes.SUCCESS) {
+                    Log.e(TAG, "Failed to receive " + originalName + ": " + statusCode);
+                    return;
+                }
+                onFileReceived(savedFile, originalName);
+            }
+        });
+    }
+
+    /**
+     * Attaches the {@code listener} that the transfers are delivered to; the ones that are staged
+     * and not consumed yet are delivered right away.
+     */
+    public void attach(Listener listener) {
+        mListener = listener;
+        for (Transfer transfer : new ArrayList<>(mPending)) {
+            listener.onTransferReceived(transfer);
+        }
+    }
+
+    public void detach(Listener listener) {
+        if (mListener == listener) {
+            mListener = null;
+        }
+    }
+
+    /**
+     * Sets the handler of the voice streams, or {@code null}. The voice streams that open while
+     * there is no handler are closed.
+     */
+    public void setVoiceHandler(VoiceHandler voiceHandler) {
+        mVoiceHandler = voiceHandler;
+    }
+
+    /**
+     * Removes {@code transfer} from the inbox, and its file from the disk, once it has been dealt
+     * with.
+     */
+    public void consume(final Transfer transfer) {
+        if (!mPending.remove(transfer)) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!transfer.file.delete()) {
+                    Log.w(TAG, "Failed to delete " + transfer.file);
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives a stream that {@code nodeId} opened, as if it came over a channel; the consumer of
+     * the channels calls this, and so can a stand-in for the watches, such as the
+     * {@link com.example.android.wearable.wcldemo.common.sim.NodeSimulator}. It can be called
+     * from any thread.
+     *
+     * @param streamId The request id of the channel, which tells what the stream is; see
+     * {@link Constants#STREAM_ID_PREFIX_VOICE}
+     * @param traceId The id that the traces of the stream carry on both devices, the path of the
+     * channel, or {@code null}
+     */
+    public void receiveStream(final String nodeId, final String streamId, final String traceId,
+            final InputStream inputStream) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                route(nodeId, streamId, traceId, inputStream);
+            }
+        });
+    }
+
+    /**
+     * Hands a voice stream to the voice handler, and stages the other streams. A stream whose id
+     * does not say what it is comes from an older wear app, whose voice streams are raw PCM from
+     * the recorder of the Wear Companion Library; it is taken for voice while there is a voice
+     * handler, as the pages of older versions did, and staged otherwise.
+     */
+    private void route(final String nodeId, String streamId, final String traceId,
+            final InputStream inputStream) {
+        boolean voice;
+        if (streamId != null && streamId.startsWith(Constants.STREAM_ID_PREFIX_VOICE)) {
+            voice = true;
+        } else if (streamId != null && streamId.startsWith(Constants.STREAM_ID_PREFIX_FILE)) {
+            voice = false;
+        } else {
+            voice = mVoiceHandler != null;
+        }
+        if (voice) {
+            if (mVoiceHandler != null) {
+                mVoiceHandler.onVoiceStreamOpened(nodeId, traceId, inputStream);
+            } else {
+                Log.d(TAG, "No one to play the voice from " + nodeId);
+                closeQuietly(inputStream);
+            }
+            return;
+        }
+        if (mListener != null) {
+            mListener.onTransferStarted(nodeId);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stageStream(nodeId, traceId, inputStream);
+            }
+        });
+    }
+
+    /**
+     * Copies a stream to a file of the inbox and stages it. Runs on a thread of the executor.
+     */
+    private void stageStream(String nodeId, String traceId, InputStream in) {
+        File partial = null;
+        try {
+            File file = newStagedFile(KIND_STREAM, nodeId, STREAM_NAME);
+            partial = new File(file.getPath() + PARTIAL_SUFFIX);
+            long startMs = SystemClock.elapsedRealtime();
+            Tracer.Span span = Tracer.getInstance().begin("transfer.receive", traceId,
+                    Tracer.FLOW_IN);
+            long bytes;
+            try {
+                bytes = copy(in, partial);
+            } finally {
+                span.end();
+            }
+            long durationMs = Math.max(1, SystemClock.elapsedRealtime() - startMs);
+            // bytes per millisecond are about kilobytes per second
+            sThroughput.record(bytes / durationMs);
+            if (!partial.renameTo(file)) {
+                throw new IOException("Cannot rename " + partial);
+            }
+            partial = null;
+            stage(new Transfer(file, KIND_STREAM, nodeId, STREAM_NAME,
+                    System.currentTimeMillis(), traceId));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to receive the stream from " + nodeId, e);
+            closeQuietly(in);
+            if (partial != null && !partial.delete()) {
+                Log.w(TAG, "Failed to delete " + partial);
+            }
+        }
+    }
+
+    private void onFileReceived(final File savedFile, final String originalName) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // the watch only knows the file by its name, so that is what the traces carry
+                Tracer.Span span = Tracer.getInstance().begin("transfer.move_file", originalName,
+                        Tracer.FLOW_IN);
+                // the file is moved to the inbox, so it is not copied and is found after a restart
+                sBytesReceived.add(savedFile.length());
+                File file = newStagedFile(KIND_FILE, "", originalName);
+                if (!savedFile.renameTo(file)) {
+                    Log.w(TAG, "Failed to move " + savedFile + " to the inbox");
+                    file = savedFile;
+                }
+                span.end();
+                stage(new Transfer(file, KIND_FILE, "", originalName,
+                        System.currentTimeMillis(), originalName));
+            }
+        });
+    }
+
+    private void stage(final Transfer transfer) {
+        Log.d(TAG, "Staged " + transfer);
+        sTransfersReceived.increment();
+        final Tracer.Span span = Tracer.getInstance().beginAsync("transfer.post_to_ui",
+                transfer.requestId);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                span.end();
+                mPending.add(transfer);
+                if (mListener != null) {
+                    mListener.onTransferReceived(transfer);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a new file of the inbox for a transfer. {@code name} comes from the watch, so only
+     * its last path component is kept, and the time that leads the name of the file is made to
+     * differ from that of any other file, so two transfers of the same name never collide.
+     */
+    private synchronized File newStagedFile(int kind, String nodeId, String name) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + mDir);
+        }
+        String safeName = name.substring(Math.max(name.lastIndexOf('/'),
+                name.lastIndexOf('\\')) + 1);
+        if (safeName.isEmpty() || safeName.equals(".") || safeName.equals("..")) {
+            safeName = UNNAMED;
+        }
+        String suffix = SEPARATOR + kind + SEPARATOR + nodeId.replace(SEPARATOR, "_") + SEPARATOR
+                + safeName;
+        long stagedAtMs = Math.max(System.currentTimeMillis(), mLastStagedAtMs + 1);
+        File file = new File(mDir, stagedAtMs + suffix);
+        while (file.exists() || new File(file.getPath() + PARTIAL_SUFFIX).exists()) {
+            file = new File(mDir, ++stagedAtMs + suffix);
+        }
+        mLastStagedAtMs = stagedAtMs;
+        return file;
+    }
+
+    /**
+     * Reads the transfers that were staged, and not consumed, before the app was restarted; the
+     * ones that were cut short are deleted. The files that were staged since the start are left
+     * alone; they are delivered as they are staged.
+     */
+    private void loadStagedTransfers(List<Transfer> staged, long startMs) {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String[] parts = file.getName().split(SEPARATOR, 4);
+            try {
+                long stagedAtMs = Long.parseLong(parts[0]);
+                if (stagedAtMs >= startMs) {
+                    continue;
+                }
+                if (file.getName().endsWith(PARTIAL_SUFFIX) || parts.length != 4) {
+                    if (!file.delete()) {
+                        Log.w(TAG, "Failed to delete " + file);
+                    }
+                    continue;
+                }
+                staged.add(new Transfer(file, Integer.parseInt(parts[1]), parts[2], parts[3],
+                        stagedAtMs, null));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring " + file);
+            }
+        }
+        Log.d(TAG, staged.size() + " transfer(s) waiting in the inbox");
+    }
+
+    /**
+     * Copies {@code in} to {@code file} and returns how many bytes it copied.
+     */
+    private static long copy(InputStream in, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        long copied = 0;
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+                copied += read;
+                sBytesReceived.add(read);
+            }
+            return copied;
+        } finally {
+            out.close();
+            in.close();
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * A transfer that waits in the inbox.
+     */
+    public static class Transfer {
+
+        public final File file;
+
+        /**
+         * One of {@link #KIND_FILE} or {@link #KIND_STREAM}.
+         */
+        public final int kind;
+
+        /**
+         * The node that sent the transfer, if known, or an empty string.
+         */
+        public final String nodeId;
+        public final String name;
+        public final long receivedAtMs;
+
+        /**
+         * The id that the traces of the transfer carry, or {@code null} if it was staged before
+         * the app restarted.
+         */
+        public final String requestId;
+
+        Transfer(File file, int kind, String nodeId, String name, long receivedAtMs,
+                String requestId) {
+            this.file = file;
+            this.kind = kind;
+            this.nodeId = nodeId;
+            this.name = name;
+            this.receivedAtMs = receivedAtMs;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public String toString() {
+            return "Transfer{file=" + file + ", kind=" + kind + ", nodeId=" + nodeId + "}";
+        }
+    }
+
+    /**
+     * Is given the transfers of the inbox.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a watch starts to send a stream that is going to be staged.
+         */
+        void onTransferStarted(String nodeId);
+
+        /**
+         * Called for each transfer that is staged; the transfer stays in the inbox, and is
+         * delivered again to the next listener, until it is consumed.
+         */
+        void onTransferReceived(Transfer transfer);
+    }
+
+    /**
+     * Plays the voice streams.
+     */
+    public interface VoiceHandler {
+
+        /**
+         * @param requestId The id that the traces of the stream carry, or {@code null}
+         */
+        void onVoiceStreamOpened(String nodeId, String requestId, InputStream inputStream);
+    }
+}
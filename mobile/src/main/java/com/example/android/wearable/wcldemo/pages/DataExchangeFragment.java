@@ -17,50 +17,44 @@
 package com.example.android.wearable.wcldemo.pages;
 
 import android.os.Bundle;
-import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.MessageEvent;
-import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
-
 import com.example.android.wearable.wcldemo.MobileApplication;
 import com.example.android.wearable.wcldemo.R;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.FrameUpdater;
+import com.example.android.wearable.wcldemo.common.NavigationState;
+import com.example.android.wearable.wcldemo.common.PageNames;
 
 /**
  * A simple fragment that shows the exchange of data between the phone and wear apps. When this
  * activity is in front on the mobile device, user will see messages as the user navigates between
  * different pages of the companion wear application.
  */
-public class DataExchangeFragment extends Fragment {
+public class DataExchangeFragment extends PageFragment {
 
-    private WearManager mWearManager;
-    private AbstractWearConsumer mWearConsumer;
+    private PageNames mPageNames;
+    private FrameUpdater mFrameUpdater;
+    private NavigationState.Listener mNavigationListener;
     private TextView mMessageTextView;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mWearManager = WearManager.getInstance();
+        mPageNames = PageNames.getInstance(getActivity());
+        mFrameUpdater = FrameUpdater.getInstance();
 
-        // We register a listener to be notified when messages arrive while we are on this page.
-        // We then filter messages based on their path to identify the ones that report on the
-        // navigation in the companion wear app. When such message is discovered, we write the name
-        // of new page to the view.
-        mWearConsumer = new AbstractWearConsumer() {
+        // We register a listener to be notified of the navigation in the companion wear app
+        // while we are on this page; it is called right away with the page that the wear app
+        // is known to be on. When the page changes, we write the name of new page to the view;
+        // the view is updated at most once per frame, however many updates arrive.
+        mNavigationListener = new NavigationState.Listener() {
             @Override
-            public void onWearableMessageReceived(MessageEvent messageEvent) {
-                if (!Constants.NAVIGATION_PATH_WEAR.equals(messageEvent.getPath())) {
-                    return;
-                }
-                DataMap dataMap = DataMap.fromByteArray(messageEvent.getData());
-                int currentPage  = dataMap.getInt(Constants.KEY_PAGE, Constants.TARGET_INTRO);
-                writeMessage(currentPage);
+            public void onNavigationStateChanged(String nodeId, int page, long version) {
+                writeMessage(page);
             }
         };
     }
@@ -74,53 +68,20 @@ public class DataExchangeFragment extends Fragment {
     }
 
     /**
-     * Mapping the id of page to its name and displaying the name
+     * Mapping the id of page to its name and displaying the name at the next frame
      */
-    private void writeMessage(final int page) {
-        String pageName = null;
-        switch (page) {
-            case Constants.TARGET_INTRO:
-                break;
-            case Constants.TARGET_DATA:
-                pageName = getString(R.string.page_data_exchange);
-                break;
-            case Constants.TARGET_FILE_TRANSFER:
-                pageName = getString(R.string.page_file_transfer);
-                break;
-            case Constants.TARGET_STOCK:
-                pageName = getString(R.string.page_stock);
-                break;
-            case Constants.TARGET_LIST:
-                pageName = getString(R.string.page_list);
-                break;
-            case Constants.TARGET_LIST_DIALOG:
-                pageName = getString(R.string.page_list_dialog);
-                break;
-            case Constants.TARGET_VOICE_STREAM:
-                pageName = getString(R.string.page_stream_voice);
-                break;
-            default:
-                pageName = getString(R.string.unknown);
-        }
-        final String text = getString(R.string.page_navigation_info, pageName);
-        getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mMessageTextView.setText(text);
-            }
-        });
+    private void writeMessage(int page) {
+        mFrameUpdater.setText(mMessageTextView, mPageNames.getNavigationInfo(page));
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
-        mWearManager.addWearConsumer(mWearConsumer);
+    protected void onPageShown() {
+        MobileApplication.getNavigationState().addListener(mNavigationListener);
         MobileApplication.setPage(Constants.TARGET_DATA);
     }
 
     @Override
-    public void onPause() {
-        mWearManager.removeWearConsumer(mWearConsumer);
-        super.onPause();
+    protected void onPageHidden() {
+        MobileApplication.getNavigationState().removeListener(mNavigationListener);
     }
 }
@@ -16,11 +16,11 @@
 
 package com.example.android.wearable.wcldemo.pages;
 
+import android.content.ComponentCallbacks2;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.support.v4.app.Fragment;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -29,19 +29,15 @@ import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
-import com.google.android.gms.wearable.Channel;
-import com.google.android.gms.wearable.WearableStatusCodes;
-import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
-
 import com.example.android.wearable.wcldemo.MobileApplication;
 import com.example.android.wearable.wcldemo.R;
+import com.example.android.wearable.wcldemo.TransferInbox;
+import com.example.android.wearable.wcldemo.common.CapabilityAdvertiser;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.util.Scanner;
 
 /**
@@ -51,20 +47,21 @@ import java.util.Scanner;
  * to its transfer, this fragment shows a spinner and when the transfer is complete, it shows the
  * image.
  */
-public class FileTransferFragment extends Fragment {
+public class FileTransferFragment extends PageFragment {
 
     private static final String TAG = "FileTransferFragment";
-    private WearManager mWearManager;
-    private AbstractWearConsumer mWearConsumer;
+    private TransferInbox.Listener mInboxListener;
     private ImageView mImageView;
     private TextView mTextView;
     private AsyncTask<Void, Void, Bitmap> mAsyncTask;
+    // the image that mAsyncTask decodes, if any
+    private TransferInbox.Transfer mImageTransfer;
     private ProgressBar mProgressBar;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setUpWearListeners();
+        setUpInboxListener();
     }
 
     @Override
@@ -91,82 +88,93 @@ public class FileTransferFragment extends Fragment {
     }
 
     /**
-     * Creates two listeners to be called when the transfer of the text file is completed and when
-     * a channel and an input stream is available to receive the image file. In some cases, it is
-     * desired to be transfer files even if the application at the receiving node is not in front.
-     * In those cases, one can define the same {@link com.google.devrel.wcl.callbacks.WearConsumer}
-     * in the application instance; then the WearableListener that the WCL library provides will be
-     * able to handle the transfer.
+     * Creates the listener of the {@link TransferInbox} of the application. The inbox receives
+     * the files even when this page is not in front, and hands them over when it comes back: the
+     * text file is shown in a text box and the image, which is sent over a channel, in an image
+     * view.
      */
-    private void setUpWearListeners() {
-        mWearManager = WearManager.getInstance();
-        mWearConsumer = new AbstractWearConsumer() {
+    private void setUpInboxListener() {
+        mInboxListener = new TransferInbox.Listener() {
+
+            @Override
+            public void onTransferStarted(String nodeId) {
+                mImageView.setImageResource(R.drawable.ic_photo_200dp);
+                mProgressBar.setVisibility(View.VISIBLE);
+            }
 
             @Override
-            public void onWearableInputStreamForChannelOpened(int statusCode, String requestId,
-                    final Channel channel, final InputStream inputStream) {
-                if (statusCode != WearableStatusCodes.SUCCESS) {
-                    Log.e(TAG, "onWearableInputStreamForChannelOpened(): "
-                            + "Failed to get input stream");
-                    return;
+            public void onTransferReceived(TransferInbox.Transfer transfer) {
+                Log.d(TAG, "Transfer received: " + transfer);
+                if (transfer.kind == TransferInbox.KIND_FILE) {
+                    Tracer.Span span = Tracer.getInstance().begin("transfer.show_text",
+                            transfer.requestId, Tracer.FLOW_NONE);
+                    mTextView.setText(getSimpleTextFileContent(transfer.file));
+                    span.end();
+                    MobileApplication.getTransferInbox().consume(transfer);
+                } else {
+                    showImage(transfer);
                 }
-                Log.d(TAG, "Channel opened for path: " + channel.getPath());
-                mAsyncTask = new AsyncTask<Void, Void, Bitmap>() {
-
-                    @Override
-                    protected void onPreExecute() {
-                        mImageView.setImageResource(R.drawable.ic_photo_200dp);
-                        mProgressBar.setVisibility(View.VISIBLE);
-                    }
-
-                    @Override
-                    protected Bitmap doInBackground(Void... params) {
-                        Bitmap bitmap = BitmapFactory.decodeStream(inputStream);
-                        closeStreams();
-                        if (isCancelled()) {
-                            return null;
-                        }
-                        return bitmap;
-                    }
-
-                    @Override
-                    protected void onCancelled() {
-                        mProgressBar.setVisibility(View.GONE);
-                        mAsyncTask = null;
-                        closeStreams();
-                    }
-
-                    @Override
-                    protected void onPostExecute(Bitmap bitmap) {
-                        mProgressBar.setVisibility(View.GONE);
-                        mImageView.setImageBitmap(bitmap);
-                        mAsyncTask = null;
-                    }
-
-                    public void closeStreams() {
-                        try {
-                            if (inputStream != null) {
-                                inputStream.close();
-                            }
-                        } catch (IOException e) {
-                            // no-op
-                        }
-                    }
-                };
-                mAsyncTask.execute();
             }
+        };
+    }
+
+    /**
+     * Decodes and shows the image of {@code transfer}. Only the newest image is shown: the inbox
+     * hands over all the images that came while the page was away, and each one that is
+     * superseded is discarded rather than decoded.
+     */
+    private void showImage(final TransferInbox.Transfer transfer) {
+        TransferInbox inbox = MobileApplication.getTransferInbox();
+        if (mAsyncTask != null) {
+            if (transfer.receivedAtMs < mImageTransfer.receivedAtMs) {
+                inbox.consume(transfer);
+                return;
+            }
+            mAsyncTask.cancel(true);
+            inbox.consume(mImageTransfer);
+        }
+        mImageTransfer = transfer;
+        mAsyncTask = new AsyncTask<Void, Void, Bitmap>() {
 
             @Override
-            public void onWearableFileReceivedResult(int statusCode, String requestId,
-                    File savedFile, String originalName) {
-                Log.d(TAG, String.format(
-                        "File Received: status=%d, requestId=%s, savedLocation=%s, originalName=%s",
-                        statusCode, requestId, savedFile.getAbsolutePath(), originalName));
-                String fileContent = getSimpleTextFileContent(savedFile);
-                mTextView.setText(fileContent);
+            protected void onPreExecute() {
+                mProgressBar.setVisibility(View.VISIBLE);
             }
 
+            @Override
+            protected Bitmap doInBackground(Void... params) {
+                Tracer.Span span = Tracer.getInstance().begin("transfer.decode_image",
+                        transfer.requestId, Tracer.FLOW_NONE);
+                Bitmap bitmap = BitmapFactory.decodeFile(transfer.file.getPath());
+                span.end();
+                if (isCancelled()) {
+                    return null;
+                }
+                return bitmap;
+            }
+
+            @Override
+            protected void onCancelled() {
+                // unless a newer image is on its way, the page was hidden; the transfer stays in
+                // the inbox and is shown when the page comes back
+                if (mAsyncTask == null) {
+                    mProgressBar.setVisibility(View.GONE);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Bitmap bitmap) {
+                mProgressBar.setVisibility(View.GONE);
+                Tracer.Span span = Tracer.getInstance().begin("transfer.show_image",
+                        transfer.requestId, Tracer.FLOW_NONE);
+                mImageView.setImageBitmap(bitmap);
+                span.end();
+                mAsyncTask = null;
+                mImageTransfer = null;
+                MobileApplication.getTransferInbox().consume(transfer);
+            }
         };
+        mAsyncTask.execute();
     }
 
     /**
@@ -185,30 +193,37 @@ public class FileTransferFragment extends Fragment {
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
-
-        // register our listeners
-        mWearManager.addWearConsumer(mWearConsumer);
+    protected void onPageShown() {
+        // take the files that arrived while we were away, and the ones to come
+        MobileApplication.getTransferInbox().attach(mInboxListener);
 
         // add the local capability to handle file transfer
-        mWearManager.addCapabilities(Constants.CAPABILITY_FILE_PROCESSOR);
+        CapabilityAdvertiser.getInstance().acquire(Constants.CAPABILITY_FILE_PROCESSOR);
 
         MobileApplication.setPage(Constants.TARGET_FILE_TRANSFER);
     }
 
     @Override
-    public void onPause() {
-        // unregister our listeners
-        mWearManager.removeWearConsumer(mWearConsumer);
+    protected void onPageHidden() {
+        MobileApplication.getTransferInbox().detach(mInboxListener);
 
         // remove the capability to handle file transfer
-        mWearManager.removeCapabilities(Constants.CAPABILITY_FILE_PROCESSOR);
+        CapabilityAdvertiser.getInstance().release(Constants.CAPABILITY_FILE_PROCESSOR);
 
         if (mAsyncTask != null) {
             mAsyncTask.cancel(true);
             mAsyncTask = null;
+            mImageTransfer = null;
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        // the image is the one heavy thing that the page holds; it goes first while the page is
+        // hidden, and once the app is in the background even if it is the page in front
+        if (mImageView != null && (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || (isHidden() && level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW))) {
+            mImageView.setImageResource(R.drawable.ic_photo_200dp);
         }
-        super.onPause();
     }
 }
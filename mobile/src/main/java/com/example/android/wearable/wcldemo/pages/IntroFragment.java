@@ -17,7 +17,6 @@
 package com.example.android.wearable.wcldemo.pages;
 
 import android.os.Bundle;
-import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -29,7 +28,7 @@ import com.example.android.wearable.wcldemo.common.Constants;
 /**
  * The introductory fragment.
  */
-public class IntroFragment extends Fragment {
+public class IntroFragment extends PageFragment {
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
@@ -38,8 +37,7 @@ public class IntroFragment extends Fragment {
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
+    protected void onPageShown() {
         MobileApplication.setPage(Constants.TARGET_INTRO);
     }
 }
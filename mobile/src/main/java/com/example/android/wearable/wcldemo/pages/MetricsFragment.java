@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.pages;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.wearable.wcldemo.MobileApplication;
+import com.example.android.wearable.wcldemo.R;
+import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
+
+/**
+ * A debug page that shows the live values of the {@link Metrics} of the app; it is refreshed
+ * every second while it is showing. It also exports the spans of the {@link Tracer}.
+ */
+public class MetricsFragment extends PageFragment {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final Handler mHandler = new Handler();
+    private TextView mMetricsView;
+
+    private final Runnable mRefresher = new Runnable() {
+        @Override
+        public void run() {
+            mMetricsView.setText(Metrics.getInstance().getReport());
+            mHandler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+            Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.metrics_fragment, container, false);
+        mMetricsView = (TextView) view.findViewById(R.id.metrics);
+        view.findViewById(R.id.export_trace).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Tracer.getInstance().exportInBackground(getActivity());
+            }
+        });
+        return view;
+    }
+
+    @Override
+    protected void onPageShown() {
+        MobileApplication.setPage(Constants.TARGET_METRICS);
+        mRefresher.run();
+    }
+
+    @Override
+    protected void onPageHidden() {
+        mHandler.removeCallbacks(mRefresher);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.pages;
+
+import android.support.v4.app.Fragment;
+
+/**
+ * A page of the mobile app. The pages are kept around once created, and are hidden rather than
+ * destroyed when the user switches to another one, so a page is resumed even while it is hidden.
+ * It should therefore do in {@link #onPageShown()} and {@link #onPageHidden()} what it would do
+ * in {@code onResume()} and {@code onPause()}: these are called when the page is both resumed
+ * and shown, and when it stops being either.
+ */
+public abstract class PageFragment extends Fragment {
+
+    private boolean mShown;
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (!isHidden()) {
+            dispatchShown();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        dispatchHidden();
+        super.onPause();
+    }
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        if (hidden) {
+            dispatchHidden();
+        } else if (isResumed()) {
+            dispatchShown();
+        }
+    }
+
+    /**
+     * Called when the page comes in front of the user.
+     */
+    protected void onPageShown() {
+    }
+
+    /**
+     * Called when the page is no longer in front of the user, whether it is hidden or the activity
+     * is paused.
+     */
+    protected void onPageHidden() {
+    }
+
+    /**
+     * Called with the {@code ComponentCallbacks2} level when the system asks the app to use less
+     * memory; the page should let go of what it can create again, especially while it is hidden.
+     */
+    public void onTrimMemory(int level) {
+    }
+
+    private void dispatchShown() {
+        if (!mShown) {
+            mShown = true;
+            onPageShown();
+        }
+    }
+
+    private void dispatchHidden() {
+        if (mShown) {
+            mShown = false;
+            onPageHidden();
+        }
+    }
+}
@@ -16,9 +16,10 @@
 
 package com.example.android.wearable.wcldemo.pages;
 
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.support.v4.app.Fragment;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -30,21 +31,30 @@ import android.widget.Toast;
 import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.MessageApi;
-import com.google.devrel.wcl.WearManager;
 import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
 import com.google.devrel.wcl.connectivity.WearHttpHelper;
 
+import com.example.android.wearable.wcldemo.CircuitBreaker;
 import com.example.android.wearable.wcldemo.MobileApplication;
 import com.example.android.wearable.wcldemo.R;
+import com.example.android.wearable.wcldemo.common.CapabilityAdvertiser;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.metrics.Counter;
+import com.example.android.wearable.wcldemo.common.metrics.Histogram;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * A fragment that shows how a wear application can use the companion app on a phone to perform
@@ -53,29 +63,47 @@ import java.net.URLConnection;
  * nodeId of the node that sent the request. Then this fragment makes the network call and when it
  * has the response, it forwards the response to the originating node and show the status of the
  * response on the screen.
+ *
+ * <p>Each upstream host is guarded by a {@link CircuitBreaker}; while a host is failing, requests
+ * for it are answered right away with {@link Constants#HTTP_STATUS_UPSTREAM_UNAVAILABLE} so the
+ * watch does not have to wait for its own timeout.
  */
-public class StockFragment extends Fragment {
+public class StockFragment extends PageFragment {
 
     private static final String TAG = "StockFragment";
-    private WearManager mWearManager;
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    private static final int READ_TIMEOUT_MS = 5000;
+
+    // a small pool shared by all the proxied requests, instead of a new thread per request
+    private static final ExecutorService sHttpExecutor = Executors.newFixedThreadPool(4);
+
+    // from the request to the response being handed back, including the upstream call
+    private static final Histogram sProxyLatency = Metrics.getInstance().histogram(
+            Metrics.HTTP_PROXY_LATENCY_MS, READ_TIMEOUT_MS * 2, 10);
+    private static final Counter sProxyFailures =
+            Metrics.getInstance().counter(Metrics.HTTP_PROXY_FAILURES);
+    private WearTransport mTransport;
     private AbstractWearConsumer mWearConsumer;
     private TextView mMessageView;
     private Handler mHandler;
 
-    // A callback to report the status of the response
-    private ResultCallback<MessageApi.SendMessageResult> mResultCallback
-            = new ResultCallback<MessageApi.SendMessageResult>() {
-        @Override
-        public void onResult(MessageApi.SendMessageResult sendMessageResult) {
-            String message;
-            if (sendMessageResult.getStatus().isSuccess()) {
-                message = "Response: sent the response to device";
-            } else {
-                message = "Response: failed to send the response";
+    /**
+     * Returns a callback to report the status of the response to {@code requestId}.
+     */
+    private ResultCallback<MessageApi.SendMessageResult> resultCallback(final String requestId) {
+        return new ResultCallback<MessageApi.SendMessageResult>() {
+            @Override
+            public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                String message;
+                if (sendMessageResult.getStatus().isSuccess()) {
+                    message = "Response: sent the response to device";
+                } else {
+                    message = "Response: failed to send the response";
+                }
+                writeMessage(message, true, requestId);
             }
-            writeMessage(message, true);
-        }
-    };
+        };
+    }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -85,7 +113,7 @@ public class StockFragment extends Fragment {
     }
 
     private void setUpWearListeners() {
-        mWearManager = WearManager.getInstance();
+        mTransport = WearTransport.getInstance();
 
         // Registering a listener to inform us when an http request is coming in from another node
         // and also when we know the status of the response sent back to the originating node
@@ -104,7 +132,7 @@ public class StockFragment extends Fragment {
             public void onWearableHttpRequestReceived(String url, String method, String query,
                     String charset, String nodeId, String requestId) {
                 String message = String.format("Node Id: %s\n\nUrl: %s\n", nodeId, url);
-                writeMessage("An Http Request received:\n\n" + message, false);
+                writeMessage("An Http Request received:\n\n" + message, false, requestId);
                 handleHttpRequest(url, method, query, charset, nodeId, requestId);
             }
 
@@ -123,19 +151,52 @@ public class StockFragment extends Fragment {
 
     private void handleHttpRequest(final String url, final String method, final String query,
             final String charset, final String nodeId, final String requestId) {
-        new Thread(new Runnable() {
+        final Tracer.Span requestSpan = Tracer.getInstance().beginAsync("proxy.request",
+                requestId);
+        final CircuitBreaker breaker = CircuitBreaker.forHost(Uri.parse(url).getHost());
+        if (!breaker.allowRequest()) {
+            // the upstream has been failing; fail fast rather than keeping the watch waiting
+            Log.d(TAG, "Rejecting the request, " + breaker.describe());
+            Metrics.getInstance().counter(Metrics.HTTP_PROXY_REJECTED).increment();
+            WearTransport.getInstance()
+                    .sendHttpResponse("", Constants.HTTP_STATUS_UPSTREAM_UNAVAILABLE, nodeId,
+                            requestId, resultCallback(requestId));
+            writeMessage("Upstream " + breaker.describe(), true, requestId);
+            requestSpan.end();
+            return;
+        }
+        sHttpExecutor.execute(new Runnable() {
             @Override
             public void run() {
+                long start = SystemClock.elapsedRealtime();
+                // a failure unless the call returns, so that whatever goes wrong is recorded and
+                // a half-open breaker is never left waiting for the outcome of its probe
+                boolean failed = true;
                 try {
-                    makeHttpCall(url, method, query, charset, nodeId, requestId);
+                    int statusCode = makeHttpCall(url, method, query, charset, nodeId, requestId);
+                    failed = statusCode >= HttpURLConnection.HTTP_INTERNAL_ERROR;
                 } catch (IOException e) {
                     Log.e(TAG, "Failed to make the http call", e);
-                    WearManager.getInstance()
+                    Tracer.Span span = Tracer.getInstance().begin("proxy.send_response",
+                            requestId, Tracer.FLOW_OUT);
+                    WearTransport.getInstance()
                             .sendHttpResponse("", HttpURLConnection.HTTP_BAD_REQUEST, nodeId,
-                                    requestId, mResultCallback);
+                                    requestId, resultCallback(requestId));
+                    span.end();
+                } finally {
+                    long latency = SystemClock.elapsedRealtime() - start;
+                    sProxyLatency.record(latency);
+                    if (failed) {
+                        sProxyFailures.increment();
+                        breaker.onFailure(latency);
+                    } else {
+                        breaker.onSuccess(latency);
+                    }
+                    writeMessage("Upstream " + breaker.describe(), true, requestId);
+                    requestSpan.end();
                 }
             }
-        }).start();
+        });
 
     }
 
@@ -153,11 +214,16 @@ public class StockFragment extends Fragment {
      * <code>param1=value1&param2=value2&..</code>
      * and it <code>value1, value2, ...</code> should all be URLEncoded by the caller.
      *
+     * @return The status code of the response from the upstream
      * @throws IOException
      */
-    private void makeHttpCall(String url, String method, String query, String charset,
+    private int makeHttpCall(String url, String method, String query, String charset,
             String nodeId, String requestId) throws IOException {
+        Tracer.Span fetchSpan = Tracer.getInstance().begin("proxy.upstream_fetch", requestId,
+                Tracer.FLOW_NONE);
         URLConnection urlConnection = new URL(url).openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MS);
         urlConnection.setRequestProperty("Accept-Charset", charset);
         // Note: the following if-clause will not be executed for this particular example
         if (WearHttpHelper.METHOD_POST.equals(method)) {
@@ -169,27 +235,45 @@ public class StockFragment extends Fragment {
                 output.write(query.getBytes(charset));
             }
         }
-        BufferedReader in = new BufferedReader(
-                new InputStreamReader(urlConnection.getInputStream()));
-        String inputLine;
+        // the status has to come first: for an error status, getInputStream() throws and the
+        // body, if there is one, is in the error stream
+        HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+        int statusCode = httpConnection.getResponseCode();
+        InputStream stream = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? httpConnection.getErrorStream() : httpConnection.getInputStream();
         StringBuilder sb = new StringBuilder();
-        while ((inputLine = in.readLine()) != null) {
-            sb.append(inputLine);
+        if (stream != null) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(stream));
+            String inputLine;
+            while ((inputLine = in.readLine()) != null) {
+                sb.append(inputLine);
+            }
+            in.close();
         }
-        in.close();
-        int statusCode = ((HttpURLConnection) urlConnection).getResponseCode();
-        WearManager.getInstance().sendHttpResponse(sb.toString(), statusCode, nodeId, requestId,
-                mResultCallback);
+        fetchSpan.end();
+        Tracer.Span sendSpan = Tracer.getInstance().begin("proxy.send_response", requestId,
+                Tracer.FLOW_OUT);
+        WearTransport.getInstance().sendHttpResponse(sb.toString(), statusCode, nodeId, requestId,
+                resultCallback(requestId));
+        sendSpan.end();
+        return statusCode;
     }
 
     /**
      * Write a message to the display; it can append to the existing message if {@code append} is
-     * {@code true}.
+     * {@code true}. The post to the UI thread is traced with {@code requestId}, unless it is
+     * {@code null}.
      */
-    private void writeMessage(final String message, final boolean append) {
+    private void writeMessage(final String message, final boolean append,
+            String requestId) {
+        final Tracer.Span span = requestId != null
+                ? Tracer.getInstance().beginAsync("proxy.post_to_ui", requestId) : null;
         mHandler.post(new Runnable() {
             @Override
             public void run() {
+                if (span != null) {
+                    span.end();
+                }
                 String msg = message;
                 if (append) {
                     msg = mMessageView.getText().toString() + "\n" + msg;
@@ -200,18 +284,16 @@ public class StockFragment extends Fragment {
     }
 
     @Override
-    public void onPause() {
-        mWearManager.removeWearConsumer(mWearConsumer);
-        mWearManager.removeCapabilities(Constants.CAPABILITY_HTTP_HANDLER);
-        super.onPause();
+    protected void onPageHidden() {
+        mTransport.removeWearConsumer(mWearConsumer);
+        CapabilityAdvertiser.getInstance().release(Constants.CAPABILITY_HTTP_HANDLER);
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
-        mWearManager.addWearConsumer(mWearConsumer);
-        mWearManager.addCapabilities(Constants.CAPABILITY_HTTP_HANDLER);
+    protected void onPageShown() {
+        mTransport.addWearConsumer(mWearConsumer);
+        CapabilityAdvertiser.getInstance().acquire(Constants.CAPABILITY_HTTP_HANDLER);
         MobileApplication.setPage(Constants.TARGET_STOCK);
-        writeMessage("", false);
+        writeMessage("", false, null);
     }
 }
@@ -17,41 +17,109 @@
 package com.example.android.wearable.wcldemo.pages;
 
 import android.os.Bundle;
-import android.support.annotation.Nullable;
-import android.support.v4.app.Fragment;
+import android.os.Handler;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.CheckBox;
 import android.widget.TextView;
 
-import com.google.android.gms.wearable.Channel;
-import com.google.android.gms.wearable.WearableStatusCodes;
-import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
-import com.google.devrel.wcl.widgets.recording.WclSoundManager;
-
+import com.example.android.wearable.wcldemo.BuildConfig;
 import com.example.android.wearable.wcldemo.MobileApplication;
 import com.example.android.wearable.wcldemo.R;
+import com.example.android.wearable.wcldemo.TransferInbox;
+import com.example.android.wearable.wcldemo.common.ClockSync;
+import com.example.android.wearable.wcldemo.common.CapabilityAdvertiser;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.metrics.Histogram;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
+import com.example.android.wearable.wcldemo.voice.JitterBuffer;
+import com.example.android.wearable.wcldemo.voice.LevelMeter;
+import com.example.android.wearable.wcldemo.voice.ProcessingPipeline;
+import com.example.android.wearable.wcldemo.voice.SpectrumAnalyzer;
+import com.example.android.wearable.wcldemo.voice.VoiceLatencyMonitor;
+import com.example.android.wearable.wcldemo.voice.VoiceMixer;
+import com.example.android.wearable.wcldemo.voice.VoiceRecorder;
+import com.example.android.wearable.wcldemo.voice.VoiceSession;
 
+import java.io.File;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * The introductory fragment.
  */
-public class VoiceFragment extends Fragment {
+public class VoiceFragment extends PageFragment {
 
     private static final String TAG = "VoiceFragment";
-    private WearManager mWearManager;
-    private AbstractWearConsumer mWearConsumer;
-    private WclSoundManager mSoundManager;
+    private static final long LEVEL_UPDATE_INTERVAL_MS = 100;
+    private static final String RECORDING_RING_DIR = "voice_ring";
+    private static final String RECORDINGS_DIR = "recordings";
+    private TransferInbox.VoiceHandler mVoiceHandler;
+
+    // one session per watch that streams, all played through the mixer of the application
+    private VoiceMixer mMixer;
+    private final Map<String, VoiceSession> mSessions = new HashMap<>();
+
+    // the span of each session, by node, from when its stream opens until it stops
+    private final Map<String, Tracer.Span> mSessionSpans = new HashMap<>();
+
     private TextView mMessageView;
+    private TextView mLevelView;
+    private TextView mLatencyView;
+    private CheckBox mRecordView;
+
+    // the live voice is analyzed off of the audio path, by these stages
+    private final LevelMeter mLevelMeter = new LevelMeter();
+    private final SpectrumAnalyzer mSpectrumAnalyzer = new SpectrumAnalyzer();
+    private ProcessingPipeline mPipeline;
+
+    private final Handler mHandler = new Handler();
+    private final Runnable mLevelUpdater = new Runnable() {
+        @Override
+        public void run() {
+            mLevelView.setText(getString(R.string.voice_level, mLevelMeter.getLevelDb(),
+                    mSpectrumAnalyzer.getDominantFrequency()));
+            updateLatency();
+            mHandler.postDelayed(this, LEVEL_UPDATE_INTERVAL_MS);
+        }
+    };
+
+    private final VoiceSession.OnSessionEndedListener mSessionEndedListener =
+            new VoiceSession.OnSessionEndedListener() {
+                @Override
+                public void onSessionEnded(VoiceSession session, int reason) {
+                    Log.d(TAG, "Voice from " + session.getNodeId() + " ended with reason: "
+                            + reason);
+                    if (mSessions.get(session.getNodeId()) == session) {
+                        mSessions.remove(session.getNodeId());
+                        stopSession(session);
+                    }
+                    if (!isAdded()) {
+                        return;
+                    }
+                    if (!mSessions.isEmpty()) {
+                        showSessionCount();
+                        return;
+                    }
+                    mHandler.removeCallbacks(mLevelUpdater);
+                    JitterBuffer jitterBuffer = session.getJitterBuffer();
+                    mMessageView.setText(getString(R.string.voice_stream_ended_stats,
+                            jitterBuffer.getUnderrunCount(),
+                            jitterBuffer.getConcealedFrameCount()));
+                }
+            };
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setUpWearListeners();
+        mPipeline = new ProcessingPipeline()
+                .addProcessor(mLevelMeter)
+                .addProcessor(mSpectrumAnalyzer);
+        mMixer = MobileApplication.getVoiceMixer();
+        setUpVoiceHandler();
     }
 
     @Override
@@ -59,55 +127,150 @@ public class VoiceFragment extends Fragment {
             Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.voice_fragment, container, false);
         mMessageView = (TextView) view.findViewById(R.id.message);
+        mLevelView = (TextView) view.findViewById(R.id.level);
+        mLatencyView = (TextView) view.findViewById(R.id.latency);
+        mLatencyView.setVisibility(BuildConfig.DEBUG ? View.VISIBLE : View.GONE);
+        mRecordView = (CheckBox) view.findViewById(R.id.record);
         return view;
     }
 
     /**
-     * Creates a listener to be called when a channel and an input stream is available to receive
-     * sound stream.
+     * Returns a pipeline that records the stream from {@code nodeId} to the files of the app.
      */
-    private void setUpWearListeners() {
-        mWearManager = WearManager.getInstance();
-        mWearConsumer = new AbstractWearConsumer() {
+    private ProcessingPipeline createRecordingTee(String nodeId) {
+        // node ids are made of letters and digits, but better safe than sorry with file names
+        String name = "voice-" + nodeId.replaceAll("[^A-Za-z0-9]", "_");
+        File ringDir = new File(new File(getActivity().getFilesDir(), RECORDING_RING_DIR), name);
+        File outputDir = getActivity().getExternalFilesDir(RECORDINGS_DIR);
+        if (outputDir == null) {
+            outputDir = new File(getActivity().getFilesDir(), RECORDINGS_DIR);
+        }
+        return new ProcessingPipeline().addProcessor(new VoiceRecorder(ringDir, outputDir, name));
+    }
+
+    /**
+     * Shows the latency of each stream, in debug builds, as the frames that the watches timestamp
+     * come in.
+     */
+    private void updateLatency() {
+        StringBuilder text = new StringBuilder();
+        for (VoiceSession session : mSessions.values()) {
+            VoiceLatencyMonitor monitor = session.getLatencyMonitor();
+            if (monitor == null) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append("\n\n");
+            }
+            String latency = describeLatency(monitor);
+            text.append(mSessions.size() == 1 ? latency
+                    : getString(R.string.voice_latency_node, session.getNodeId(), latency));
+        }
+        mLatencyView.setText(text);
+    }
+
+    private String describeLatency(VoiceLatencyMonitor monitor) {
+        Histogram oneWay = monitor.getOneWayLatency();
+        Histogram buffering = monitor.getBufferingLatency();
+        ClockSync clockSync = monitor.getClockSync();
+        return getString(R.string.voice_latency,
+                oneWay.getPercentile(50), oneWay.getPercentile(95), oneWay.getPercentile(99),
+                buffering.getPercentile(50), buffering.getPercentile(95),
+                clockSync.getOffsetMs(),
+                clockSync.hasOffset() ? clockSync.getRoundTripMs() / 2 : 0);
+    }
+
+    private void stopSession(VoiceSession session) {
+        session.stop();
+        Tracer.Span span = mSessionSpans.remove(session.getNodeId());
+        if (span != null) {
+            span.end();
+        }
+        VoiceLatencyMonitor monitor = session.getLatencyMonitor();
+        if (monitor != null) {
+            monitor.getClockSync().stop();
+        }
+    }
+
+    /**
+     * Creates a handler to be called by the {@link TransferInbox} when a channel carrying a voice
+     * stream has been opened.
+     */
+    private void setUpVoiceHandler() {
+        mVoiceHandler = new TransferInbox.VoiceHandler() {
 
             @Override
-            public void onWearableInputStreamForChannelOpened(int statusCode, String requestId,
-                    final Channel channel, final InputStream inputStream) {
-                if (statusCode != WearableStatusCodes.SUCCESS) {
-                    Log.e(TAG, "onWearableInputStreamForChannelOpened(): "
-                            + "Failed to get input stream");
-                    return;
+            public void onVoiceStreamOpened(String nodeId, String requestId,
+                    InputStream inputStream) {
+                Log.d(TAG, "Voice stream opened from: " + nodeId);
+                Tracer.Span setupSpan = Tracer.getInstance().begin("voice.session_setup",
+                        requestId, Tracer.FLOW_IN);
+                // a watch only streams once at a time; a new channel replaces its old one
+                VoiceSession previous = mSessions.remove(nodeId);
+                if (previous != null) {
+                    stopSession(previous);
                 }
-                Log.d(TAG, "Channel opened for path: " + channel.getPath());
-                mMessageView.setText(R.string.voice_stream_started);
-                mSoundManager = new WclSoundManager(getActivity());
-                mSoundManager.play(inputStream, new WclSoundManager.OnVoicePlaybackFinishedListener() {
-                    @Override
-                    public void onPlaybackFinished(int reason, @Nullable String reasonMessage) {
-                        Log.d(TAG, "Voice ended with reason: " + reason);
-                        mMessageView.setText(R.string.voice_stream_ended);
-                    }
-                });
+                VoiceSession session = new VoiceSession(nodeId);
+                if (BuildConfig.DEBUG) {
+                    ClockSync clockSync = new ClockSync(nodeId);
+                    clockSync.start();
+                    session.setLatencyMonitor(new VoiceLatencyMonitor(clockSync));
+                }
+                if (mRecordView.isChecked()) {
+                    session.setTee(createRecordingTee(nodeId));
+                }
+                mSessions.put(nodeId, session);
+                mSessionSpans.put(nodeId,
+                        Tracer.getInstance().beginAsync("voice.session", requestId));
+                session.start(inputStream, mSessionEndedListener);
+                mMixer.addSession(session);
+                setupSpan.end();
+                showSessionCount();
+                mHandler.removeCallbacks(mLevelUpdater);
+                mHandler.post(mLevelUpdater);
             }
 
         };
     }
 
+    private void showSessionCount() {
+        if (mSessions.size() == 1) {
+            mMessageView.setText(R.string.voice_stream_started);
+        } else {
+            mMessageView.setText(getString(R.string.voice_streams_active, mSessions.size()));
+        }
+    }
+
+    private static String[] getVoiceCapabilities() {
+        if (BuildConfig.DEBUG) {
+            // only debug builds ask the watch for capture timestamps, to measure the latency
+            return new String[] {Constants.CAPABILITY_VOICE_PROCESSING,
+                    Constants.CAPABILITY_VOICE_CODEC_ADPCM, Constants.CAPABILITY_VOICE_SILENCE,
+                    Constants.CAPABILITY_VOICE_TIMESTAMPS};
+        }
+        return new String[] {Constants.CAPABILITY_VOICE_PROCESSING,
+                Constants.CAPABILITY_VOICE_CODEC_ADPCM, Constants.CAPABILITY_VOICE_SILENCE};
+    }
+
     @Override
-    public void onResume() {
-        super.onResume();
-        mWearManager.addWearConsumer(mWearConsumer);
-        mWearManager.addCapabilities(Constants.CAPABILITY_VOICE_PROCESSING);
+    protected void onPageShown() {
+        MobileApplication.getTransferInbox().setVoiceHandler(mVoiceHandler);
+        CapabilityAdvertiser.getInstance().acquire(getVoiceCapabilities());
         MobileApplication.setPage(Constants.TARGET_VOICE_STREAM);
+        mMixer.setProcessingPipeline(mPipeline);
+        // a stream is likely to follow; have the audio output ready for it
+        mMixer.prewarm(VoiceMixer.LINGER_MS);
     }
 
     @Override
-    public void onPause() {
-        mWearManager.removeWearConsumer(mWearConsumer);
-        mWearManager.removeCapabilities(Constants.CAPABILITY_VOICE_PROCESSING);
-        if (mSoundManager != null) {
-            mSoundManager.cleanUp();
+    protected void onPageHidden() {
+        MobileApplication.getTransferInbox().setVoiceHandler(null);
+        CapabilityAdvertiser.getInstance().release(getVoiceCapabilities());
+        for (VoiceSession session : mSessions.values()) {
+            stopSession(session);
         }
-        super.onPause();
+        mSessions.clear();
+        mMixer.setProcessingPipeline(null);
+        mHandler.removeCallbacks(mLevelUpdater);
     }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ring of voice frames with exactly one producer thread and one consumer thread. Neither side
+ * ever blocks or takes a lock: the producer copies a frame into the next free slot and the
+ * consumer reads it in place, so no memory is allocated once the ring is created. When the ring
+ * is full the producer drops the frame rather than wait for the consumer.
+ */
+public class FrameRing {
+
+    private final short[][] mFrames;
+    private final long[] mTimestamps;
+    private final int mMask;
+
+    // the next slot to read, only written by the consumer
+    private final AtomicLong mHead = new AtomicLong();
+    // the next slot to write, only written by the producer
+    private final AtomicLong mTail = new AtomicLong();
+    private volatile long mDroppedFrames;
+
+    /**
+     * @param capacity The number of frames the ring holds; rounded up to a power of two
+     */
+    public FrameRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mFrames = new short[size][VoiceFormat.FRAME_SAMPLES];
+        mTimestamps = new long[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Copies {@code frame} into the ring. Called by the producer thread only.
+     *
+     * @return {@code false} if the ring was full and the frame was dropped
+     */
+    public boolean offer(short[] frame, long timestampMs) {
+        long tail = mTail.get();
+        if (tail - mHead.get() > mMask) {
+            mDroppedFrames++;
+            return false;
+        }
+        int slot = (int) (tail & mMask);
+        System.arraycopy(frame, 0, mFrames[slot], 0, VoiceFormat.FRAME_SAMPLES);
+        mTimestamps[slot] = timestampMs;
+        // the ordered write publishes the frame to the consumer
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Returns the oldest frame without removing it, or {@code null} if the ring is empty. The
+     * frame stays valid until {@link #release()} is called. Called by the consumer thread only.
+     */
+    public short[] peek() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return null;
+        }
+        return mFrames[(int) (head & mMask)];
+    }
+
+    /**
+     * Returns the timestamp of the frame returned by {@link #peek()}.
+     */
+    public long peekTimestamp() {
+        return mTimestamps[(int) (mHead.get() & mMask)];
+    }
+
+    /**
+     * Hands the slot of the frame returned by {@link #peek()} back to the producer.
+     */
+    public void release() {
+        mHead.lazySet(mHead.get() + 1);
+    }
+
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    public int capacity() {
+        return mMask + 1;
+    }
+
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import com.example.android.wearable.wcldemo.common.metrics.Counter;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+
+/**
+ * Sits between the voice frames that arrive over the channel and the audio sink. Frames are
+ * {@link #put(short[], long)} as they arrive and {@link #take(short[])} is called each time the
+ * sink needs a frame, so the irregular arrival over bluetooth is turned into a steady playout.
+ *
+ * <p>The depth of the buffer adapts to the link: the delay of each frame, compared to when it
+ * would have arrived on a perfect link, is tracked and the buffer aims to hold enough frames to
+ * cover the recent peaks of that delay. When the link is steady the buffer shrinks, to keep the
+ * latency low, by dropping a frame now and then; when it runs dry the last frame is repeated with
+ * a fade-out to conceal the gap, then the buffer fills up again before the playout resumes.
+ *
+ * <p>{@link #put(short[], long)} and {@link #take(short[])} can be called from different threads.
+ */
+public class JitterBuffer {
+
+    public static final int MIN_DEPTH = 2;
+    public static final int DEFAULT_MAX_DEPTH = 25; // half a second
+
+    // how many frames are concealed, with a fade-out, before falling silent
+    private static final int MAX_CONCEALED_FRAMES = 5;
+
+    // the depth has to exceed the target by this many frames before frames are dropped
+    private static final int DROP_HYSTERESIS = 2;
+
+    // the delay baseline is re-evaluated over windows of this many frames, to follow clock drift
+    private static final int BASELINE_WINDOW = 250;
+
+    // the jitter estimate follows peaks right away and decays with this time constant, in frames
+    private static final int JITTER_DECAY = 64;
+
+    // the same counts, over all the buffers, for the metrics of the app
+    private static final Counter sUnderruns =
+            Metrics.getInstance().counter(Metrics.VOICE_UNDERRUNS);
+    private static final Counter sConcealedFrames =
+            Metrics.getInstance().counter(Metrics.VOICE_CONCEALED_FRAMES);
+    private static final Counter sDroppedFrames =
+            Metrics.getInstance().counter(Metrics.VOICE_DROPPED_FRAMES);
+
+    private final short[][] mFrames;
+    private final long[] mArrivalTimes;
+    private final int mMaxDepth;
+    private int mHead;
+    private int mDepth;
+
+    private boolean mBuffering = true;
+    private boolean mEnded;
+    private final short[] mLastFrame = new short[VoiceFormat.FRAME_SAMPLES];
+    private int mConcealedInARow;
+    private long mLastArrivalTimeMs = -1;
+
+    // jitter estimation
+    private long mFirstArrivalMs = -1;
+    private long mArrivedFrames;
+    private long mBaselineDelayMs;
+    private long mWindowMinDelayMs = Long.MAX_VALUE;
+    private float mJitterMs;
+    private int mTargetDepth = MIN_DEPTH;
+
+    // counters
+    private int mUnderruns;
+    private long mConcealedFrames;
+    private long mDroppedFrames;
+    private long mPlayedFrames;
+
+    public JitterBuffer() {
+        this(DEFAULT_MAX_DEPTH);
+    }
+
+    public JitterBuffer(int maxDepth) {
+        mMaxDepth = Math.max(maxDepth, MIN_DEPTH + DROP_HYSTERESIS);
+        mFrames = new short[mMaxDepth][VoiceFormat.FRAME_SAMPLES];
+        mArrivalTimes = new long[mMaxDepth];
+    }
+
+    /**
+     * Adds a frame of {@link VoiceFormat#FRAME_SAMPLES} samples that arrived at
+     * {@code arrivalTimeMs}, on a monotonic clock. The samples are copied. If the buffer is full,
+     * the oldest frame is dropped.
+     */
+    public synchronized void put(short[] frame, long arrivalTimeMs) {
+        updateJitter(arrivalTimeMs);
+        if (mDepth == mMaxDepth) {
+            mHead = (mHead + 1) % mMaxDepth;
+            mDepth--;
+            mDroppedFrames++;
+            sDroppedFrames.increment();
+        }
+        int slot = (mHead + mDepth) % mMaxDepth;
+        System.arraycopy(frame, 0, mFrames[slot], 0, VoiceFormat.FRAME_SAMPLES);
+        mArrivalTimes[slot] = arrivalTimeMs;
+        mDepth++;
+        notifyAll();
+    }
+
+    /**
+     * Tells the buffer that no more frames will arrive; the frames that are buffered still play.
+     */
+    public synchronized void end() {
+        mEnded = true;
+        notifyAll();
+    }
+
+    /**
+     * Returns {@code true} once the stream has ended and all of its frames have been taken.
+     */
+    public synchronized boolean isDrained() {
+        return mEnded && mDepth == 0;
+    }
+
+    /**
+     * Fills {@code out} with the next frame to play. When no frame is available, {@code out} is
+     * filled with a concealment of the missing frame or with silence.
+     *
+     * @return {@code true} if {@code out} holds a frame that was received
+     */
+    public synchronized boolean take(short[] out) {
+        if (mBuffering) {
+            if (mDepth >= mTargetDepth || (mEnded && mDepth > 0)) {
+                mBuffering = false;
+            } else {
+                fillSilence(out);
+                return false;
+            }
+        }
+        if (mDepth == 0) {
+            conceal(out);
+            return false;
+        }
+        // the link has been steadier than the buffer is sized for; catch up by one frame
+        if (mDepth > mTargetDepth + DROP_HYSTERESIS) {
+            mHead = (mHead + 1) % mMaxDepth;
+            mDepth--;
+            mDroppedFrames++;
+            sDroppedFrames.increment();
+        }
+        short[] frame = mFrames[mHead];
+        mLastArrivalTimeMs = mArrivalTimes[mHead];
+        mHead = (mHead + 1) % mMaxDepth;
+        mDepth--;
+        System.arraycopy(frame, 0, out, 0, VoiceFormat.FRAME_SAMPLES);
+        System.arraycopy(frame, 0, mLastFrame, 0, VoiceFormat.FRAME_SAMPLES);
+        mConcealedInARow = 0;
+        mPlayedFrames++;
+        return true;
+    }
+
+    /**
+     * Waits until a frame is buffered or the stream ends, for at most {@code timeoutMs}.
+     */
+    public synchronized void awaitFrame(long timeoutMs) throws InterruptedException {
+        if (mDepth == 0 && !mEnded) {
+            wait(timeoutMs);
+        }
+    }
+
+    /**
+     * Returns the arrival time of the frame that the last call to {@link #take(short[])} returned,
+     * if it returned one that was received.
+     */
+    public synchronized long getLastArrivalTimeMs() {
+        return mLastArrivalTimeMs;
+    }
+
+    private void conceal(short[] out) {
+        if (mEnded) {
+            fillSilence(out);
+            return;
+        }
+        if (mConcealedInARow == 0) {
+            mUnderruns++;
+            sUnderruns.increment();
+        }
+        mConcealedInARow++;
+        if (mConcealedInARow > MAX_CONCEALED_FRAMES) {
+            // the gap is too long to hide; go quiet and wait for the buffer to fill up again
+            fillSilence(out);
+            mBuffering = true;
+            return;
+        }
+        // repeat the last frame, fading it out linearly over the concealed frames
+        int total = MAX_CONCEALED_FRAMES * VoiceFormat.FRAME_SAMPLES;
+        int position = (mConcealedInARow - 1) * VoiceFormat.FRAME_SAMPLES;
+        for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+            out[i] = (short) (mLastFrame[i] * (total - position - i) / total);
+        }
+        mConcealedFrames++;
+        sConcealedFrames.increment();
+    }
+
+    private static void fillSilence(short[] out) {
+        for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+            out[i] = 0;
+        }
+    }
+
+    /**
+     * Tracks how late each frame is compared to a perfect link, and sizes the buffer to cover the
+     * recent peaks of that lateness.
+     */
+    private void updateJitter(long arrivalTimeMs) {
+        if (mFirstArrivalMs < 0) {
+            mFirstArrivalMs = arrivalTimeMs;
+        }
+        long expectedMs = mFirstArrivalMs + mArrivedFrames * VoiceFormat.FRAME_DURATION_MS;
+        long delayMs = arrivalTimeMs - expectedMs;
+        mArrivedFrames++;
+        if (delayMs < mBaselineDelayMs) {
+            mBaselineDelayMs = delayMs;
+        }
+        mWindowMinDelayMs = Math.min(mWindowMinDelayMs, delayMs);
+        if (mArrivedFrames % BASELINE_WINDOW == 0) {
+            mBaselineDelayMs = mWindowMinDelayMs;
+            mWindowMinDelayMs = Long.MAX_VALUE;
+        }
+        float lateMs = delayMs - mBaselineDelayMs;
+        if (lateMs > mJitterMs) {
+            mJitterMs = lateMs;
+        } else {
+            mJitterMs += (lateMs - mJitterMs) / JITTER_DECAY;
+        }
+        int target = 1 + (int) Math.ceil(mJitterMs / VoiceFormat.FRAME_DURATION_MS);
+        mTargetDepth = Math.min(Math.max(target, MIN_DEPTH), mMaxDepth - DROP_HYSTERESIS);
+    }
+
+    /**
+     * Returns how many times the buffer ran dry while playing.
+     */
+    public synchronized int getUnderrunCount() {
+        return mUnderruns;
+    }
+
+    public synchronized long getConcealedFrameCount() {
+        return mConcealedFrames;
+    }
+
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    public synchronized long getPlayedFrameCount() {
+        return mPlayedFrames;
+    }
+
+    /**
+     * Returns the number of frames that the buffer currently aims to hold.
+     */
+    public synchronized int getTargetDepth() {
+        return mTargetDepth;
+    }
+
+    public synchronized int getDepth() {
+        return mDepth;
+    }
+
+    public synchronized float getJitterMs() {
+        return mJitterMs;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+/**
+ * A pipeline stage that measures the level of the voice, in dB relative to full scale. The level
+ * falls back slowly after a peak, like the needle of a meter, so it can be polled from the UI at
+ * any rate.
+ */
+public class LevelMeter implements ProcessingPipeline.FrameProcessor {
+
+    public static final float SILENCE_DB = -96f;
+
+    // how fast the meter falls after a peak, in dB per frame
+    private static final float FALL_DB_PER_FRAME = 0.5f;
+
+    private volatile float mLevelDb = SILENCE_DB;
+    private volatile float mPeakDb = SILENCE_DB;
+
+    @Override
+    public void onStreamStarted() {
+        mLevelDb = SILENCE_DB;
+        mPeakDb = SILENCE_DB;
+    }
+
+    @Override
+    public void process(short[] frame, long timestampMs) {
+        long sumOfSquares = 0;
+        int peak = 0;
+        for (short sample : frame) {
+            sumOfSquares += sample * sample;
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        float rmsDb = toDb(Math.sqrt((double) sumOfSquares / frame.length));
+        mLevelDb = Math.max(rmsDb, mLevelDb - FALL_DB_PER_FRAME);
+        mPeakDb = Math.max(mPeakDb, toDb(peak));
+    }
+
+    @Override
+    public void onStreamEnded() {
+    }
+
+    /**
+     * Returns the current rms level.
+     */
+    public float getLevelDb() {
+        return mLevelDb;
+    }
+
+    /**
+     * Returns the highest sample of the stream so far.
+     */
+    public float getPeakDb() {
+        return mPeakDb;
+    }
+
+    private static float toDb(double amplitude) {
+        if (amplitude < 1) {
+            return SILENCE_DB;
+        }
+        return (float) (20 * Math.log10(amplitude / Short.MAX_VALUE));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs analysis stages over the live voice, off of the audio path. The thread that reads the
+ * stream {@link #offer(short[], long)}s each frame to a {@link FrameRing}, which never blocks it;
+ * a thread of the pipeline takes the frames out and passes them through each
+ * {@link FrameProcessor} in turn. If the stages fall behind, frames are dropped for the analysis
+ * only; the playback does not wait for them.
+ */
+public class ProcessingPipeline {
+
+    private static final String TAG = "ProcessingPipeline";
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    // how long the pipeline thread parks at most when there is nothing to do, so it notices a stop
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final FrameRing mRing;
+    private final List<FrameProcessor> mProcessors = new ArrayList<>();
+    private volatile boolean mRunning;
+    private volatile boolean mWaiting;
+    private volatile Thread mThread;
+
+    public ProcessingPipeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ProcessingPipeline(int capacity) {
+        mRing = new FrameRing(capacity);
+    }
+
+    /**
+     * Adds a stage at the end of the pipeline. Stages can only be added while it is stopped.
+     */
+    public synchronized ProcessingPipeline addProcessor(FrameProcessor processor) {
+        if (mRunning) {
+            throw new IllegalStateException("Stages cannot be added while the pipeline runs");
+        }
+        mProcessors.add(processor);
+        return this;
+    }
+
+    /**
+     * Starts the thread of the pipeline; each stage is told that a stream starts.
+     */
+    public synchronized void start() {
+        if (mRunning) {
+            return;
+        }
+        // the ring only allows one consumer; let the thread of the last stream finish first
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        mRunning = true;
+        final FrameProcessor[] processors = mProcessors.toArray(
+                new FrameProcessor[mProcessors.size()]);
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runStages(processors);
+            }
+        }, "VoiceProcessing");
+        mThread.start();
+    }
+
+    /**
+     * Stops the pipeline once the frames that are already in the ring have been processed.
+     */
+    public synchronized void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * Hands a frame to the pipeline; called by the thread that reads the stream. It returns right
+     * away, whether or not there was room for the frame.
+     */
+    public void offer(short[] frame, long timestampMs) {
+        if (!mRunning) {
+            return;
+        }
+        mRing.offer(frame, timestampMs);
+        if (mWaiting) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * Returns the number of frames that the stages missed because they fell behind.
+     */
+    public long getDroppedFrameCount() {
+        return mRing.getDroppedFrameCount();
+    }
+
+    private void runStages(FrameProcessor[] processors) {
+        for (FrameProcessor processor : processors) {
+            processor.onStreamStarted();
+        }
+        while (true) {
+            short[] frame = mRing.peek();
+            if (frame == null) {
+                if (!mRunning) {
+                    break;
+                }
+                mWaiting = true;
+                // check again, the producer may have offered a frame before it saw the flag
+                if (mRing.isEmpty()) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                mWaiting = false;
+                continue;
+            }
+            long timestampMs = mRing.peekTimestamp();
+            for (FrameProcessor processor : processors) {
+                try {
+                    processor.process(frame, timestampMs);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Stage " + processor + " failed", e);
+                }
+            }
+            mRing.release();
+        }
+        for (FrameProcessor processor : processors) {
+            processor.onStreamEnded();
+        }
+        Log.d(TAG, "Stopped; frames dropped: " + mRing.getDroppedFrameCount());
+    }
+
+    /**
+     * A stage of the pipeline. All of its methods are called on the thread of the pipeline.
+     */
+    public interface FrameProcessor {
+
+        void onStreamStarted();
+
+        /**
+         * Processes one frame of {@code VoiceFormat#FRAME_SAMPLES} samples. The frame belongs to
+         * the pipeline and must not be kept after this returns; nor should this allocate memory,
+         * as it is called 50 times per second.
+         */
+        void process(short[] frame, long timestampMs);
+
+        void onStreamEnded();
+    }
+}
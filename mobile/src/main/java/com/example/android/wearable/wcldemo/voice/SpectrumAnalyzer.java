@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+
+/**
+ * A pipeline stage that computes the magnitude spectrum of each frame with an FFT. The frame is
+ * windowed and zero-padded to {@link #FFT_SIZE} points; the window, the twiddle factors and all
+ * the work arrays are set up once, so processing a frame does not allocate.
+ */
+public class SpectrumAnalyzer implements ProcessingPipeline.FrameProcessor {
+
+    public static final int FFT_SIZE = 256;
+    public static final int BINS = FFT_SIZE / 2;
+
+    private final float[] mWindow = new float[VoiceFormat.FRAME_SAMPLES];
+    private final float[] mCos = new float[FFT_SIZE / 2];
+    private final float[] mSin = new float[FFT_SIZE / 2];
+    private final int[] mBitReversed = new int[FFT_SIZE];
+    private final float[] mReal = new float[FFT_SIZE];
+    private final float[] mImaginary = new float[FFT_SIZE];
+
+    // the last spectrum, guarded by itself
+    private final float[] mMagnitudes = new float[BINS];
+    private volatile int mPeakBin;
+
+    public SpectrumAnalyzer() {
+        for (int i = 0; i < mWindow.length; i++) {
+            // a Hann window, to keep the edges of the frame from smearing the spectrum
+            mWindow[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (mWindow.length - 1)));
+        }
+        for (int i = 0; i < FFT_SIZE / 2; i++) {
+            mCos[i] = (float) Math.cos(-2 * Math.PI * i / FFT_SIZE);
+            mSin[i] = (float) Math.sin(-2 * Math.PI * i / FFT_SIZE);
+        }
+        int bits = Integer.numberOfTrailingZeros(FFT_SIZE);
+        for (int i = 0; i < FFT_SIZE; i++) {
+            mBitReversed[i] = Integer.reverse(i) >>> (32 - bits);
+        }
+    }
+
+    @Override
+    public void onStreamStarted() {
+    }
+
+    @Override
+    public void process(short[] frame, long timestampMs) {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            int source = mBitReversed[i];
+            mReal[i] = source < frame.length ? frame[source] * mWindow[source] : 0;
+            mImaginary[i] = 0;
+        }
+        // iterative radix-2 FFT over the bit-reversed input
+        for (int size = 2; size <= FFT_SIZE; size <<= 1) {
+            int half = size >> 1;
+            int step = FFT_SIZE / size;
+            for (int start = 0; start < FFT_SIZE; start += size) {
+                for (int k = 0; k < half; k++) {
+                    int even = start + k;
+                    int odd = even + half;
+                    float cos = mCos[k * step];
+                    float sin = mSin[k * step];
+                    float real = mReal[odd] * cos - mImaginary[odd] * sin;
+                    float imaginary = mReal[odd] * sin + mImaginary[odd] * cos;
+                    mReal[odd] = mReal[even] - real;
+                    mImaginary[odd] = mImaginary[even] - imaginary;
+                    mReal[even] += real;
+                    mImaginary[even] += imaginary;
+                }
+            }
+        }
+        int peakBin = 0;
+        float peak = 0;
+        synchronized (mMagnitudes) {
+            for (int i = 0; i < BINS; i++) {
+                float magnitude = (float) Math.sqrt(
+                        mReal[i] * mReal[i] + mImaginary[i] * mImaginary[i]);
+                mMagnitudes[i] = magnitude;
+                // skip the DC bin when looking for the dominant frequency
+                if (i > 0 && magnitude > peak) {
+                    peak = magnitude;
+                    peakBin = i;
+                }
+            }
+        }
+        mPeakBin = peakBin;
+    }
+
+    @Override
+    public void onStreamEnded() {
+    }
+
+    /**
+     * Copies the magnitudes of the last spectrum, {@link #BINS} of them, into {@code out}.
+     */
+    public void getMagnitudes(float[] out) {
+        synchronized (mMagnitudes) {
+            System.arraycopy(mMagnitudes, 0, out, 0, BINS);
+        }
+    }
+
+    /**
+     * Returns the frequency with the most energy in the last frame, in Hz.
+     */
+    public int getDominantFrequency() {
+        return binToFrequency(mPeakBin);
+    }
+
+    public static int binToFrequency(int bin) {
+        return bin * VoiceFormat.SAMPLE_RATE / FFT_SIZE;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import com.example.android.wearable.wcldemo.common.ClockSync;
+import com.example.android.wearable.wcldemo.common.metrics.Histogram;
+
+/**
+ * Measures where the time goes between the microphone of the watch and the speaker of the phone:
+ * <ul>
+ *     <li>the one-way latency, from the capture of a frame on the watch to its arrival on the
+ *     phone, for the frames that the watch timestamps. The capture time is brought to the clock of
+ *     the phone with a {@link ClockSync}, so it is only as accurate as the clock offset;</li>
+ *     <li>the buffering latency, from the arrival of a frame to the moment it is handed to the
+ *     audio track plus the time it spends in the buffer of the track, for every frame.</li>
+ * </ul>
+ * All the methods can be called from any thread.
+ */
+public class VoiceLatencyMonitor {
+
+    private static final long MAX_LATENCY_MS = 2000;
+
+    private final ClockSync mClockSync;
+    private final Histogram mOneWayLatency = new Histogram(MAX_LATENCY_MS, 1);
+    private final Histogram mBufferingLatency = new Histogram(MAX_LATENCY_MS, 1);
+
+    public VoiceLatencyMonitor(ClockSync clockSync) {
+        mClockSync = clockSync;
+    }
+
+    /**
+     * Records a frame that was captured at {@code captureTimeMs}, on the clock of the watch, and
+     * arrived at {@code arrivalTimeMs}.
+     */
+    public void onFrameArrived(long captureTimeMs, long arrivalTimeMs) {
+        if (!mClockSync.hasOffset()) {
+            return;
+        }
+        mOneWayLatency.record(arrivalTimeMs - mClockSync.toLocalTime(captureTimeMs));
+    }
+
+    /**
+     * Records a frame that arrived at {@code arrivalTimeMs} and was written to the audio track at
+     * {@code playTimeMs}, with {@code trackLatencyMs} of audio ahead of it in the track.
+     */
+    public void onFramePlayed(long arrivalTimeMs, long playTimeMs, long trackLatencyMs) {
+        mBufferingLatency.record(playTimeMs - arrivalTimeMs + trackLatencyMs);
+    }
+
+    public Histogram getOneWayLatency() {
+        return mOneWayLatency;
+    }
+
+    public Histogram getBufferingLatency() {
+        return mBufferingLatency;
+    }
+
+    public ClockSync getClockSync() {
+        return mClockSync;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.wearable.wcldemo.common.metrics.Gauge;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays any number of {@link VoiceSession}s at once through a single {@link AudioTrack}. A thread
+ * of the mixer takes a frame from the buffer of each session at the pace of the track, scales it
+ * by the gain of the session and adds it to the mix, clipping the sum to 16 bits. Sessions that
+ * are over are dropped from the mix and their listener is told.
+ *
+ * <p>Setting up an audio track and getting it to play takes a while, so the mixer is meant to be
+ * long-lived and can be warmed up ahead of a stream with {@link #prewarm(long)}: the track is
+ * then created and kept playing silence, and the first frame of a stream is heard as soon as it
+ * is out of the jitter buffer. The thread, and the track, go away once there is no session and
+ * the mixer is no longer kept warm.
+ *
+ * <p>The mixed frames can also be handed to a {@link ProcessingPipeline}, while there are
+ * sessions; the mixer thread is then its only producer.
+ */
+public class VoiceMixer {
+
+    private static final String TAG = "VoiceMixer";
+
+    /**
+     * How long the mixer stays warm after the last session ends, so that the next push-to-talk
+     * reuses the track.
+     */
+    public static final long LINGER_MS = 10000;
+
+    // guarded by this
+    private final List<VoiceSession> mSessions = new ArrayList<>();
+    private final Gauge mSessionsGauge = Metrics.getInstance().gauge(Metrics.VOICE_SESSIONS);
+    private VoiceSession[] mSnapshot = new VoiceSession[0];
+    private Thread mThread;
+    private ProcessingPipeline mPipeline;
+    private long mWarmUntilMs;
+
+    // the pipeline that runs along with the current sessions, if any
+    private volatile ProcessingPipeline mRunningPipeline;
+
+    /**
+     * Sets the pipeline that the mixed frames are handed to, or {@code null}. The pipeline is
+     * started with the first session and stopped after the last one.
+     */
+    public synchronized void setProcessingPipeline(ProcessingPipeline pipeline) {
+        if (pipeline == mPipeline) {
+            return;
+        }
+        stopPipeline();
+        mPipeline = pipeline;
+        if (!mSessions.isEmpty()) {
+            startPipeline();
+        }
+    }
+
+    /**
+     * Sets up the audio track now, if it is not, and keeps it ready for at least
+     * {@code durationMs}, whether or not a session comes in.
+     */
+    public synchronized void prewarm(long durationMs) {
+        mWarmUntilMs = Math.max(mWarmUntilMs, SystemClock.elapsedRealtime() + durationMs);
+        ensureThread();
+    }
+
+    /**
+     * Lets the audio track go as soon as there is no session left, rather than when the time
+     * given to {@link #prewarm(long)} is up.
+     */
+    public synchronized void cool() {
+        mWarmUntilMs = 0;
+    }
+
+    /**
+     * Adds a session to the mix; it is heard as soon as its buffer fills up.
+     */
+    public synchronized void addSession(VoiceSession session) {
+        if (mSessions.isEmpty()) {
+            startPipeline();
+        }
+        mSessions.add(session);
+        mSnapshot = mSessions.toArray(new VoiceSession[mSessions.size()]);
+        mSessionsGauge.set(mSessions.size());
+        ensureThread();
+    }
+
+    /**
+     * Stops all the sessions; they are dropped from the mix right after.
+     */
+    public void stopAll() {
+        for (VoiceSession session : getSessions()) {
+            session.stop();
+        }
+    }
+
+    public synchronized VoiceSession[] getSessions() {
+        return mSnapshot;
+    }
+
+    public synchronized int getSessionCount() {
+        return mSnapshot.length;
+    }
+
+    /**
+     * Returns {@code true} while the mixer has an audio track, or is setting one up.
+     */
+    public synchronized boolean isRunning() {
+        return mThread != null;
+    }
+
+    private void ensureThread() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mix();
+            }
+        }, "VoiceMixer");
+        mThread.setPriority(Thread.MAX_PRIORITY);
+        mThread.start();
+    }
+
+    private void startPipeline() {
+        if (mPipeline != null) {
+            mPipeline.start();
+        }
+        mRunningPipeline = mPipeline;
+    }
+
+    private void stopPipeline() {
+        if (mRunningPipeline != null) {
+            mRunningPipeline.stop();
+            mRunningPipeline = null;
+        }
+    }
+
+    /**
+     * Drops the sessions that are over, or all of them if the output failed. Returns
+     * {@code false}, and lets the thread go, once no session is left and the mixer is not kept
+     * warm.
+     */
+    private synchronized boolean update(boolean outputFailed) {
+        boolean removed = false;
+        for (int i = mSessions.size() - 1; i >= 0; i--) {
+            VoiceSession session = mSessions.get(i);
+            if (outputFailed || session.isFinished()) {
+                mSessions.remove(i);
+                session.onRemoved(outputFailed);
+                removed = true;
+            }
+        }
+        if (removed) {
+            mSnapshot = mSessions.toArray(new VoiceSession[mSessions.size()]);
+            mSessionsGauge.set(mSessions.size());
+            if (mSessions.isEmpty()) {
+                // stopped here rather than by the thread, so that it cannot stop the pipeline
+                // after a new session has started it again
+                stopPipeline();
+                mWarmUntilMs = Math.max(mWarmUntilMs, SystemClock.elapsedRealtime() + LINGER_MS);
+            }
+        }
+        if (!outputFailed
+                && (!mSessions.isEmpty() || SystemClock.elapsedRealtime() < mWarmUntilMs)) {
+            return true;
+        }
+        mThread = null;
+        return false;
+    }
+
+    private void mix() {
+        long startMs = SystemClock.elapsedRealtime();
+        int minBufferSize = AudioTrack.getMinBufferSize(VoiceFormat.SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        // the jitter buffers do the buffering, so keep the one of the track as small as possible
+        int trackBufferSize = Math.max(minBufferSize, 2 * VoiceFormat.FRAME_BYTES);
+        AudioTrack audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, VoiceFormat.SAMPLE_RATE,
+                AudioFormat.CHANNEL_OUT_MONO, AudioFormat.ENCODING_PCM_16BIT, trackBufferSize,
+                AudioTrack.MODE_STREAM);
+        // a frame that is written waits, at most, for a full buffer of the track to play out
+        long trackLatencyMs = trackBufferSize / VoiceFormat.BYTES_PER_SAMPLE * 1000L
+                / VoiceFormat.SAMPLE_RATE;
+        boolean outputFailed = false;
+        short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+        short[] mixed = new short[VoiceFormat.FRAME_SAMPLES];
+        int[] sum = new int[VoiceFormat.FRAME_SAMPLES];
+        long mixedFrames = 0;
+        try {
+            if (audioTrack.getState() != AudioTrack.STATE_INITIALIZED) {
+                Log.e(TAG, "Failed to initialize the audio track");
+                outputFailed = true;
+                return;
+            }
+            audioTrack.play();
+            Log.d(TAG, "Audio track ready in " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+            while (update(false)) {
+                VoiceSession[] sessions = getSessions();
+                for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+                    sum[i] = 0;
+                }
+                // with no session, this writes silence to keep the track going
+                for (VoiceSession session : sessions) {
+                    session.takeFrame(frame, trackLatencyMs);
+                    float gain = session.getGain();
+                    for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+                        sum[i] += (int) (frame[i] * gain);
+                    }
+                }
+                for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+                    mixed[i] = (short) Math.max(Short.MIN_VALUE,
+                            Math.min(Short.MAX_VALUE, sum[i]));
+                }
+                // blocks while the track is full, which paces this loop to the audio clock
+                if (audioTrack.write(mixed, 0, mixed.length) < 0) {
+                    Log.e(TAG, "Failed to write to the audio track");
+                    outputFailed = true;
+                    return;
+                }
+                ProcessingPipeline pipeline = mRunningPipeline;
+                if (sessions.length > 0) {
+                    mixedFrames++;
+                    if (pipeline != null) {
+                        pipeline.offer(mixed, SystemClock.elapsedRealtime());
+                    }
+                }
+            }
+        } finally {
+            if (outputFailed) {
+                update(true);
+            }
+            if (audioTrack.getState() == AudioTrack.STATE_INITIALIZED) {
+                audioTrack.stop();
+            }
+            audioTrack.release();
+            Log.d(TAG, "Mixer stopped after " + mixedFrames + " frames");
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import android.util.Log;
+
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A pipeline stage that records a voice stream to disk. The frames go to a ring of segment files
+ * that are allocated once and memory-mapped, so recording a frame is a copy into memory and the
+ * disk space never grows past the size of the ring: once the ring is full, the oldest segment is
+ * written over. When the stream ends, the segments that hold audio are written out, oldest
+ * first, as standalone WAV files; only the latest {@link #MAX_RECORDINGS} of those are kept.
+ *
+ * <p>As a stage of a {@link ProcessingPipeline}, it runs on the thread of the pipeline; if the
+ * disk is slow, frames are dropped from the recording and the playback is not affected.
+ */
+public class VoiceRecorder implements ProcessingPipeline.FrameProcessor {
+
+    private static final String TAG = "VoiceRecorder";
+
+    public static final int DEFAULT_SEGMENTS = 4;
+    public static final int DEFAULT_SEGMENT_FRAMES = 60 * 1000 / VoiceFormat.FRAME_DURATION_MS;
+    public static final int MAX_RECORDINGS = 20;
+
+    private static final int WAV_HEADER_BYTES = 44;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String RECORDING_SUFFIX = ".wav";
+
+    private final File mRingDir;
+    private final File mOutputDir;
+    private final String mName;
+    private final int mSegmentBytes;
+    private final RandomAccessFile[] mFiles;
+    private final MappedByteBuffer[] mSegments;
+
+    // the segment being written and how many have been filled up, in total, during this stream
+    private int mCurrent;
+    private int mFilledSegments;
+    private boolean mFailed;
+
+    /**
+     * @param ringDir The directory of the segment files; each recorder needs its own
+     * @param outputDir The directory that the recordings are written to
+     * @param name The start of the names of the recordings
+     */
+    public VoiceRecorder(File ringDir, File outputDir, String name) {
+        this(ringDir, outputDir, name, DEFAULT_SEGMENTS, DEFAULT_SEGMENT_FRAMES);
+    }
+
+    public VoiceRecorder(File ringDir, File outputDir, String name, int segments,
+            int segmentFrames) {
+        mRingDir = ringDir;
+        mOutputDir = outputDir;
+        mName = name;
+        mSegmentBytes = segmentFrames * VoiceFormat.FRAME_BYTES;
+        mFiles = new RandomAccessFile[segments];
+        mSegments = new MappedByteBuffer[segments];
+    }
+
+    @Override
+    public void onStreamStarted() {
+        mCurrent = 0;
+        mFilledSegments = 0;
+        mFailed = false;
+        try {
+            if (!mRingDir.isDirectory() && !mRingDir.mkdirs()) {
+                throw new IOException("Cannot create " + mRingDir);
+            }
+            for (int i = 0; i < mSegments.length; i++) {
+                RandomAccessFile file = new RandomAccessFile(
+                        new File(mRingDir, SEGMENT_PREFIX + i), "rw");
+                mFiles[i] = file;
+                // the files keep their size from one stream to the next, so this only allocates
+                // them the first time
+                file.setLength(mSegmentBytes);
+                mSegments[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                        mSegmentBytes);
+                mSegments[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to set up the recording ring in " + mRingDir, e);
+            mFailed = true;
+            closeFiles();
+        }
+    }
+
+    @Override
+    public void process(short[] frame, long timestampMs) {
+        if (mFailed) {
+            return;
+        }
+        MappedByteBuffer segment = mSegments[mCurrent];
+        if (segment.remaining() < VoiceFormat.FRAME_BYTES) {
+            mFilledSegments++;
+            mCurrent = (mCurrent + 1) % mSegments.length;
+            segment = mSegments[mCurrent];
+            segment.clear();
+        }
+        for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+            segment.putShort(frame[i]);
+        }
+    }
+
+    @Override
+    public void onStreamEnded() {
+        if (mFailed) {
+            return;
+        }
+        try {
+            if (!mOutputDir.isDirectory() && !mOutputDir.mkdirs()) {
+                throw new IOException("Cannot create " + mOutputDir);
+            }
+            String prefix = mName + "-" + System.currentTimeMillis();
+            int count = Math.min(mFilledSegments + 1, mSegments.length);
+            // the oldest segment that has not been written over is the one after the current one
+            int first = mCurrent - count + 1 + mSegments.length;
+            for (int i = 0; i < count; i++) {
+                MappedByteBuffer segment = mSegments[(first + i) % mSegments.length];
+                int length = (first + i) % mSegments.length == mCurrent
+                        ? segment.position() : mSegmentBytes;
+                if (length > 0) {
+                    writeRecording(new File(mOutputDir, prefix + "-" + i + RECORDING_SUFFIX),
+                            segment, length);
+                }
+            }
+            Log.d(TAG, "Recorded " + count + " segment(s) as " + prefix);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the recording", e);
+        } finally {
+            closeFiles();
+            trimRecordings();
+        }
+    }
+
+    private void writeRecording(File file, MappedByteBuffer segment, int length)
+            throws IOException {
+        ByteBuffer data = segment.duplicate();
+        data.position(0);
+        data.limit(length);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            channel.write(wavHeader(length));
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static ByteBuffer wavHeader(int dataBytes) {
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {'R', 'I', 'F', 'F'});
+        header.putInt(WAV_HEADER_BYTES - 8 + dataBytes);
+        header.put(new byte[] {'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        header.putInt(16);
+        header.putShort((short) 1); // PCM
+        header.putShort((short) 1); // mono
+        header.putInt(VoiceFormat.SAMPLE_RATE);
+        header.putInt(VoiceFormat.SAMPLE_RATE * VoiceFormat.BYTES_PER_SAMPLE);
+        header.putShort((short) VoiceFormat.BYTES_PER_SAMPLE);
+        header.putShort((short) (8 * VoiceFormat.BYTES_PER_SAMPLE));
+        header.put(new byte[] {'d', 'a', 't', 'a'});
+        header.putInt(dataBytes);
+        header.flip();
+        return header;
+    }
+
+    private void closeFiles() {
+        for (int i = 0; i < mFiles.length; i++) {
+            if (mFiles[i] != null) {
+                try {
+                    mFiles[i].close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                mFiles[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest recordings of this recorder beyond {@link #MAX_RECORDINGS}.
+     */
+    private void trimRecordings() {
+        File[] recordings = mOutputDir.listFiles();
+        if (recordings == null) {
+            return;
+        }
+        int kept = 0;
+        Arrays.sort(recordings, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                // newest first
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified == rhsModified ? 0 : (lhsModified < rhsModified ? 1 : -1);
+            }
+        });
+        for (File recording : recordings) {
+            if (!recording.getName().startsWith(mName)
+                    || !recording.getName().endsWith(RECORDING_SUFFIX)) {
+                continue;
+            }
+            if (++kept > MAX_RECORDINGS && !recording.delete()) {
+                Log.w(TAG, "Failed to delete " + recording);
+            }
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+import com.example.android.wearable.wcldemo.common.voice.VoiceStreamReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One voice stream that comes in from a wear device. The session has its own thread that reads
+ * and decodes the frames off the channel into its own {@link JitterBuffer}; the
+ * {@link VoiceMixer} takes the frames out of the buffers of all the sessions at the pace of the
+ * audio track, so the sessions do not hold each other up.
+ *
+ * <p>The decoded frames can also be teed off to a {@link ProcessingPipeline} of their own, for
+ * example to record the stream with a {@link VoiceRecorder}.
+ */
+public class VoiceSession {
+
+    private static final String TAG = "VoiceSession";
+
+    public static final int REASON_ENDED = 0;
+    public static final int REASON_STOPPED = 1;
+    public static final int REASON_ERROR = 2;
+
+    private final String mNodeId;
+    private final JitterBuffer mJitterBuffer = new JitterBuffer();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mStopped;
+    private volatile boolean mFailed;
+    private volatile float mGain = 1f;
+    private VoiceLatencyMonitor mLatencyMonitor;
+    private OnSessionEndedListener mListener;
+    private ProcessingPipeline mTee;
+    private Thread mReceiveThread;
+    private volatile InputStream mInputStream;
+
+    /**
+     * @param nodeId The node that the stream comes from
+     */
+    public VoiceSession(String nodeId) {
+        mNodeId = nodeId;
+    }
+
+    public String getNodeId() {
+        return mNodeId;
+    }
+
+    /**
+     * Sets the monitor that the latency of the frames is reported to. It has to be called before
+     * {@link #start(InputStream, OnSessionEndedListener)}.
+     */
+    public void setLatencyMonitor(VoiceLatencyMonitor latencyMonitor) {
+        mLatencyMonitor = latencyMonitor;
+    }
+
+    /**
+     * Sets a pipeline that the frames of this stream, and only those, are handed to as they
+     * arrive. It has to be called before {@link #start(InputStream, OnSessionEndedListener)}; the
+     * pipeline is started and stopped along with the stream.
+     */
+    public void setTee(ProcessingPipeline tee) {
+        mTee = tee;
+    }
+
+    public VoiceLatencyMonitor getLatencyMonitor() {
+        return mLatencyMonitor;
+    }
+
+    /**
+     * Sets how loud this stream is in the mix; 1 leaves it as it is.
+     */
+    public void setGain(float gain) {
+        mGain = gain;
+    }
+
+    public float getGain() {
+        return mGain;
+    }
+
+    /**
+     * Starts reading {@code inputStream}; {@code listener} is called on the main thread once the
+     * session is over and its last frame has been mixed. The session has to be added to a
+     * {@link VoiceMixer} to be heard.
+     */
+    public void start(final InputStream inputStream, OnSessionEndedListener listener) {
+        mListener = listener;
+        mInputStream = inputStream;
+        if (mTee != null) {
+            mTee.start();
+        }
+        mReceiveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive(inputStream);
+            }
+        }, "VoiceReceive-" + mNodeId);
+        mReceiveThread.start();
+    }
+
+    /**
+     * Stops the session right away, dropping what is left in its buffer. The stream is closed,
+     * since that is the only way to wake up the receiving thread if it is blocked in a read.
+     */
+    public void stop() {
+        mStopped = true;
+        mJitterBuffer.end();
+        if (mReceiveThread != null) {
+            mReceiveThread.interrupt();
+        }
+        closeInputStream();
+    }
+
+    private void closeInputStream() {
+        InputStream inputStream = mInputStream;
+        if (inputStream == null) {
+            return;
+        }
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return mJitterBuffer;
+    }
+
+    /**
+     * Returns {@code true} once the session has nothing left to play.
+     */
+    boolean isFinished() {
+        return mStopped || mJitterBuffer.isDrained();
+    }
+
+    /**
+     * Fills {@code out} with the next frame of the session; called by the mixer.
+     *
+     * @param trackLatencyMs How long the frame waits in the audio track before it is heard
+     */
+    boolean takeFrame(short[] out, long trackLatencyMs) {
+        boolean received = mJitterBuffer.take(out);
+        if (received && mLatencyMonitor != null) {
+            mLatencyMonitor.onFramePlayed(mJitterBuffer.getLastArrivalTimeMs(),
+                    SystemClock.elapsedRealtime(), trackLatencyMs);
+        }
+        return received;
+    }
+
+    /**
+     * Called by the mixer once it has dropped the session, or when the audio output failed.
+     */
+    void onRemoved(boolean outputFailed) {
+        final int reason;
+        if (outputFailed || mFailed) {
+            reason = REASON_ERROR;
+        } else {
+            reason = mStopped ? REASON_STOPPED : REASON_ENDED;
+        }
+        stop();
+        Log.d(TAG, "Session with " + mNodeId + " finished; played "
+                + mJitterBuffer.getPlayedFrameCount()
+                + " frames, underruns: " + mJitterBuffer.getUnderrunCount()
+                + ", concealed: " + mJitterBuffer.getConcealedFrameCount()
+                + ", dropped: " + mJitterBuffer.getDroppedFrameCount());
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onSessionEnded(VoiceSession.this, reason);
+                }
+            }
+        });
+    }
+
+    private void receive(InputStream inputStream) {
+        short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+        try {
+            VoiceStreamReader reader = new VoiceStreamReader(inputStream);
+            Log.d(TAG, "Receiving a voice stream from " + mNodeId + " with codec "
+                    + reader.getCodec());
+            while (!mStopped && reader.readFrame(frame)) {
+                // a silence record arrives at the end of the run of silence that it stands for,
+                // so the frames it expands to are dated back to when they would have arrived
+                long arrivalTimeMs = SystemClock.elapsedRealtime()
+                        - reader.getQueuedFrames() * VoiceFormat.FRAME_DURATION_MS;
+                mJitterBuffer.put(frame, arrivalTimeMs);
+                long captureTimeMs = reader.getCaptureTimeMs();
+                if (mLatencyMonitor != null && captureTimeMs >= 0) {
+                    mLatencyMonitor.onFrameArrived(captureTimeMs, arrivalTimeMs);
+                }
+                if (mTee != null) {
+                    mTee.offer(frame, arrivalTimeMs);
+                }
+            }
+        } catch (IOException e) {
+            if (!mStopped) {
+                Log.e(TAG, "Failed to read the voice stream from " + mNodeId, e);
+                mFailed = true;
+            }
+        } finally {
+            mJitterBuffer.end();
+            if (mTee != null) {
+                mTee.stop();
+            }
+            closeInputStream();
+        }
+    }
+
+    /**
+     * Is told when a session is over.
+     */
+    public interface OnSessionEndedListener {
+
+        /**
+         * @param reason One of {@link #REASON_ENDED}, {@link #REASON_STOPPED} or
+         * {@link #REASON_ERROR}
+         */
+        void onSessionEnded(VoiceSession session, int reason);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentManager;
+
+import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.metrics.FlowTimer;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.util.ActivityController;
+
+/**
+ * Holds the start of the {@link MobileMainActivity} and the switches between its pages to a
+ * budget, with the same {@link FlowTimer}s and pages as the {@link PageSwitchBenchmark}, so that
+ * a change that makes them slower fails the build.
+ *
+ * <p>The budgets are for a build machine running Robolectric, which is a lot slower than a device
+ * for the first runs and then faster; they are loose enough that only a real regression, such as
+ * a page that is inflated again on each switch, breaks them. Still, they depend on the machine, so
+ * the timed tests are {@link PerformanceTest}s, which the default build leaves out. The allocations
+ * are not held to a budget, since they can only be counted on a device.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21, application = TestMobileApplication.class)
+public class PageSwitchBudgetTest {
+
+    // the first runs load the classes and the resources, which a device has done long before
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 20;
+
+    // for the 90th percentile
+    private static final long COLD_START_BUDGET_MS = 500;
+    private static final long PAGE_SWITCH_BUDGET_MS = 50;
+
+    @Test
+    @Category(PerformanceTest.class)
+    public void coldStartIsWithinBudget() {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            startActivity().pause().stop().destroy();
+        }
+        FlowTimer timer = new FlowTimer("MobileMainActivity start");
+        for (int i = 0; i < RUNS; i++) {
+            timer.start();
+            ActivityController<MobileMainActivity> controller = startActivity();
+            timer.stop();
+            controller.pause().stop().destroy();
+        }
+
+        assertWithinBudget(timer, COLD_START_BUDGET_MS);
+    }
+
+    @Test
+    @Category(PerformanceTest.class)
+    public void pageSwitchesAreWithinBudget() {
+        int[] targets = PageSwitchBenchmark.TARGETS;
+        MobileMainActivity activity = startActivity().get();
+        FlowTimer[] timers = new FlowTimer[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            timers[i] = new FlowTimer("navigateTo(" + targets[i] + ")");
+        }
+        // the first rounds create the pages
+        for (int run = 0; run < WARM_UP_RUNS; run++) {
+            for (int target : targets) {
+                activity.navigateTo(target);
+            }
+        }
+        for (int run = 0; run < RUNS; run++) {
+            for (int i = 0; i < targets.length; i++) {
+                timers[i].start();
+                activity.navigateTo(targets[i]);
+                timers[i].stop();
+            }
+        }
+
+        for (FlowTimer timer : timers) {
+            assertWithinBudget(timer, PAGE_SWITCH_BUDGET_MS);
+        }
+    }
+
+    @Test
+    public void pagesAreKeptAcrossSwitches() {
+        MobileMainActivity activity = startActivity().get();
+        FragmentManager fragmentManager = activity.getSupportFragmentManager();
+        for (int target : PageSwitchBenchmark.TARGETS) {
+            activity.navigateTo(target);
+        }
+        Fragment stockPage = fragmentManager.findFragmentByTag(
+                PageHost.getPageTag(Constants.TARGET_STOCK));
+
+        for (int target : PageSwitchBenchmark.TARGETS) {
+            activity.navigateTo(target);
+        }
+
+        assertSame(stockPage, fragmentManager.findFragmentByTag(
+                PageHost.getPageTag(Constants.TARGET_STOCK)));
+        assertTrue(stockPage.isAdded());
+        assertTrue(stockPage.isHidden());
+    }
+
+    private static ActivityController<MobileMainActivity> startActivity() {
+        return Robolectric.buildActivity(MobileMainActivity.class)
+                .create().start().resume().visible();
+    }
+
+    private static void assertWithinBudget(FlowTimer timer, long budgetMs) {
+        long p90Ms = timer.getDurations().getPercentile(90) / 1000;
+        assertTrue(timer.getSummary() + " is over the budget of " + budgetMs + "ms",
+                p90Ms <= budgetMs);
+    }
+}
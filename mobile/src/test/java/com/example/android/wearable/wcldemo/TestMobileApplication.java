@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.sim.LinkProfile;
+import com.example.android.wearable.wcldemo.common.sim.NodeSimulator;
+import com.example.android.wearable.wcldemo.common.sim.SimulatedTransport;
+
+/**
+ * The application that the tests run the app in. A simulated watch, on a bluetooth link, stands
+ * in for the paired devices, so that the app runs without the Wearable API.
+ */
+public class TestMobileApplication extends MobileApplication {
+
+    // the singletons that hold on to the transport outlive each test, so there is only one
+    private static SimulatedTransport sTransport;
+
+    @Override
+    public void onCreate() {
+        synchronized (TestMobileApplication.class) {
+            if (sTransport == null) {
+                NodeSimulator simulator = new NodeSimulator();
+                simulator.addNodes(1, LinkProfile.BLUETOOTH);
+                sTransport = new SimulatedTransport(simulator);
+                WearTransport.setInstance(sTransport);
+            }
+        }
+        super.onCreate();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Advertises the capabilities of this device on behalf of the pages that provide them. Each page
+ * {@link #acquire(String...)}s its capabilities when it shows up and {@link #release(String...)}s
+ * them when it goes away; a capability is advertised as long as someone holds it. The changes are
+ * not published right away:
+ * <ul>
+ *     <li>the capabilities that are acquired are published after {@link #PUBLISH_DELAY_MS}, so
+ *     that the changes made together, say while a page replaces another, go out in one update;</li>
+ *     <li>the capabilities that are released are only withdrawn once nobody has held them for
+ *     {@link #UNPUBLISH_GRACE_MS}, so that a rotation or a quick flip between pages does not
+ *     withdraw and publish them again, and the peers keep a stable view of this device.</li>
+ * </ul>
+ *
+ * <p>All the methods of this class should be called on the main thread.
+ */
+public class CapabilityAdvertiser {
+
+    private static final String TAG = "CapabilityAdvertiser";
+
+    public static final long PUBLISH_DELAY_MS = 100;
+    public static final long UNPUBLISH_GRACE_MS = 3000;
+
+    private static CapabilityAdvertiser sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Integer> mHolders = new HashMap<>();
+    private final Set<String> mPublished = new HashSet<>();
+
+    // when each capability that nobody holds, but that is still published, was released
+    private final Map<String, Long> mReleaseTimes = new HashMap<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private CapabilityAdvertiser() {
+    }
+
+    public static CapabilityAdvertiser getInstance() {
+        if (sInstance == null) {
+            sInstance = new CapabilityAdvertiser();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Holds {@code capabilities}; they are advertised until they are released as many times.
+     */
+    public void acquire(String... capabilities) {
+        boolean changed = false;
+        for (String capability : capabilities) {
+            Integer holders = mHolders.get(capability);
+            mHolders.put(capability, holders == null ? 1 : holders + 1);
+            mReleaseTimes.remove(capability);
+            changed |= !mPublished.contains(capability);
+        }
+        if (changed) {
+            schedule(PUBLISH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Lets go of {@code capabilities}, which have to have been acquired.
+     */
+    public void release(String... capabilities) {
+        long now = SystemClock.elapsedRealtime();
+        boolean changed = false;
+        for (String capability : capabilities) {
+            Integer holders = mHolders.get(capability);
+            if (holders == null) {
+                Log.w(TAG, "Released " + capability + " that was not acquired");
+                continue;
+            }
+            if (holders > 1) {
+                mHolders.put(capability, holders - 1);
+                continue;
+            }
+            mHolders.remove(capability);
+            if (mPublished.contains(capability)) {
+                mReleaseTimes.put(capability, now);
+                changed = true;
+            }
+        }
+        if (changed) {
+            schedule(UNPUBLISH_GRACE_MS);
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@code capability} is held by someone, whether or not it has been
+     * published yet.
+     */
+    public boolean isHeld(String capability) {
+        return mHolders.containsKey(capability);
+    }
+
+    private void schedule(long delayMs) {
+        // an earlier flush that is already scheduled takes care of this change too
+        mHandler.removeCallbacks(mFlushRunnable);
+        mHandler.postDelayed(mFlushRunnable, nextFlushDelay(delayMs));
+    }
+
+    private long nextFlushDelay(long delayMs) {
+        long now = SystemClock.elapsedRealtime();
+        long next = delayMs;
+        for (String capability : mHolders.keySet()) {
+            if (!mPublished.contains(capability)) {
+                next = Math.min(next, PUBLISH_DELAY_MS);
+            }
+        }
+        for (long releaseTime : mReleaseTimes.values()) {
+            next = Math.min(next, Math.max(0, releaseTime + UNPUBLISH_GRACE_MS - now));
+        }
+        return next;
+    }
+
+    private void flush() {
+        long now = SystemClock.elapsedRealtime();
+        List<String> toAdd = new ArrayList<>();
+        for (String capability : mHolders.keySet()) {
+            if (mPublished.add(capability)) {
+                toAdd.add(capability);
+            }
+        }
+        List<String> toRemove = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> releases = mReleaseTimes.entrySet().iterator();
+        while (releases.hasNext()) {
+            Map.Entry<String, Long> release = releases.next();
+            if (release.getValue() + UNPUBLISH_GRACE_MS <= now) {
+                toRemove.add(release.getKey());
+                mPublished.remove(release.getKey());
+                releases.remove();
+            }
+        }
+        WearTransport transport = WearTransport.getInstance();
+        if (!toAdd.isEmpty()) {
+            Log.d(TAG, "Publishing " + toAdd);
+            transport.addCapabilities(toAdd.toArray(new String[toAdd.size()]));
+        }
+        if (!toRemove.isEmpty()) {
+            Log.d(TAG, "Withdrawing " + toRemove);
+            transport.removeCapabilities(toRemove.toArray(new String[toRemove.size()]));
+        }
+        if (!mReleaseTimes.isEmpty()) {
+            mHandler.postDelayed(mFlushRunnable, nextFlushDelay(UNPUBLISH_GRACE_MS));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.wearable.MessageEvent;
+
+/**
+ * Estimates the offset between the {@link SystemClock#elapsedRealtime()} clock of this device and
+ * the one of a peer, so that times taken on the peer can be compared to local ones. A few pings
+ * are sent; the peer answers each with its own time, which is taken to be the time in the middle
+ * of the round trip. The sample with the shortest round trip is kept, as it has the smallest error:
+ * at most half of its round trip.
+ *
+ * <p>The peer answers the pings once {@link #startResponder()} has been called on it.
+ */
+public class ClockSync {
+
+    private static final String TAG = "ClockSync";
+
+    public static final String PING_PATH = "/clock/ping";
+    public static final String PONG_PATH = "/clock/pong";
+
+    private static final int DEFAULT_SAMPLES = 5;
+    private static final long PING_INTERVAL_MS = 200;
+
+    private final String mNodeId;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ControlMessageCodec.Encoder mEncoder = new ControlMessageCodec.Encoder();
+    private MessageDispatcher.Registration<byte[]> mRegistration;
+    private int mPingsLeft;
+
+    // the best sample so far; written on the thread of the dispatcher, read from anywhere
+    private volatile long mOffsetMs;
+    private volatile long mRoundTripMs = Long.MAX_VALUE;
+
+    private final Runnable mPingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mPingsLeft-- <= 0) {
+                return;
+            }
+            byte[] ping = mEncoder.begin(ControlMessageCodec.TYPE_CLOCK_PING)
+                    .putLong(SystemClock.elapsedRealtime())
+                    .toByteArray();
+            WearTransport.getInstance().sendMessage(mNodeId, PING_PATH, ping, null);
+            mHandler.postDelayed(this, PING_INTERVAL_MS);
+        }
+    };
+
+    public ClockSync(String nodeId) {
+        mNodeId = nodeId;
+    }
+
+    /**
+     * Answers the pings of the peers; called once, by the application.
+     */
+    public static void startResponder() {
+        final ControlMessageCodec.Encoder encoder = new ControlMessageCodec.Encoder();
+        MessageDispatcher.getInstance().register(PING_PATH, MessageDispatcher.RAW,
+                new MessageDispatcher.MessageHandler<byte[]>() {
+                    @Override
+                    public void onMessageReceived(MessageEvent messageEvent, byte[] data) {
+                        if (ControlMessageCodec.getType(data)
+                                != ControlMessageCodec.TYPE_CLOCK_PING) {
+                            return;
+                        }
+                        long now = SystemClock.elapsedRealtime();
+                        byte[] pong;
+                        synchronized (encoder) {
+                            pong = encoder.begin(ControlMessageCodec.TYPE_CLOCK_PONG)
+                                    .putLong(ControlMessageCodec.getLong(data, 0))
+                                    .putLong(now)
+                                    .toByteArray();
+                        }
+                        WearTransport.getInstance().sendMessage(messageEvent.getSourceNodeId(),
+                                PONG_PATH, pong, null);
+                    }
+                }, MessageDispatcher.DIRECT);
+    }
+
+    /**
+     * Starts sending pings to the peer. Has to be called on the main thread.
+     */
+    public void start() {
+        if (mRegistration == null) {
+            mRegistration = MessageDispatcher.getInstance().register(PONG_PATH,
+                    MessageDispatcher.RAW, new MessageDispatcher.MessageHandler<byte[]>() {
+                        @Override
+                        public void onMessageReceived(MessageEvent messageEvent, byte[] data) {
+                            if (mNodeId.equals(messageEvent.getSourceNodeId())) {
+                                onPong(data);
+                            }
+                        }
+                    }, MessageDispatcher.DIRECT);
+        }
+        mPingsLeft = DEFAULT_SAMPLES;
+        mHandler.removeCallbacks(mPingRunnable);
+        mPingRunnable.run();
+    }
+
+    /**
+     * Stops sending pings; the estimate that was made so far is kept.
+     */
+    public void stop() {
+        mHandler.removeCallbacks(mPingRunnable);
+        MessageDispatcher.getInstance().unregister(mRegistration);
+        mRegistration = null;
+    }
+
+    private void onPong(byte[] data) {
+        if (ControlMessageCodec.getType(data) != ControlMessageCodec.TYPE_CLOCK_PONG) {
+            return;
+        }
+        long received = SystemClock.elapsedRealtime();
+        long sent = ControlMessageCodec.getLong(data, 0);
+        long remote = ControlMessageCodec.getLong(data, 1);
+        long roundTrip = received - sent;
+        synchronized (this) {
+            if (roundTrip < mRoundTripMs) {
+                mOffsetMs = remote - (sent + received) / 2;
+                mRoundTripMs = roundTrip;
+                Log.d(TAG, "Offset to " + mNodeId + ": " + mOffsetMs + "ms, +/- "
+                        + roundTrip / 2 + "ms");
+            }
+        }
+    }
+
+    public boolean hasOffset() {
+        return mRoundTripMs != Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns how far the clock of the peer is ahead of the local one.
+     */
+    public long getOffsetMs() {
+        return mOffsetMs;
+    }
+
+    /**
+     * Returns the round trip of the sample the offset comes from; the offset is off by at most
+     * half of it.
+     */
+    public long getRoundTripMs() {
+        return mRoundTripMs;
+    }
+
+    /**
+     * Converts a time of the peer to the local clock.
+     */
+    public long toLocalTime(long remoteTimeMs) {
+        return remoteTimeMs - mOffsetMs;
+    }
+}
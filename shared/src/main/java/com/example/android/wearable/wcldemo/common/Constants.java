@@ -29,11 +29,20 @@ public class Constants {
     public static final int TARGET_LIST_DIALOG = 4;
     public static final int TARGET_LIST = 5;
     public static final int TARGET_VOICE_STREAM = 6;
+    public static final int TARGET_METRICS = 7;
 
     public static final String NAVIGATION_PATH_MOBILE = "/navpath/mobile";
     public static final String NAVIGATION_PATH_WEAR = "/navpath/wear";
     public static final String KEY_PAGE = "key-page";
 
+    /**
+     * The request id of each channel that the wear app opens starts with one of these, so the
+     * handheld app knows what a stream is before reading it. The channels of older wear apps, such
+     * as those of the recorder of the Wear Companion Library, have neither.
+     */
+    public static final String STREAM_ID_PREFIX_VOICE = "voice-";
+    public static final String STREAM_ID_PREFIX_FILE = "file-";
+
     /**
      * Various capabilities that the handheld app will provide
      */
@@ -41,4 +50,28 @@ public class Constants {
     public static final String CAPABILITY_HTTP_HANDLER = "http_handler";
     public static final String CAPABILITY_VOICE_PROCESSING = "voice_processor";
 
+    /**
+     * Advertised by the handheld app, along with {@link #CAPABILITY_VOICE_PROCESSING}, when it can
+     * decode voice streams that are compressed with IMA-ADPCM.
+     */
+    public static final String CAPABILITY_VOICE_CODEC_ADPCM = "voice_codec_adpcm";
+
+    /**
+     * Advertised by the handheld app when it can expand the silence records of a voice stream, so
+     * the wear app can leave out the frames that have no speech.
+     */
+    public static final String CAPABILITY_VOICE_SILENCE = "voice_silence";
+
+    /**
+     * Advertised by the handheld app when it measures the latency of voice streams; the wear app
+     * then puts capture timestamps in the stream every now and then.
+     */
+    public static final String CAPABILITY_VOICE_TIMESTAMPS = "voice_timestamps";
+
+    /**
+     * The status code that the handheld app returns for a proxied http request when it did not
+     * even try to reach the upstream server because that server has been failing recently.
+     */
+    public static final int HTTP_STATUS_UPSTREAM_UNAVAILABLE = 599;
+
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import com.google.android.gms.wearable.DataMap;
+
+/**
+ * A compact binary format for the small, fixed-schema control messages that the two apps exchange
+ * all the time, such as the page that is being shown. A message is laid out as:
+ *
+ * <pre>
+ *   [header: 1 byte][type: 1 byte][field 0][field 1]...
+ * </pre>
+ *
+ * where the header carries a magic value and the version of the format, and each field is a
+ * zig-zag encoded variable-length integer; the number and meaning of the fields is fixed by the
+ * type. A page message, for example, is three bytes long.
+ *
+ * <p>The decoding methods read straight from the received byte array and do not allocate. For
+ * encoding, {@link Encoder} writes into a buffer that is reused across messages.
+ */
+public final class ControlMessageCodec {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Returned by {@link #getType(byte[])} when the bytes are not a control message.
+     */
+    public static final int TYPE_INVALID = -1;
+
+    /**
+     * The page that is being shown; one int field with one of the {@code Constants.TARGET_*}
+     * values.
+     */
+    public static final int TYPE_PAGE = 1;
+
+    /**
+     * The page that is being shown along with the version of the navigation state; two fields,
+     * the {@code Constants.TARGET_*} value and a long version.
+     */
+    public static final int TYPE_PAGE_STATE = 2;
+
+    /**
+     * A request for the time of the peer; one field, the time of the sender when it was sent.
+     */
+    public static final int TYPE_CLOCK_PING = 3;
+
+    /**
+     * The answer to a {@link #TYPE_CLOCK_PING}; two fields, the time from the ping and the time of
+     * the sender of the answer when it received the ping.
+     */
+    public static final int TYPE_CLOCK_PONG = 4;
+
+    // the upper nibble of the header is a fixed magic value, the lower nibble is the version
+    private static final int MAGIC = 0xC0;
+    private static final int HEADER = MAGIC | VERSION;
+    private static final int HEADER_SIZE = 2;
+
+    // a serialized DataMap starts with the tag of its first entry, a length-delimited field 1
+    private static final int DATA_MAP_TAG = 0x0A;
+
+    private static final int MAX_FIELDS = 4;
+    private static final int MAX_VARINT_SIZE = 10;
+    public static final int MAX_MESSAGE_SIZE = HEADER_SIZE + MAX_FIELDS * MAX_VARINT_SIZE;
+
+    // page messages are by far the most frequent ones, so the encoded form of each is kept
+    private static final int PAGE_CACHE_SIZE = 16;
+    private static final byte[][] sPageMessages = new byte[PAGE_CACHE_SIZE][];
+
+    static {
+        Encoder encoder = new Encoder();
+        for (int page = 0; page < PAGE_CACHE_SIZE; page++) {
+            sPageMessages[page] = encoder.begin(TYPE_PAGE).putInt(page).toByteArray();
+        }
+    }
+
+    private ControlMessageCodec() {
+    }
+
+    /**
+     * Returns the encoded form of a {@link #TYPE_PAGE} message. The returned array may be shared
+     * and must not be modified.
+     */
+    public static byte[] encodePage(int page) {
+        if (page < 0 || page >= PAGE_CACHE_SIZE) {
+            return new Encoder().begin(TYPE_PAGE).putInt(page).toByteArray();
+        }
+        return sPageMessages[page];
+    }
+
+    /**
+     * Reads the page from a navigation message. Peers that have not been updated yet send the page
+     * in a {@link DataMap}; those messages are still understood. A control message of another type
+     * or version, a malformed one, or anything else, gives {@code defaultPage}.
+     */
+    public static int decodePage(byte[] data, int defaultPage) {
+        if (data == null || data.length == 0) {
+            return defaultPage;
+        }
+        if ((data[0] & 0xF0) == MAGIC) {
+            int type = getType(data);
+            if (type != TYPE_PAGE && type != TYPE_PAGE_STATE) {
+                return defaultPage;
+            }
+            try {
+                return getInt(data, 0);
+            } catch (IllegalArgumentException e) {
+                // truncated on the way
+                return defaultPage;
+            }
+        }
+        if (data[0] != DATA_MAP_TAG) {
+            return defaultPage;
+        }
+        try {
+            return DataMap.fromByteArray(data).getInt(Constants.KEY_PAGE, defaultPage);
+        } catch (RuntimeException e) {
+            // not a DataMap after all
+            return defaultPage;
+        }
+    }
+
+    /**
+     * Returns the type of the message in {@code data}, or {@link #TYPE_INVALID} if {@code data}
+     * is not a control message of a version that this codec understands.
+     */
+    public static int getType(byte[] data) {
+        if (data == null || data.length < HEADER_SIZE || (data[0] & 0xFF) != HEADER) {
+            return TYPE_INVALID;
+        }
+        return data[1] & 0xFF;
+    }
+
+    /**
+     * Returns the value of the field at {@code index} as an int.
+     */
+    public static int getInt(byte[] data, int index) {
+        return (int) getLong(data, index);
+    }
+
+    /**
+     * Returns the value of the field at {@code index} as a long.
+     *
+     * @throws IllegalArgumentException if the message does not have that many fields
+     */
+    public static long getLong(byte[] data, int index) {
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < index; i++) {
+            offset = skipVarint(data, offset);
+        }
+        long raw = 0;
+        int shift = 0;
+        while (true) {
+            if (offset >= data.length || shift >= 64) {
+                throw new IllegalArgumentException("Truncated or malformed control message");
+            }
+            byte b = data[offset++];
+            raw |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        // undo the zig-zag encoding
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private static int skipVarint(byte[] data, int offset) {
+        while (offset < data.length) {
+            if ((data[offset++] & 0x80) == 0) {
+                return offset;
+            }
+        }
+        throw new IllegalArgumentException("Truncated control message");
+    }
+
+    /**
+     * Writes control messages into a buffer that is reused from one message to the next. An
+     * encoder is not thread-safe.
+     */
+    public static final class Encoder {
+
+        private final byte[] mBuffer = new byte[MAX_MESSAGE_SIZE];
+        private int mLength;
+        private int mFields;
+
+        /**
+         * Starts a new message of the given {@code type}, discarding the previous one.
+         */
+        public Encoder begin(int type) {
+            mBuffer[0] = (byte) HEADER;
+            mBuffer[1] = (byte) type;
+            mLength = HEADER_SIZE;
+            mFields = 0;
+            return this;
+        }
+
+        public Encoder putInt(int value) {
+            return putLong(value);
+        }
+
+        public Encoder putLong(long value) {
+            if (mFields == MAX_FIELDS) {
+                throw new IllegalStateException("Too many fields in a control message");
+            }
+            long zigZag = (value << 1) ^ (value >> 63);
+            while ((zigZag & ~0x7FL) != 0) {
+                mBuffer[mLength++] = (byte) ((zigZag & 0x7F) | 0x80);
+                zigZag >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) zigZag;
+            mFields++;
+            return this;
+        }
+
+        /**
+         * Returns the buffer that holds the current message; only the first {@link #length()}
+         * bytes are meaningful and the content changes with the next message.
+         */
+        public byte[] buffer() {
+            return mBuffer;
+        }
+
+        public int length() {
+            return mLength;
+        }
+
+        /**
+         * Returns a copy of the current message, sized to fit.
+         */
+        public byte[] toByteArray() {
+            byte[] message = new byte[mLength];
+            System.arraycopy(mBuffer, 0, message, 0, mLength);
+            return message;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Applies state to views once per frame. Updates can be posted from any thread; only the latest
+ * value posted for a view is kept, and all the pending values are applied together on the main
+ * thread at the start of the next frame. A burst of incoming messages therefore results in one
+ * update, and one layout pass, per frame instead of one per message.
+ */
+public class FrameUpdater implements Choreographer.FrameCallback {
+
+    /**
+     * Sets the text of a {@link TextView}.
+     */
+    public static final Binder<TextView, CharSequence> TEXT = new Binder<TextView, CharSequence>() {
+        @Override
+        public void bind(TextView view, CharSequence value) {
+            view.setText(value);
+        }
+    };
+
+    private static FrameUpdater sInstance;
+
+    private final Choreographer mChoreographer;
+
+    // views are held weakly so views that are gone are dropped from the map
+    private final Map<View, Slot> mSlots = new WeakHashMap<>();
+    private final ArrayList<Slot> mDirtySlots = new ArrayList<>();
+
+    // reused by doFrame() to apply the updates outside of the lock
+    private final ArrayList<View> mApplyingViews = new ArrayList<>();
+    private final ArrayList<Binder<?, ?>> mApplyingBinders = new ArrayList<>();
+    private final ArrayList<Object> mApplyingValues = new ArrayList<>();
+    private boolean mFrameScheduled;
+
+    private FrameUpdater() {
+        // a Choreographer belongs to the thread it is obtained on
+        mChoreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * Returns the shared instance; the first call has to be made on the main thread.
+     */
+    public static synchronized FrameUpdater getInstance() {
+        if (sInstance == null) {
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                throw new IllegalStateException("FrameUpdater has to be created on main thread");
+            }
+            sInstance = new FrameUpdater();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Sets the text of {@code view} at the next frame.
+     */
+    public void setText(TextView view, CharSequence text) {
+        post(view, text, TEXT);
+    }
+
+    /**
+     * Schedules {@code value} to be applied to {@code view} by {@code binder} at the next frame,
+     * replacing any value that is pending for the same view. Can be called from any thread.
+     */
+    public <V extends View, T> void post(V view, T value, Binder<V, T> binder) {
+        if (view == null) {
+            return;
+        }
+        synchronized (mSlots) {
+            Slot slot = mSlots.get(view);
+            if (slot == null) {
+                slot = new Slot();
+                mSlots.put(view, slot);
+            }
+            slot.binder = binder;
+            slot.value = value;
+            if (slot.view == null) {
+                slot.view = view;
+                mDirtySlots.add(slot);
+            }
+            if (!mFrameScheduled) {
+                mFrameScheduled = true;
+                mChoreographer.postFrameCallback(this);
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void doFrame(long frameTimeNanos) {
+        synchronized (mSlots) {
+            mFrameScheduled = false;
+            for (int i = 0, size = mDirtySlots.size(); i < size; i++) {
+                Slot slot = mDirtySlots.get(i);
+                mApplyingViews.add(slot.view);
+                mApplyingBinders.add(slot.binder);
+                mApplyingValues.add(slot.value);
+                slot.view = null;
+                slot.binder = null;
+                slot.value = null;
+            }
+            mDirtySlots.clear();
+        }
+        for (int i = 0, size = mApplyingViews.size(); i < size; i++) {
+            ((Binder<View, Object>) mApplyingBinders.get(i))
+                    .bind(mApplyingViews.get(i), mApplyingValues.get(i));
+        }
+        mApplyingViews.clear();
+        mApplyingBinders.clear();
+        mApplyingValues.clear();
+    }
+
+    /**
+     * Applies a value to a view.
+     */
+    public interface Binder<V extends View, T> {
+
+        void bind(V view, T value);
+    }
+
+    /**
+     * The pending update of one view. The view is only referenced while an update is pending so
+     * that the slot does not keep its own key alive in the weak map.
+     */
+    private static class Slot {
+
+        View view;
+        Binder<?, ?> binder;
+        Object value;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.google.android.gms.common.api.CommonStatusCodes;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+
+import com.example.android.wearable.wcldemo.common.metrics.Counter;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends the same message to a set of nodes. All the sends are issued before any of them completes,
+ * so they are in flight at the same time and the whole broadcast takes about as long as the slowest
+ * node, not the sum over all nodes. A single {@link Callback} is called, on the main thread, once
+ * every node has answered or the deadline has passed, with the status and latency of each node.
+ * Nodes that have not answered by the deadline are reported with
+ * {@link CommonStatusCodes#TIMEOUT}.
+ */
+public class MessageBroadcast {
+
+    /**
+     * Passed as the deadline to wait for every node, however long it takes.
+     */
+    public static final long NO_DEADLINE = 0;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final NodeResult[] mResults;
+    private final Callback mCallback;
+    private final long mStartTime;
+    private int mPending;
+    private boolean mCompleted;
+
+    private final Runnable mDeadlineRunnable = new Runnable() {
+        @Override
+        public void run() {
+            complete();
+        }
+    };
+
+    private MessageBroadcast(int nodeCount, Callback callback) {
+        mResults = new NodeResult[nodeCount];
+        mPending = nodeCount;
+        mCallback = callback;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Sends {@code data} to all of {@code nodes} at {@code path}.
+     *
+     * @param deadlineMs How long to wait for the nodes to answer, or {@link #NO_DEADLINE}
+     * @param callback Called once with the results; can be {@code null}
+     * @return A handle on the broadcast, for example to {@link #cancel()} it
+     */
+    public static MessageBroadcast send(Collection<Node> nodes, String path, byte[] data,
+            long deadlineMs, Callback callback) {
+        final MessageBroadcast broadcast = new MessageBroadcast(nodes.size(), callback);
+        if (nodes.isEmpty()) {
+            broadcast.postComplete();
+            return broadcast;
+        }
+        if (deadlineMs > 0) {
+            sMainHandler.postDelayed(broadcast.mDeadlineRunnable, deadlineMs);
+        }
+        // all the results have to exist before the first send, as it may complete right away
+        int index = 0;
+        for (Node node : nodes) {
+            broadcast.mResults[index++] = new NodeResult(node.getId());
+        }
+        Metrics metrics = Metrics.getInstance();
+        metrics.counter(Metrics.MESSAGES_SENT, path).add(nodes.size());
+        metrics.counter(Metrics.MESSAGE_BYTES_SENT).add((long) data.length * nodes.size());
+        final Counter failures = metrics.counter(Metrics.MESSAGES_SEND_FAILED, path);
+        WearTransport transport = WearTransport.getInstance();
+        for (int i = 0; i < broadcast.mResults.length; i++) {
+            final int nodeIndex = i;
+            transport.sendMessage(broadcast.mResults[i].nodeId, path, data,
+                    new ResultCallback<MessageApi.SendMessageResult>() {
+                        @Override
+                        public void onResult(MessageApi.SendMessageResult result) {
+                            if (!result.getStatus().isSuccess()) {
+                                failures.increment();
+                            }
+                            broadcast.onNodeResult(nodeIndex,
+                                    result.getStatus().getStatusCode());
+                        }
+                    });
+        }
+        return broadcast;
+    }
+
+    /**
+     * Stops waiting for the nodes; the callback is not called if it has not been already. The
+     * messages that were already sent are not recalled.
+     */
+    public void cancel() {
+        synchronized (this) {
+            mCompleted = true;
+        }
+        sMainHandler.removeCallbacks(mDeadlineRunnable);
+    }
+
+    private void onNodeResult(int nodeIndex, int statusCode) {
+        boolean done;
+        synchronized (this) {
+            NodeResult result = mResults[nodeIndex];
+            if (mCompleted || result.isDone()) {
+                return;
+            }
+            result.statusCode = statusCode;
+            result.latencyMs = SystemClock.elapsedRealtime() - mStartTime;
+            done = --mPending == 0;
+        }
+        if (done) {
+            postComplete();
+        }
+    }
+
+    private void postComplete() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            complete();
+        } else {
+            sMainHandler.post(mDeadlineRunnable);
+        }
+    }
+
+    private void complete() {
+        List<NodeResult> results;
+        synchronized (this) {
+            if (mCompleted) {
+                return;
+            }
+            mCompleted = true;
+            long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+            results = new ArrayList<>(mResults.length);
+            for (NodeResult result : mResults) {
+                if (!result.isDone()) {
+                    result.statusCode = CommonStatusCodes.TIMEOUT;
+                    result.latencyMs = elapsed;
+                }
+                results.add(result);
+            }
+        }
+        sMainHandler.removeCallbacks(mDeadlineRunnable);
+        if (mCallback != null) {
+            mCallback.onBroadcastComplete(Collections.unmodifiableList(results));
+        }
+    }
+
+    /**
+     * Is told the outcome of a broadcast.
+     */
+    public interface Callback {
+
+        /**
+         * Called on the main thread with one result per node, in the order of the nodes that were
+         * passed to {@link #send(Collection, String, byte[], long, Callback)}.
+         */
+        void onBroadcastComplete(List<NodeResult> results);
+    }
+
+    /**
+     * The outcome of sending the message to one node.
+     */
+    public static class NodeResult {
+
+        private static final int PENDING = Integer.MIN_VALUE;
+
+        final String nodeId;
+        int statusCode = PENDING;
+        long latencyMs;
+
+        NodeResult(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        boolean isDone() {
+            return statusCode != PENDING;
+        }
+
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        /**
+         * Returns one of the {@link CommonStatusCodes}.
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public boolean isSuccess() {
+            return statusCode == CommonStatusCodes.SUCCESS;
+        }
+
+        /**
+         * Returns the time from the start of the broadcast until the node answered, or until the
+         * deadline if it did not.
+         */
+        public long getLatencyMs() {
+            return latencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return nodeId + ": " + CommonStatusCodes.getStatusCodeString(statusCode) + " in "
+                    + latencyMs + "ms";
+        }
+    }
+}
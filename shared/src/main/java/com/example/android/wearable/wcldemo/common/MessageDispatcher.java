@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+
+import com.example.android.wearable.wcldemo.common.metrics.Counter;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Routes the incoming messages to the handlers that are interested in them, based on the path of
+ * each message. Instead of every component registering its own
+ * {@link com.google.devrel.wcl.callbacks.WearConsumer} and comparing the path of every message,
+ * handlers are registered here for an exact path or for a path prefix. A single consumer receives
+ * all messages and looks up the matching handlers in a hash map (exact paths) and a trie of path
+ * segments (prefixes), so the cost of dispatching a message does not grow with the number of
+ * registered handlers.
+ *
+ * <p>Each handler comes with a {@link Decoder}; a payload is decoded once per decoder, no matter
+ * how many handlers share that decoder, and the result is delivered to each handler on the
+ * {@link Executor} that it was registered with. A decoder or a handler that throws is logged and
+ * skipped; the other handlers of the message still receive it.
+ */
+public class MessageDispatcher {
+
+    private static final String TAG = "MessageDispatcher";
+
+    /**
+     * Delivers the handlers on the main thread.
+     */
+    public static final Executor MAIN_THREAD = new Executor() {
+        private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                command.run();
+            } else {
+                mHandler.post(command);
+            }
+        }
+    };
+
+    /**
+     * Delivers the handlers on the thread that received the message.
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A decoder that passes the payload through, as is.
+     */
+    public static final Decoder<byte[]> RAW = new Decoder<byte[]>() {
+        @Override
+        public byte[] decode(byte[] data) {
+            return data;
+        }
+    };
+
+    private static MessageDispatcher sInstance;
+
+    private final Object mLock = new Object();
+    private final Counter mBytesReceived =
+            Metrics.getInstance().counter(Metrics.MESSAGE_BYTES_RECEIVED);
+    private final List<Registration<?>> mRegistrations = new ArrayList<>();
+
+    // rebuilt every time a handler is registered or unregistered; read without locking
+    private volatile Index mIndex = new Index(Collections.<Registration<?>>emptyList());
+
+    private MessageDispatcher() {
+        WearTransport.getInstance().addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableMessageReceived(MessageEvent messageEvent) {
+                dispatch(messageEvent);
+            }
+        });
+    }
+
+    public static synchronized MessageDispatcher initialize() {
+        if (sInstance == null) {
+            sInstance = new MessageDispatcher();
+        }
+        return sInstance;
+    }
+
+    public static MessageDispatcher getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException(
+                    "MessageDispatcher has not been initialized; call initialize() first");
+        }
+        return sInstance;
+    }
+
+    /**
+     * Registers a {@code handler} for the messages whose path is exactly {@code path}.
+     *
+     * @return A token to pass to {@link #unregister(Registration)}
+     */
+    public <T> Registration<T> register(String path, Decoder<T> decoder, MessageHandler<T> handler,
+            Executor executor) {
+        return add(new Registration<>(path, false, decoder, handler, executor));
+    }
+
+    /**
+     * Registers a {@code handler} for the messages whose path starts with the path segments in
+     * {@code prefix}; for example "/voice" matches "/voice" and "/voice/ping", but not "/voices".
+     *
+     * @return A token to pass to {@link #unregister(Registration)}
+     */
+    public <T> Registration<T> registerPrefix(String prefix, Decoder<T> decoder,
+            MessageHandler<T> handler, Executor executor) {
+        return add(new Registration<>(prefix, true, decoder, handler, executor));
+    }
+
+    public void unregister(Registration<?> registration) {
+        if (registration == null) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mRegistrations.remove(registration)) {
+                mIndex = new Index(mRegistrations);
+            }
+        }
+    }
+
+    private <T> Registration<T> add(Registration<T> registration) {
+        synchronized (mLock) {
+            mRegistrations.add(registration);
+            mIndex = new Index(mRegistrations);
+        }
+        return registration;
+    }
+
+    /**
+     * Delivers {@code messageEvent} to the matching handlers. This is normally called by the
+     * consumer that the dispatcher registers with the {@link WearTransport}.
+     */
+    public void dispatch(MessageEvent messageEvent) {
+        Index index = mIndex;
+        String path = messageEvent.getPath();
+        byte[] data = messageEvent.getData();
+        Metrics.getInstance().counter(Metrics.MESSAGES_RECEIVED, path).increment();
+        if (data != null) {
+            mBytesReceived.add(data.length);
+        }
+        DecodedPayloads decoded = new DecodedPayloads(path, data);
+        List<Registration<?>> exact = index.exact.get(path);
+        if (exact != null) {
+            deliver(exact, messageEvent, decoded);
+        }
+        TrieNode node = index.prefixRoot;
+        int start = 1; // all paths start with '/'
+        int length = path.length();
+        while (node != null) {
+            if (!node.registrations.isEmpty()) {
+                deliver(node.registrations, messageEvent, decoded);
+            }
+            if (start > length) {
+                break;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            node = node.child(path, start, end);
+            start = end + 1;
+        }
+    }
+
+    private static void deliver(List<Registration<?>> registrations, MessageEvent messageEvent,
+            DecodedPayloads decoded) {
+        for (int i = 0, size = registrations.size(); i < size; i++) {
+            Registration<?> registration = registrations.get(i);
+            Object payload = decoded.get(registration.decoder);
+            if (payload != DecodedPayloads.FAILED) {
+                registration.deliver(messageEvent, payload);
+            }
+        }
+    }
+
+    /**
+     * Turns the bytes of a message into the object that the handlers receive.
+     */
+    public interface Decoder<T> {
+
+        T decode(byte[] data);
+    }
+
+    /**
+     * Receives the messages that match the path it was registered with.
+     */
+    public interface MessageHandler<T> {
+
+        void onMessageReceived(MessageEvent messageEvent, T payload);
+    }
+
+    /**
+     * The token returned when registering a handler.
+     */
+    public static final class Registration<T> {
+
+        final String path;
+        final boolean prefix;
+        final Decoder<T> decoder;
+        final MessageHandler<T> handler;
+        final Executor executor;
+
+        Registration(String path, boolean prefix, Decoder<T> decoder, MessageHandler<T> handler,
+                Executor executor) {
+            this.path = path;
+            this.prefix = prefix;
+            this.decoder = decoder;
+            this.handler = handler;
+            this.executor = executor;
+        }
+
+        @SuppressWarnings("unchecked")
+        void deliver(final MessageEvent messageEvent, final Object payload) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handler.onMessageReceived(messageEvent, (T) payload);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "A handler failed on a message for " + messageEvent.getPath(),
+                                e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Decodes the payload of one message at most once per decoder. Most messages match a single
+     * decoder, so the results are kept in a short list rather than a map. A decoder that throws
+     * gives {@link #FAILED}.
+     */
+    private static class DecodedPayloads {
+
+        static final Object FAILED = new Object();
+
+        private final String mPath;
+        private final byte[] mData;
+        private Decoder<?> mFirstDecoder;
+        private Object mFirstPayload;
+        private List<Decoder<?>> mMoreDecoders;
+        private List<Object> mMorePayloads;
+
+        DecodedPayloads(String path, byte[] data) {
+            mPath = path;
+            mData = data;
+        }
+
+        Object get(Decoder<?> decoder) {
+            if (mFirstDecoder == null) {
+                mFirstDecoder = decoder;
+                mFirstPayload = decode(decoder);
+                return mFirstPayload;
+            }
+            if (mFirstDecoder == decoder) {
+                return mFirstPayload;
+            }
+            if (mMoreDecoders == null) {
+                mMoreDecoders = new ArrayList<>(2);
+                mMorePayloads = new ArrayList<>(2);
+            }
+            int i = mMoreDecoders.indexOf(decoder);
+            if (i >= 0) {
+                return mMorePayloads.get(i);
+            }
+            Object payload = decode(decoder);
+            mMoreDecoders.add(decoder);
+            mMorePayloads.add(payload);
+            return payload;
+        }
+
+        private Object decode(Decoder<?> decoder) {
+            try {
+                return decoder.decode(mData);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to decode a message for " + mPath, e);
+                return FAILED;
+            }
+        }
+    }
+
+    /**
+     * An immutable lookup structure built from the current registrations.
+     */
+    private static class Index {
+
+        final Map<String, List<Registration<?>>> exact = new HashMap<>();
+        final TrieNode prefixRoot = new TrieNode();
+
+        Index(List<Registration<?>> registrations) {
+            for (Registration<?> registration : registrations) {
+                if (registration.prefix) {
+                    TrieNode node = prefixRoot;
+                    for (String segment : registration.path.split("/")) {
+                        if (!segment.isEmpty()) {
+                            node = node.getOrCreateChild(segment);
+                        }
+                    }
+                    node.registrations.add(registration);
+                } else {
+                    List<Registration<?>> list = exact.get(registration.path);
+                    if (list == null) {
+                        list = new ArrayList<>(1);
+                        exact.put(registration.path, list);
+                    }
+                    list.add(registration);
+                }
+            }
+        }
+    }
+
+    private static class TrieNode {
+
+        final List<Registration<?>> registrations = new ArrayList<>(1);
+        final Map<String, TrieNode> children = new HashMap<>();
+
+        TrieNode getOrCreateChild(String segment) {
+            TrieNode child = children.get(segment);
+            if (child == null) {
+                child = new TrieNode();
+                children.put(segment, child);
+            }
+            return child;
+        }
+
+        /**
+         * Returns the child for the segment {@code path[start, end)}, or {@code null}.
+         */
+        TrieNode child(String path, int start, int end) {
+            if (children.isEmpty() || start >= end) {
+                return null;
+            }
+            return children.get(path.substring(start, end));
+        }
+    }
+}
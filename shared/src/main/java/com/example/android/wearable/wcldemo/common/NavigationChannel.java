@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Node;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tells the nearby nodes which page of this app is being shown. Page changes are debounced: a
+ * change is only sent after the page has stayed the same for a short while, so swiping quickly
+ * through a few pages sends a single message for the page the user ends up on. A change that
+ * supersedes one that has not been sent yet simply replaces it, and a page that is left and
+ * returned to before the change is sent is not sent again. Once a peer connects, the current page
+ * is sent again after the debounce period, and once an activity of the app resumes, the next page
+ * is sent even if it is the last one sent, since the peers may not know it any more. Each change that is sent is also published to the {@link NavigationState},
+ * so peers that miss the message catch up later.
+ * The message is sent to all the nearby nodes in parallel and the nodes that fail to receive it
+ * are logged.
+ *
+ * <p>All the methods of this class should be called on the main thread.
+ */
+public class NavigationChannel {
+
+    private static final String TAG = "NavigationChannel";
+
+    public static final long DEFAULT_DEBOUNCE_MS = 300;
+    private static final int NO_PAGE = -1;
+    private static final long SEND_DEADLINE_MS = 5000;
+
+    private final String mPath;
+    private final NavigationState mState;
+    private final long mDebounceMs;
+    private final ControlMessageCodec.Encoder mEncoder = new ControlMessageCodec.Encoder();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private int mCurrentPage = NO_PAGE;
+    private int mPendingPage = NO_PAGE;
+    private int mLastSentPage = NO_PAGE;
+
+    private final Runnable mSendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            int page = mPendingPage;
+            mPendingPage = NO_PAGE;
+            // only collapses the changes that came back to the last page before being sent
+            if (page != NO_PAGE && page != mLastSentPage) {
+                send(page);
+            }
+        }
+    };
+
+    private final Runnable mResendRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mLastSentPage = NO_PAGE;
+            if (mCurrentPage != NO_PAGE) {
+                setPage(mCurrentPage);
+            }
+        }
+    };
+
+    private final MessageBroadcast.Callback mBroadcastCallback = new MessageBroadcast.Callback() {
+        @Override
+        public void onBroadcastComplete(List<MessageBroadcast.NodeResult> results) {
+            for (MessageBroadcast.NodeResult result : results) {
+                if (!result.isSuccess()) {
+                    Log.w(TAG, "Failed to send navigation to " + result);
+                }
+            }
+        }
+    };
+
+    /**
+     * @param application The application whose activities, when resumed, send their page again
+     * @param path The path of the navigation messages, for example
+     * {@link Constants#NAVIGATION_PATH_WEAR}
+     * @param state The state that each page change is published to
+     */
+    public NavigationChannel(Application application, String path, NavigationState state) {
+        this(application, path, state, DEFAULT_DEBOUNCE_MS);
+    }
+
+    public NavigationChannel(Application application, String path, NavigationState state,
+            long debounceMs) {
+        mPath = path;
+        mState = state;
+        mDebounceMs = debounceMs;
+        application.registerActivityLifecycleCallbacks(new ResumeCallbacks());
+        WearTransport.getInstance().addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearablePeerConnected(Node peer) {
+                mHandler.post(mResendRunnable);
+            }
+        });
+    }
+
+    /**
+     * Records that {@code page} is now being shown. The nearby nodes are told about it once the
+     * page has not changed for the debounce period.
+     */
+    public void setPage(int page) {
+        mCurrentPage = page;
+        mPendingPage = page;
+        mHandler.removeCallbacks(mSendRunnable);
+        mHandler.postDelayed(mSendRunnable, mDebounceMs);
+    }
+
+    private void send(int page) {
+        // the state is published even when no one is around; the peers catch up when they connect
+        long version = mState.publish(page);
+        mLastSentPage = page;
+        Set<Node> nearbyNodes = NodeDirectory.getInstance().getNearbyNodes();
+        if (nearbyNodes.isEmpty()) {
+            return;
+        }
+        byte[] message = mEncoder.begin(ControlMessageCodec.TYPE_PAGE_STATE)
+                .putInt(page)
+                .putLong(version)
+                .toByteArray();
+        MessageBroadcast.send(nearbyNodes, mPath, message, SEND_DEADLINE_MS, mBroadcastCallback);
+    }
+
+    /**
+     * Forgets the last page sent when an activity resumes; the page that it then sets is sent,
+     * even if nothing changed, since its peers may have moved on while it was in the background.
+     */
+    private class ResumeCallbacks implements Application.ActivityLifecycleCallbacks {
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+            mLastSentPage = NO_PAGE;
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+}
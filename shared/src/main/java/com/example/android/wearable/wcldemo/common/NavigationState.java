@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.google.android.gms.wearable.DataEvent;
+import com.google.android.gms.wearable.DataEventBuffer;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The navigation state of this device and of its peers, replicated through the Data Layer. Each
+ * device publishes the page that it shows in a {@link DataItem} along with a version that only
+ * ever increases; the Data Layer takes care of syncing the items that changed, including to a peer
+ * that was disconnected when the change happened. Navigation messages carry the same version, so
+ * whichever of the message or the data item arrives first wins and the other one is ignored.
+ *
+ * <p>The last known state of each peer is kept in memory; a {@link Listener} that is added is told
+ * about it right away, so a page that opens late does not have to wait for the next navigation.
+ * It is seeded from the data items of the peers every time the {@link WearTransport} connects, so
+ * it is known before the peers change page.
+ */
+public class NavigationState {
+
+    private static final String TAG = "NavigationState";
+
+    public static final String STATE_PATH_WEAR = "/state/nav/wear";
+    public static final String STATE_PATH_MOBILE = "/state/nav/mobile";
+
+    private static final String KEY_VERSION = "version";
+    private static final String PREFS_NAME = "navigation_state";
+    private static final String PREF_LOCAL_VERSION = "local_version";
+
+    private final String mLocalStatePath;
+    private final String mRemoteStatePath;
+    private final SharedPreferences mPreferences;
+    private long mLocalVersion = -1;
+
+    // the last known state of each peer, keyed by node id
+    private final Map<String, PeerState> mPeerStates = new HashMap<>();
+    private final CopyOnWriteArrayList<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    // reads the data items of the peers off of the main thread
+    private final ExecutorService mSeedExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * @param localStatePath The path that this device publishes its state at
+     * @param remoteMessagePath The path of the navigation messages sent by the peers
+     * @param remoteStatePath The path that the peers publish their state at
+     */
+    public NavigationState(Context context, String localStatePath, String remoteMessagePath,
+            String remoteStatePath) {
+        mLocalStatePath = localStatePath;
+        mRemoteStatePath = remoteStatePath;
+        // the version is read when it is first needed, so the preferences can be loaded while
+        // the app starts; see preload()
+        mPreferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        MessageDispatcher.getInstance().register(remoteMessagePath, MessageDispatcher.RAW,
+                new MessageDispatcher.MessageHandler<byte[]>() {
+                    @Override
+                    public void onMessageReceived(MessageEvent messageEvent, byte[] data) {
+                        onNavigationMessage(messageEvent.getSourceNodeId(), data);
+                    }
+                }, MessageDispatcher.DIRECT);
+        WearTransport transport = WearTransport.getInstance();
+        transport.addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableApiConnected() {
+                scheduleSeed();
+            }
+
+            @Override
+            public void onWearableDataChanged(DataEventBuffer dataEvents) {
+                onDataChanged(dataEvents);
+            }
+        });
+        if (transport.isConnected()) {
+            scheduleSeed();
+        }
+    }
+
+    /**
+     * Publishes {@code page} as the page that this device shows and returns the version it was
+     * published with.
+     */
+    public synchronized long publish(int page) {
+        preload();
+        // the clock keeps the versions increasing even if the preferences are lost, say after a
+        // re-install, while the peers still remember a version that we published earlier
+        mLocalVersion = Math.max(mLocalVersion + 1, System.currentTimeMillis());
+        mPreferences.edit().putLong(PREF_LOCAL_VERSION, mLocalVersion).apply();
+        PutDataMapRequest request = PutDataMapRequest.create(mLocalStatePath);
+        DataMap dataMap = request.getDataMap();
+        dataMap.putInt(Constants.KEY_PAGE, page);
+        dataMap.putLong(KEY_VERSION, mLocalVersion);
+        WearTransport.getInstance().putDataItem(request.asPutDataRequest());
+        return mLocalVersion;
+    }
+
+    /**
+     * Reads the version that this device published last, from the disk. It is done the first time
+     * the version is needed; the app calls this from a background thread while it starts, so that
+     * it is not done on the main thread.
+     */
+    public synchronized void preload() {
+        if (mLocalVersion < 0) {
+            mLocalVersion = mPreferences.getLong(PREF_LOCAL_VERSION, 0);
+        }
+    }
+
+    /**
+     * Adds a listener for the changes of the state of the peers. The listener is called right away
+     * with the last known state of each peer.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+        Map<String, PeerState> current;
+        synchronized (this) {
+            current = new HashMap<>(mPeerStates);
+        }
+        for (Map.Entry<String, PeerState> entry : current.entrySet()) {
+            listener.onNavigationStateChanged(entry.getKey(), entry.getValue().page,
+                    entry.getValue().version);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void onNavigationMessage(String nodeId, byte[] data) {
+        if (ControlMessageCodec.getType(data) == ControlMessageCodec.TYPE_PAGE_STATE) {
+            int page;
+            long version;
+            try {
+                page = ControlMessageCodec.getInt(data, 0);
+                version = ControlMessageCodec.getLong(data, 1);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Dropping a malformed navigation message from " + nodeId, e);
+                return;
+            }
+            update(nodeId, page, version);
+        } else {
+            // a peer that has not been updated yet; it does not version its state
+            update(nodeId, ControlMessageCodec.decodePage(data, Constants.TARGET_INTRO), -1);
+        }
+    }
+
+    private void onDataChanged(DataEventBuffer dataEvents) {
+        for (DataEvent event : dataEvents) {
+            if (event.getType() != DataEvent.TYPE_CHANGED) {
+                continue;
+            }
+            DataItem item = event.getDataItem();
+            if (!mRemoteStatePath.equals(item.getUri().getPath())) {
+                continue;
+            }
+            update(item.getUri().getHost(), DataMapItem.fromDataItem(item).getDataMap());
+        }
+    }
+
+    private void scheduleSeed() {
+        mSeedExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, DataMap> dataMaps =
+                        WearTransport.getInstance().getDataItems(mRemoteStatePath);
+                for (Map.Entry<String, DataMap> entry : dataMaps.entrySet()) {
+                    update(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+    }
+
+    private void update(String nodeId, DataMap dataMap) {
+        update(nodeId, dataMap.getInt(Constants.KEY_PAGE, Constants.TARGET_INTRO),
+                dataMap.getLong(KEY_VERSION));
+    }
+
+    /**
+     * Records the state of a peer, unless we already know of a newer one. A negative
+     * {@code version} means the peer does not version its state; such updates always apply.
+     */
+    private void update(String nodeId, int page, long version) {
+        synchronized (this) {
+            PeerState current = mPeerStates.get(nodeId);
+            if (current != null && version >= 0 && version <= current.version) {
+                return;
+            }
+            long newVersion = version >= 0 ? version : (current != null ? current.version : 0);
+            mPeerStates.put(nodeId, new PeerState(page, newVersion));
+        }
+        Log.d(TAG, "Node " + nodeId + " is on page " + page + ", version " + version);
+        for (Listener listener : mListeners) {
+            listener.onNavigationStateChanged(nodeId, page, version);
+        }
+    }
+
+    /**
+     * Is told about the changes to the state of the peers. It may be called on any thread.
+     */
+    public interface Listener {
+
+        void onNavigationStateChanged(String nodeId, int page, long version);
+    }
+
+    private static class PeerState {
+
+        final int page;
+        final long version;
+
+        PeerState(int page, long version) {
+            this.page = page;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Node;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A directory of the nodes that this device can talk to. It keeps an immutable snapshot of the
+ * connected nodes and of the nodes that provide each of the capabilities that the app cares about.
+ * The snapshot is rebuilt only when the {@link WearTransport} reports a peer or capability change,
+ * so the hot paths (sending navigation messages, picking a node for a transfer, etc) can read it
+ * without locking and without asking the {@link WearTransport} for the nodes every time.
+ *
+ * <p>The directory needs to be initialized once, in the {@code onCreate()} of the application
+ * instance and right after the {@link WearTransport} has been initialized. The
+ * {@link WearTransport} only reports the changes of the capabilities that it was initialized with,
+ * so those are the capabilities that the directory keeps up to date as they change; the other ones
+ * are looked up in the background when they are first asked for, and again when they are asked for
+ * after {@link #LOOKUP_TTL_MS}.
+ */
+public class NodeDirectory {
+
+    private static final String TAG = "NodeDirectory";
+    private static final long LOOKUP_TTL_MS = 30000;
+    private static NodeDirectory sInstance;
+
+    private final WearTransport mTransport;
+    private final Object mWriteLock = new Object();
+
+    // the capabilities that the WearTransport reports the changes of
+    private final Set<String> mWatchedCapabilities;
+
+    // when each of the other capabilities was last looked up
+    private final Map<String, Long> mLookupTimes = new ConcurrentHashMap<>();
+
+    // bumped, under the write lock, every time a capability is updated on its own, so that a
+    // refresh that started before does not overwrite it with what it read earlier
+    private final Map<String, Long> mCapabilityVersions = new HashMap<>();
+
+    // a single thread to rebuild the snapshot off of the caller's thread when peers change
+    private final ExecutorService mRefreshExecutor = Executors.newSingleThreadExecutor();
+    private volatile Snapshot mSnapshot;
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    private NodeDirectory(String... capabilities) {
+        mTransport = WearTransport.getInstance();
+        mWatchedCapabilities = Collections.unmodifiableSet(
+                new HashSet<>(Arrays.asList(capabilities)));
+        Map<String, Set<Node>> capabilityIndex = new HashMap<>();
+        for (String capability : capabilities) {
+            capabilityIndex.put(capability, Collections.<Node>emptySet());
+        }
+        mSnapshot = new Snapshot(Collections.<Node>emptySet(), capabilityIndex);
+        mTransport.addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableApiConnected() {
+                scheduleRefresh();
+            }
+
+            @Override
+            public void onWearablePeerConnected(Node peer) {
+                scheduleRefresh();
+            }
+
+            @Override
+            public void onWearablePeerDisconnected(Node peer) {
+                scheduleRefresh();
+            }
+
+            @Override
+            public void onWearableCapabilityChanged(String capability, Set<Node> nodes) {
+                updateCapability(capability, nodes);
+            }
+        });
+        scheduleRefresh();
+    }
+
+    /**
+     * Initializes the directory; {@code capabilities} is the list of capabilities that should be
+     * indexed from the start, and has to be the list that the {@link WearTransport} was
+     * initialized with, for their changes to be reported. Other capabilities are indexed the first
+     * time they are asked for.
+     */
+    public static synchronized NodeDirectory initialize(String... capabilities) {
+        if (sInstance == null) {
+            sInstance = new NodeDirectory(capabilities);
+        }
+        return sInstance;
+    }
+
+    public static NodeDirectory getInstance() {
+        if (sInstance == null) {
+            throw new IllegalStateException(
+                    "NodeDirectory has not been initialized; call initialize() first");
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a listener that is called every time the nodes of the directory have been updated.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns an unmodifiable set of the currently connected nodes.
+     */
+    public Set<Node> getConnectedNodes() {
+        return mSnapshot.connectedNodes;
+    }
+
+    /**
+     * Returns an unmodifiable set of the connected nodes that are nearby.
+     */
+    public Set<Node> getNearbyNodes() {
+        return mSnapshot.nearbyNodes;
+    }
+
+    /**
+     * Returns an unmodifiable set of the nodes that provide the given {@code capability}. If this
+     * capability is not one that the directory was initialized with, the {@link WearTransport} is
+     * queried for it the first time, and again once the result is older than
+     * {@link #LOOKUP_TTL_MS}. The query is made in the background when this is called on the main
+     * thread; the nodes that are known so far, if any, are returned in the meantime.
+     */
+    public Set<Node> getNodesForCapability(String capability) {
+        Set<Node> nodes = mSnapshot.capabilityIndex.get(capability);
+        if (mWatchedCapabilities.contains(capability)) {
+            return nodes;
+        }
+        Long lookupTime = mLookupTimes.get(capability);
+        long now = SystemClock.elapsedRealtime();
+        if (lookupTime == null || now - lookupTime > LOOKUP_TTL_MS) {
+            mLookupTimes.put(capability, now);
+            if (nodes == null && Looper.myLooper() != Looper.getMainLooper()) {
+                return lookUpCapability(capability);
+            }
+            scheduleLookup(capability);
+        }
+        return nodes == null ? Collections.<Node>emptySet() : nodes;
+    }
+
+    /**
+     * Returns a nearby node that provides the given {@code capability}, or {@code null} if there
+     * is no such node.
+     */
+    @Nullable
+    public Node getNearbyNodeForCapability(String capability) {
+        for (Node node : getNodesForCapability(capability)) {
+            if (node.isNearby()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rebuilds the whole snapshot from the {@link WearTransport}. This is called when peers
+     * connect or disconnect; clients do not normally need to call this directly.
+     */
+    public void refresh() {
+        Map<String, Long> versions;
+        synchronized (mWriteLock) {
+            versions = new HashMap<>(mCapabilityVersions);
+        }
+        // the lookups block, so they are made without holding the lock
+        Set<Node> connected = copyOf(mTransport.getConnectedNodes());
+        Map<String, Set<Node>> lookedUp = new HashMap<>();
+        for (String capability : mSnapshot.capabilityIndex.keySet()) {
+            lookedUp.put(capability, copyOf(mTransport.getNodesForCapability(capability)));
+        }
+        synchronized (mWriteLock) {
+            Map<String, Set<Node>> capabilityIndex = new HashMap<>(mSnapshot.capabilityIndex);
+            for (Map.Entry<String, Set<Node>> entry : lookedUp.entrySet()) {
+                String capability = entry.getKey();
+                // a capability that was updated since the lookups started is newer than them
+                if (equal(versions.get(capability), mCapabilityVersions.get(capability))) {
+                    capabilityIndex.put(capability, entry.getValue());
+                }
+            }
+            mSnapshot = new Snapshot(connected, capabilityIndex);
+        }
+        Log.d(TAG, "Refreshed, connected nodes: " + connected);
+        notifyListeners();
+    }
+
+    private void scheduleRefresh() {
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    private void scheduleLookup(final String capability) {
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                lookUpCapability(capability);
+            }
+        });
+    }
+
+    private Set<Node> lookUpCapability(String capability) {
+        return updateCapability(capability, mTransport.getNodesForCapability(capability));
+    }
+
+    private Set<Node> updateCapability(String capability, Set<Node> nodes) {
+        Set<Node> copy = copyOf(nodes);
+        synchronized (mWriteLock) {
+            Long version = mCapabilityVersions.get(capability);
+            mCapabilityVersions.put(capability, version == null ? 1 : version + 1);
+            Snapshot current = mSnapshot;
+            Map<String, Set<Node>> capabilityIndex = new HashMap<>(current.capabilityIndex);
+            capabilityIndex.put(capability, copy);
+            mSnapshot = new Snapshot(current.connectedNodes, capabilityIndex);
+        }
+        notifyListeners();
+        return copy;
+    }
+
+    private void notifyListeners() {
+        for (Listener listener : mListeners) {
+            listener.onNodesChanged();
+        }
+    }
+
+    private static boolean equal(Long a, Long b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Set<Node> copyOf(Set<Node> nodes) {
+        if (nodes == null || nodes.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(nodes));
+    }
+
+    /**
+     * Is told when the nodes of the directory have been updated, so that it can act on them
+     * without racing the refresh.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the thread that updated the directory, after the new nodes are visible to
+         * the readers.
+         */
+        void onNodesChanged();
+    }
+
+    /**
+     * An immutable view of the nodes at some point in time.
+     */
+    private static class Snapshot {
+
+        final Set<Node> connectedNodes;
+        final Set<Node> nearbyNodes;
+        final Map<String, Set<Node>> capabilityIndex;
+
+        Snapshot(Set<Node> connectedNodes, Map<String, Set<Node>> capabilityIndex) {
+            this.connectedNodes = connectedNodes;
+            Set<Node> nearby = new HashSet<>();
+            for (Node node : connectedNodes) {
+                if (node.isNearby()) {
+                    nearby.add(node);
+                }
+            }
+            this.nearbyNodes = Collections.unmodifiableSet(nearby);
+            this.capabilityIndex = Collections.unmodifiableMap(capabilityIndex);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+/**
+ * A lookup table from the {@code Constants.TARGET_*} pages to the text that the "Data Exchange"
+ * pages show for them. The strings are resolved and formatted once, so showing the page that a
+ * navigation message reports is a simple array access.
+ */
+public class PageNames {
+
+    private static final int[] PAGE_NAME_RESOURCES = new int[Constants.TARGET_METRICS + 1];
+
+    static {
+        PAGE_NAME_RESOURCES[Constants.TARGET_INTRO] = R.string.page_intro;
+        PAGE_NAME_RESOURCES[Constants.TARGET_FILE_TRANSFER] = R.string.page_file_transfer;
+        PAGE_NAME_RESOURCES[Constants.TARGET_STOCK] = R.string.page_stock;
+        PAGE_NAME_RESOURCES[Constants.TARGET_DATA] = R.string.page_data_exchange;
+        PAGE_NAME_RESOURCES[Constants.TARGET_LIST_DIALOG] = R.string.page_list_dialog;
+        PAGE_NAME_RESOURCES[Constants.TARGET_LIST] = R.string.page_list;
+        PAGE_NAME_RESOURCES[Constants.TARGET_VOICE_STREAM] = R.string.page_stream_voice;
+        PAGE_NAME_RESOURCES[Constants.TARGET_METRICS] = R.string.page_metrics;
+    }
+
+    private static PageNames sInstance;
+
+    private final String[] mNavigationInfo = new String[PAGE_NAME_RESOURCES.length];
+    private final String mUnknownNavigationInfo;
+
+    private PageNames(Resources resources) {
+        for (int page = 0; page < PAGE_NAME_RESOURCES.length; page++) {
+            mNavigationInfo[page] = resources.getString(R.string.page_navigation_info,
+                    resources.getString(PAGE_NAME_RESOURCES[page]));
+        }
+        mUnknownNavigationInfo = resources.getString(R.string.page_navigation_info,
+                resources.getString(R.string.unknown));
+    }
+
+    public static synchronized PageNames getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PageNames(context.getApplicationContext().getResources());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the text that tells the user the other device is showing {@code page}.
+     */
+    public String getNavigationInfo(int page) {
+        if (page < 0 || page >= mNavigationInfo.length) {
+            return mUnknownNavigationInfo;
+        }
+        return mNavigationInfo[page];
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Takes the work that the app does not need before its first frame off of the main thread while
+ * it starts. The application runs what every component relies on right away, in its
+ * {@code onCreate()}, and hands the rest, such as reading files, to
+ * {@link #runInBackground(String, Runnable)}; the tasks run one after the other on a background
+ * thread. Once the application calls {@link #finish()} and the tasks are done, the pipeline is
+ * ready: the features that depend on the background work wait for it with
+ * {@link #whenReady(Runnable)} rather than block.
+ *
+ * <p>{@link #finish()} and {@link #whenReady(Runnable)} should be called on the main thread.
+ */
+public class StartupPipeline {
+
+    private static final String TAG = "StartupPipeline";
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Runnable> mReadyCallbacks = new ArrayList<>();
+    private boolean mReady;
+
+    /**
+     * Queues {@code task} to run on the background thread; {@code name} shows in the log.
+     */
+    public void runInBackground(final String name, final Runnable task) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startMs = SystemClock.elapsedRealtime();
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Startup task " + name + " failed", e);
+                }
+                Log.d(TAG, name + " took " + (SystemClock.elapsedRealtime() - startMs) + "ms");
+            }
+        });
+    }
+
+    /**
+     * Tells the pipeline that all the background tasks have been queued; it becomes ready once
+     * they are done.
+     */
+    public void finish() {
+        StartupTrace.mark(StartupTrace.PHASE_CRITICAL_INIT);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                StartupTrace.mark(StartupTrace.PHASE_BACKGROUND_INIT);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReady();
+                    }
+                });
+            }
+        });
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Runs {@code callback} on the main thread once the pipeline is ready; right away if it
+     * already is.
+     */
+    public void whenReady(Runnable callback) {
+        if (mReady) {
+            callback.run();
+        } else {
+            mReadyCallbacks.add(callback);
+        }
+    }
+
+    public boolean isReady() {
+        return mReady;
+    }
+
+    private void onReady() {
+        mReady = true;
+        for (Runnable callback : mReadyCallbacks) {
+            callback.run();
+        }
+        mReadyCallbacks.clear();
+    }
+}
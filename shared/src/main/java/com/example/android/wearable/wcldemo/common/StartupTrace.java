@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records how long the phases of the start of the app take, from the creation of the application
+ * instance. Each phase is recorded once, the first time it is reached; once the first frame has
+ * been drawn and the {@link WearTransport} is connected, the whole trace is logged under the
+ * {@code StartupTrace} tag.
+ */
+public class StartupTrace {
+
+    private static final String TAG = "StartupTrace";
+
+    public static final String PHASE_APPLICATION_CREATE = "application_create";
+    public static final String PHASE_CRITICAL_INIT = "critical_init";
+    public static final String PHASE_BACKGROUND_INIT = "background_init";
+    public static final String PHASE_WEAR_MANAGER_READY = "wear_manager_ready";
+    public static final String PHASE_FIRST_FRAME = "first_frame";
+
+    private static long sStartMs = -1;
+
+    // the time of each phase, since the start, in the order the phases were reached
+    private static final Map<String, Long> sPhases = new LinkedHashMap<>();
+    private static boolean sLogged;
+
+    private StartupTrace() {
+    }
+
+    /**
+     * Starts the trace; called first thing in the {@code onCreate()} of the application.
+     */
+    public static synchronized void begin() {
+        if (sStartMs >= 0) {
+            return;
+        }
+        sStartMs = SystemClock.elapsedRealtime();
+        mark(PHASE_APPLICATION_CREATE);
+    }
+
+    /**
+     * Records that {@code phase} has been reached, unless it already was. Can be called from any
+     * thread.
+     */
+    public static synchronized void mark(String phase) {
+        if (sStartMs < 0 || sPhases.containsKey(phase)) {
+            return;
+        }
+        sPhases.put(phase, SystemClock.elapsedRealtime() - sStartMs);
+        if (!sLogged && sPhases.containsKey(PHASE_FIRST_FRAME)
+                && sPhases.containsKey(PHASE_WEAR_MANAGER_READY)) {
+            sLogged = true;
+            Log.i(TAG, "Startup: " + sPhases);
+        }
+    }
+
+    /**
+     * Records {@link #PHASE_WEAR_MANAGER_READY} when the {@link WearTransport} connects to the
+     * Wearable API.
+     */
+    public static void traceWearManager() {
+        WearTransport.getInstance().addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableApiConnected() {
+                mark(PHASE_WEAR_MANAGER_READY);
+            }
+        });
+    }
+
+    /**
+     * Records {@link #PHASE_FIRST_FRAME} when {@code view}, say the decor view of the first
+     * activity, is about to be drawn for the first time.
+     */
+    public static void traceFirstFrame(final View view) {
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                mark(PHASE_FIRST_FRAME);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Returns the phases that have been reached so far, with their time since the start.
+     */
+    public static synchronized List<Map.Entry<String, Long>> getPhases() {
+        List<Map.Entry<String, Long>> phases = new ArrayList<>();
+        for (Map.Entry<String, Long> phase : sPhases.entrySet()) {
+            phases.add(new AbstractMap.SimpleImmutableEntry<>(phase));
+        }
+        return Collections.unmodifiableList(phases);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Channel;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+import com.google.devrel.wcl.WearManager;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+import com.google.devrel.wcl.connectivity.WearFileTransfer;
+import com.google.devrel.wcl.connectivity.WearHttpHelper;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The transport of the app on a device: everything goes through the {@link WearManager}, except
+ * for reading data items, which the {@link WearManager} does not do; those are read with a client
+ * of the Wearable API of our own.
+ */
+class WearManagerTransport extends WearTransport {
+
+    private static final String TAG = "WearManagerTransport";
+    private static final long CONNECT_TIMEOUT_MS = 10000;
+
+    private final Context mContext;
+    private final WearManager mWearManager;
+    private GoogleApiClient mDataClient;
+
+    WearManagerTransport(Context context) {
+        mContext = context.getApplicationContext();
+        mWearManager = WearManager.getInstance();
+    }
+
+    @Override
+    public void addWearConsumer(AbstractWearConsumer consumer) {
+        mWearManager.addWearConsumer(consumer);
+    }
+
+    @Override
+    public void removeWearConsumer(AbstractWearConsumer consumer) {
+        mWearManager.removeWearConsumer(consumer);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mWearManager.isConnected();
+    }
+
+    @Override
+    public Set<Node> getConnectedNodes() {
+        return mWearManager.getConnectedNodes();
+    }
+
+    @Override
+    public Set<Node> getNodesForCapability(String capability) {
+        return mWearManager.getNodesForCapability(capability);
+    }
+
+    @Override
+    public void addCapabilities(String... capabilities) {
+        mWearManager.addCapabilities(capabilities);
+    }
+
+    @Override
+    public void removeCapabilities(String... capabilities) {
+        mWearManager.removeCapabilities(capabilities);
+    }
+
+    @Override
+    public void sendMessage(String nodeId, String path, byte[] data,
+            ResultCallback<MessageApi.SendMessageResult> callback) {
+        mWearManager.sendMessage(nodeId, path, data, callback);
+    }
+
+    @Override
+    public void sendHttpResponse(String body, int statusCode, String nodeId, String requestId,
+            ResultCallback<MessageApi.SendMessageResult> callback) {
+        mWearManager.sendHttpResponse(body, statusCode, nodeId, requestId, callback);
+    }
+
+    @Override
+    public void putDataItem(PutDataRequest request) {
+        mWearManager.putDataItem(request, null);
+    }
+
+    @Override
+    public Map<String, DataMap> getDataItems(String path) {
+        Map<String, DataMap> dataMaps = new HashMap<>();
+        GoogleApiClient client = connectDataClient();
+        if (client == null) {
+            return dataMaps;
+        }
+        // without a host, the uri matches the items of all the nodes
+        Uri uri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME).path(path).build();
+        DataItemBuffer dataItems = Wearable.DataApi.getDataItems(client, uri).await();
+        try {
+            if (!dataItems.getStatus().isSuccess()) {
+                Log.e(TAG, "Failed to read the data items at " + path + ": "
+                        + dataItems.getStatus());
+                return dataMaps;
+            }
+            for (DataItem item : dataItems) {
+                dataMaps.put(item.getUri().getHost(),
+                        DataMapItem.fromDataItem(item).getDataMap());
+            }
+        } finally {
+            dataItems.release();
+        }
+        return dataMaps;
+    }
+
+    private synchronized GoogleApiClient connectDataClient() {
+        if (mDataClient == null) {
+            mDataClient = new GoogleApiClient.Builder(mContext)
+                    .addApi(Wearable.API)
+                    .build();
+        }
+        if (!mDataClient.isConnected()) {
+            ConnectionResult result = mDataClient.blockingConnect(CONNECT_TIMEOUT_MS,
+                    TimeUnit.MILLISECONDS);
+            if (!result.isSuccess()) {
+                Log.e(TAG, "Failed to connect to the Wearable API: " + result);
+                return null;
+            }
+        }
+        return mDataClient;
+    }
+
+    @Override
+    public void sendFile(Node node, File file, String targetName) {
+        new WearFileTransfer.Builder(node)
+                .setTargetName(targetName)
+                .setFile(file)
+                .build()
+                .startTransfer();
+    }
+
+    @Override
+    public void openOutputStream(Node node, String requestId,
+            final OutputStreamListener listener) {
+        new WearFileTransfer.Builder(node)
+                .setRequestId(requestId)
+                .setOnChannelOutputStreamListener(
+                        new WearFileTransfer.OnWearableChannelOutputStreamListener() {
+                            @Override
+                            public void onOutputStreamForChannelReady(int statusCode,
+                                    Channel channel, OutputStream outputStream) {
+                                listener.onOutputStreamReady(statusCode,
+                                        channel == null ? null : channel.getPath(),
+                                        outputStream);
+                            }
+                        })
+                .build()
+                .requestOutputStream();
+    }
+
+    @Override
+    public void makeHttpRequest(String url, String nodeId, long timeoutMs,
+            WearHttpHelper.OnHttpResponseListener listener) {
+        new WearHttpHelper.Builder(url, mContext)
+                .setHttpMethod(WearHttpHelper.METHOD_GET)
+                .setTargetNodeId(nodeId)
+                .setHttpResponseListener(listener)
+                .setTimeout(timeoutMs)
+                .build()
+                .makeHttpRequest();
+    }
+}
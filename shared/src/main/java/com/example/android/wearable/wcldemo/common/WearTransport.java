@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.devrel.wcl.WearManager;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+import com.google.devrel.wcl.connectivity.WearHttpHelper;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the app uses of the connection to the other devices: the nodes it can reach, what it sends
+ * them (messages, data items, files, streams and http requests) and the consumers that are told
+ * what comes in. The app goes through this rather than the {@link WearManager}, so that something
+ * else can stand in for the devices, say a
+ * {@link com.example.android.wearable.wcldemo.common.sim.SimulatedTransport} in a test that runs
+ * on the plain JVM.
+ *
+ * <p>The application calls {@link #initialize(Context, String...)} in its {@code onCreate()},
+ * which initializes the {@link WearManager}, unless another transport was installed before with
+ * {@link #setInstance(WearTransport)}.
+ */
+public abstract class WearTransport {
+
+    // what the WearHttpHelper waits for a response by default
+    public static final long DEFAULT_HTTP_TIMEOUT_MS = 15000;
+
+    private static volatile WearTransport sInstance;
+
+    /**
+     * Initializes the {@link WearManager} and makes it the transport, unless a transport has
+     * already been set; {@code capabilities} are the ones whose changes the consumers are told.
+     */
+    public static synchronized WearTransport initialize(Context context,
+            String... capabilities) {
+        if (sInstance == null) {
+            WearManager.initialize(context, capabilities);
+            sInstance = new WearManagerTransport(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Makes {@code transport} the one that the app uses; it has to be called before the
+     * application is created, and the {@link WearManager} is then never initialized.
+     */
+    public static synchronized void setInstance(WearTransport transport) {
+        sInstance = transport;
+    }
+
+    public static WearTransport getInstance() {
+        WearTransport transport = sInstance;
+        if (transport == null) {
+            throw new IllegalStateException(
+                    "WearTransport has not been initialized; call initialize() first");
+        }
+        return transport;
+    }
+
+    public abstract void addWearConsumer(AbstractWearConsumer consumer);
+
+    public abstract void removeWearConsumer(AbstractWearConsumer consumer);
+
+    /**
+     * Returns {@code true} if the connection to the Wearable API is up, whether or not a node is
+     * connected.
+     */
+    public abstract boolean isConnected();
+
+    /**
+     * Returns the connected nodes. It blocks, so it cannot be called on the main thread.
+     */
+    public abstract Set<Node> getConnectedNodes();
+
+    /**
+     * Returns the nodes that provide {@code capability}. It blocks, so it cannot be called on the
+     * main thread.
+     */
+    public abstract Set<Node> getNodesForCapability(String capability);
+
+    public abstract void addCapabilities(String... capabilities);
+
+    public abstract void removeCapabilities(String... capabilities);
+
+    public abstract void sendMessage(String nodeId, String path, byte[] data,
+            @Nullable ResultCallback<MessageApi.SendMessageResult> callback);
+
+    /**
+     * Sends the response to an http request that a consumer was told of.
+     */
+    public abstract void sendHttpResponse(String body, int statusCode, String nodeId,
+            String requestId, @Nullable ResultCallback<MessageApi.SendMessageResult> callback);
+
+    public abstract void putDataItem(PutDataRequest request);
+
+    /**
+     * Returns the data items at {@code path}, keyed by the id of the node that put each of them;
+     * the map is empty if they cannot be read. It blocks, so it cannot be called on the main
+     * thread.
+     */
+    public abstract Map<String, DataMap> getDataItems(String path);
+
+    /**
+     * Sends {@code file} to {@code node}, which saves it as {@code targetName}. The consumers are
+     * told the outcome.
+     */
+    public abstract void sendFile(Node node, File file, String targetName);
+
+    /**
+     * Opens a stream to {@code node}; the other end learns it by {@code requestId}.
+     */
+    public abstract void openOutputStream(Node node, String requestId,
+            OutputStreamListener listener);
+
+    /**
+     * Asks {@code nodeId} to make an http GET request of {@code url} and to send back the
+     * response. It has to be called on a thread with a looper.
+     *
+     * @throws IllegalStateException If the connection to the Wearable API is not up
+     */
+    public abstract void makeHttpRequest(String url, String nodeId, long timeoutMs,
+            WearHttpHelper.OnHttpResponseListener listener);
+
+    /**
+     * Is handed the stream that {@link #openOutputStream(Node, String, OutputStreamListener)}
+     * opens.
+     */
+    public interface OutputStreamListener {
+
+        /**
+         * @param path The path of the channel, which both ends see, or {@code null} if it could
+         * not be opened
+         * @param outputStream The stream, or {@code null} if it could not be opened
+         */
+        void onOutputStreamReady(int statusCode, @Nullable String path,
+                @Nullable OutputStream outputStream);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, such as the number of messages received. Counting is a single atomic
+ * increment, so it can be done from any thread, the audio threads included.
+ */
+public class Counter {
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    public void increment() {
+        mCount.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        mCount.addAndGet(delta);
+    }
+
+    public long get() {
+        return mCount.get();
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.metrics;
+
+import android.os.Debug;
+
+import java.util.Locale;
+
+/**
+ * Times a flow of the UI, such as switching to a page, each time it runs, along with the number
+ * of objects the thread allocates while it does. The flow is run many times, each run between a
+ * {@link #start()} and a {@link #stop()} on the same thread, and {@link #getSummary()} gives the
+ * percentiles.
+ *
+ * <p>The allocations are only counted between {@link #startAllocCounting()} and
+ * {@link #stopAllocCounting()}, which are meant for debug builds.
+ */
+@SuppressWarnings("deprecation")
+public class FlowTimer {
+
+    // the durations are counted in microseconds, at a tenth of a millisecond
+    private static final long MAX_DURATION_US = 1000000;
+    private static final long DURATION_BUCKET_US = 100;
+    private static final long MAX_ALLOCATIONS = 100000;
+    private static final long ALLOCATION_BUCKET = 10;
+
+    private final String mName;
+    private final Histogram mDurations = new Histogram(MAX_DURATION_US, DURATION_BUCKET_US);
+    private final Histogram mAllocations = new Histogram(MAX_ALLOCATIONS, ALLOCATION_BUCKET);
+    private long mStartNs = -1;
+    private int mStartAllocations;
+
+    public FlowTimer(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public void start() {
+        mStartAllocations = Debug.getThreadAllocCount();
+        mStartNs = System.nanoTime();
+    }
+
+    /**
+     * Records the run that was {@link #start()}ed; does nothing if none was.
+     */
+    public void stop() {
+        if (mStartNs < 0) {
+            return;
+        }
+        mDurations.record((System.nanoTime() - mStartNs) / 1000);
+        mAllocations.record(Debug.getThreadAllocCount() - mStartAllocations);
+        mStartNs = -1;
+    }
+
+    public Histogram getDurations() {
+        return mDurations;
+    }
+
+    public Histogram getAllocations() {
+        return mAllocations;
+    }
+
+    /**
+     * Returns a line that gives the percentiles of the durations, in milliseconds, and of the
+     * allocations of the runs so far.
+     */
+    public String getSummary() {
+        return String.format(Locale.US,
+                "%s: runs=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms allocs p50=%d p99=%d",
+                mName, mDurations.getCount(), toMs(mDurations.getPercentile(50)),
+                toMs(mDurations.getPercentile(90)), toMs(mDurations.getPercentile(99)),
+                toMs(mDurations.getMax()), mAllocations.getPercentile(50),
+                mAllocations.getPercentile(99));
+    }
+
+    /**
+     * Starts counting the allocations of the threads, for every timer.
+     */
+    public static void startAllocCounting() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+    }
+
+    public static void stopAllocCounting() {
+        Debug.stopAllocCounting();
+    }
+
+    private static double toMs(long us) {
+        return us / 1000.0;
+    }
+}
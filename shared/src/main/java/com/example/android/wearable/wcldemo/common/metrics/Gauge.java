@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that goes up and down, such as the number of voice streams being played; it holds the
+ * last value that was set.
+ */
+public class Gauge {
+
+    private final AtomicLong mValue = new AtomicLong();
+
+    public void set(long value) {
+        mValue.set(value);
+    }
+
+    public long get() {
+        return mValue.get();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values, such as latencies in milliseconds, in buckets of a fixed width so that the
+ * percentiles can be read at any time. Recording a value is a couple of atomic increments; it
+ * neither locks nor allocates, so it can be done from the audio threads. Values beyond the last
+ * bucket are counted in it.
+ */
+public class Histogram {
+
+    private final long mBucketWidth;
+    private final AtomicLongArray mBuckets;
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param maxValue The largest value that is told apart from larger ones
+     * @param bucketWidth The resolution of the histogram
+     */
+    public Histogram(long maxValue, long bucketWidth) {
+        mBucketWidth = bucketWidth;
+        mBuckets = new AtomicLongArray((int) (maxValue / bucketWidth) + 1);
+    }
+
+    public void record(long value) {
+        int bucket = (int) Math.min(Math.max(value, 0) / mBucketWidth, mBuckets.length() - 1);
+        mBuckets.incrementAndGet(bucket);
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Returns the value below which {@code percentile} percent of the values fall, at the
+     * resolution of the buckets, or 0 if nothing has been recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mBuckets.length(); i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return (i + 1) * mBucketWidth - 1;
+            }
+        }
+        return mBuckets.length() * mBucketWidth - 1;
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public double getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * Returns the largest value recorded, or 0 if nothing has been recorded.
+     */
+    public long getMax() {
+        long max = mMax.get();
+        return max == Long.MIN_VALUE ? 0 : max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(Long.MIN_VALUE);
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The metrics of the app, by name: {@link Counter}s, {@link Gauge}s and {@link Histogram}s. A
+ * metric is created the first time it is asked for and lives as long as the app; the components
+ * look their metrics up once and keep them, so that updating one is only an atomic operation.
+ * The metrics that are kept per path, such as the messages received on each path, are looked up
+ * with {@link #counter(String, String)}, which does not allocate once the metric exists.
+ *
+ * <p>{@link #getReport()} gives the current values of all the metrics, for the debug pages.
+ */
+public class Metrics {
+
+    public static final String MESSAGES_SENT = "messages.sent";
+    public static final String MESSAGES_SEND_FAILED = "messages.send_failed";
+    public static final String MESSAGES_RECEIVED = "messages.received";
+    public static final String MESSAGE_BYTES_SENT = "messages.bytes_sent";
+    public static final String MESSAGE_BYTES_RECEIVED = "messages.bytes_received";
+
+    public static final String TRANSFERS_SENT = "transfers.sent";
+    public static final String TRANSFERS_RECEIVED = "transfers.received";
+    public static final String TRANSFER_BYTES_SENT = "transfers.bytes_sent";
+    public static final String TRANSFER_BYTES_RECEIVED = "transfers.bytes_received";
+
+    /**
+     * The throughput of the streams that are received, in kilobytes per second.
+     */
+    public static final String TRANSFER_THROUGHPUT_KBPS = "transfers.throughput_kbps";
+
+    public static final String HTTP_PROXY_LATENCY_MS = "http.proxy_latency_ms";
+    public static final String HTTP_PROXY_FAILURES = "http.proxy_failures";
+    public static final String HTTP_PROXY_REJECTED = "http.proxy_rejected";
+
+    public static final String VOICE_SESSIONS = "voice.sessions";
+    public static final String VOICE_UNDERRUNS = "voice.underruns";
+    public static final String VOICE_CONCEALED_FRAMES = "voice.concealed_frames";
+    public static final String VOICE_DROPPED_FRAMES = "voice.dropped_frames";
+
+    private static final Metrics sInstance = new Metrics();
+
+    private final ConcurrentMap<String, Counter> mCounters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> mGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+
+    // the counters that are kept per key, by name and then by key
+    private final ConcurrentMap<String, ConcurrentMap<String, Counter>> mKeyedCounters =
+            new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Metrics getInstance() {
+        return sInstance;
+    }
+
+    public Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = mCounters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the counter {@code name} for {@code key}, say the messages received on a path; it
+     * is reported as {@code name[key]}.
+     */
+    public Counter counter(String name, String key) {
+        ConcurrentMap<String, Counter> counters = mKeyedCounters.get(name);
+        if (counters == null) {
+            ConcurrentMap<String, Counter> created = new ConcurrentHashMap<>();
+            counters = mKeyedCounters.putIfAbsent(name, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counter = counter(name + "[" + key + "]");
+            counters.putIfAbsent(key, counter);
+        }
+        return counter;
+    }
+
+    public Gauge gauge(String name) {
+        Gauge gauge = mGauges.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = mGauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+
+    /**
+     * Returns the histogram {@code name}; the first call creates it with {@code maxValue} and
+     * {@code bucketWidth}, which the later calls should agree with.
+     */
+    public Histogram histogram(String name, long maxValue, long bucketWidth) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram(maxValue, bucketWidth);
+            histogram = mHistograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns one line per metric, sorted by name, with its current value; the percentiles of
+     * the histograms are given at the resolution of their buckets.
+     */
+    public String getReport() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Counter> counter : mCounters.entrySet()) {
+            lines.add(counter.getKey() + " = " + counter.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> gauge : mGauges.entrySet()) {
+            lines.add(gauge.getKey() + " = " + gauge.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            lines.add(String.format(Locale.US, "%s: n=%d p50=%d p95=%d p99=%d max=%d",
+                    entry.getKey(), histogram.getCount(), histogram.getPercentile(50),
+                    histogram.getPercentile(95), histogram.getPercentile(99),
+                    histogram.getMax()));
+        }
+        Collections.sort(lines);
+        StringBuilder report = new StringBuilder();
+        for (String line : lines) {
+            report.append(line).append('\n');
+        }
+        return report.toString();
+    }
+}
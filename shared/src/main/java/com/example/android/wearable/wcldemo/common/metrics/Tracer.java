@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.metrics;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.JsonWriter;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.wearable.wcldemo.common.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records spans around the steps of the operations that cross the two devices, such as a
+ * transfer or a proxied HTTP request, and exports them in the Chrome trace-event format, which
+ * chrome://tracing and the Perfetto UI open.
+ *
+ * <p>A span that is given a request id carries it in its arguments. A span can also be the start
+ * ({@link #FLOW_OUT}) or the end ({@link #FLOW_IN}) of the flow of a request from one device to
+ * the other: the viewer draws an arrow between the spans of the two devices that have the same
+ * request id. The timestamps are taken from the wall clock, which the paired devices keep in sync
+ * to within a few milliseconds, so the traces of both devices can be merged into one timeline.
+ * The traces are written to {@code files/traces} of each app, where {@code adb shell run-as}
+ * can read them, and are merged with:
+ *
+ * <pre>
+ * jq -s '{traceEvents: map(.traceEvents) | add}' phone.json watch.json &gt; merged.json
+ * </pre>
+ *
+ * <p>The tracer does nothing until it is enabled, which only the debug builds do; it then keeps
+ * the last {@link #MAX_SPANS} spans in memory until they are exported.
+ */
+public class Tracer {
+
+    private static final String TAG = "Tracer";
+
+    public static final int FLOW_NONE = 0;
+    public static final int FLOW_OUT = 1;
+    public static final int FLOW_IN = 2;
+
+    private static final int MAX_SPANS = 4096;
+    private static final String CATEGORY = "wcl";
+    private static final String FLOW_NAME = "request";
+    private static final String TRACE_DIR = "traces";
+
+    private static final Tracer sInstance = new Tracer();
+
+    // handed out while the tracer is disabled, so a span costs nothing then
+    private static final Span NO_SPAN = new Span(null, null, null, FLOW_NONE, false);
+
+    // the wall clock, read once, and then advanced with the elapsed-realtime clock, which unlike
+    // System.nanoTime() keeps counting while the device is suspended; a watch sleeps most of the
+    // time, and with a clock that stops there its spans would drift further behind the phone's
+    // after every suspend
+    private final long mWallAnchorUs = System.currentTimeMillis() * 1000;
+    private final long mElapsedAnchorNs = SystemClock.elapsedRealtimeNanos();
+
+    private final AtomicLong mNextAsyncId = new AtomicLong();
+    private final ArrayDeque<Span> mSpans = new ArrayDeque<>();
+    private volatile boolean mEnabled;
+    private volatile String mProcessName;
+
+    private Tracer() {
+    }
+
+    public static Tracer getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Starts recording the spans; {@code processName}, say "phone" or "watch", names the device
+     * in the timeline and in the name of the exported files.
+     */
+    public void enable(String processName) {
+        mProcessName = processName;
+        mEnabled = true;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public Span begin(String name) {
+        return begin(name, null, FLOW_NONE);
+    }
+
+    /**
+     * Begins a span on the calling thread; it has to end on the same thread, and the spans that
+     * begin on the thread in the meantime have to end before it.
+     *
+     * @param requestId The id of the request that the span is a step of, or {@code null}
+     * @param flow One of {@link #FLOW_NONE}, {@link #FLOW_OUT} or {@link #FLOW_IN}
+     */
+    public Span begin(String name, String requestId, int flow) {
+        if (!mEnabled) {
+            return NO_SPAN;
+        }
+        return new Span(this, name, requestId, flow, false);
+    }
+
+    /**
+     * Begins a span that can end on any thread, and overlap with any other span, say the whole
+     * of a request from the time it is made until its response is shown.
+     */
+    public Span beginAsync(String name, String requestId) {
+        if (!mEnabled) {
+            return NO_SPAN;
+        }
+        return new Span(this, name, requestId, FLOW_NONE, true);
+    }
+
+    /**
+     * Writes the spans that have been recorded so far to a new file in {@code dir}, and returns
+     * it.
+     */
+    public File export(File dir) throws IOException {
+        List<Span> spans;
+        synchronized (mSpans) {
+            spans = new ArrayList<>(mSpans);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, "trace-" + mProcessName + "-" + System.currentTimeMillis()
+                + ".json");
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"));
+        try {
+            writeTrace(writer, spans);
+        } finally {
+            writer.close();
+        }
+        Log.i(TAG, "Exported " + spans.size() + " spans to " + file);
+        return file;
+    }
+
+    /**
+     * Exports the spans to the files of the app, off of the main thread, and tells the user where
+     * they went; this is what the debug pages call.
+     */
+    public void exportInBackground(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final Handler handler = new Handler(Looper.getMainLooper());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try {
+                    File file = export(new File(appContext.getFilesDir(), TRACE_DIR));
+                    message = appContext.getString(R.string.trace_exported, file.getPath());
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to export the trace", e);
+                    message = appContext.getString(R.string.trace_export_failed);
+                }
+                final String text = message;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(appContext, text, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+
+    private void writeTrace(JsonWriter writer, List<Span> spans) throws IOException {
+        int pid = Process.myPid();
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("traceEvents").beginArray();
+        writeMetadata(writer, "process_name", pid, 0, mProcessName);
+        Map<Integer, String> threads = new HashMap<>();
+        for (Span span : spans) {
+            threads.put(span.mTid, span.mThreadName);
+        }
+        for (Map.Entry<Integer, String> thread : threads.entrySet()) {
+            writeMetadata(writer, "thread_name", pid, thread.getKey(), thread.getValue());
+        }
+        for (Span span : spans) {
+            if (span.mAsync) {
+                writeEvent(writer, span, "b", span.mStartUs, pid);
+                writeEvent(writer, span, "e", span.mEndUs, pid);
+            } else {
+                writeEvent(writer, span, "X", span.mStartUs, pid);
+            }
+            if (span.mRequestId != null && span.mFlow != FLOW_NONE) {
+                writeFlow(writer, span, pid);
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static void writeMetadata(JsonWriter writer, String name, int pid, int tid,
+            String value) throws IOException {
+        writer.beginObject();
+        writer.name("name").value(name);
+        writer.name("ph").value("M");
+        writer.name("pid").value(pid);
+        writer.name("tid").value(tid);
+        writer.name("args").beginObject().name("name").value(value).endObject();
+        writer.endObject();
+    }
+
+    private static void writeEvent(JsonWriter writer, Span span, String phase, long timestampUs,
+            int pid) throws IOException {
+        writer.beginObject();
+        writer.name("name").value(span.mName);
+        writer.name("cat").value(CATEGORY);
+        writer.name("ph").value(phase);
+        writer.name("ts").value(timestampUs);
+        if (!span.mAsync) {
+            writer.name("dur").value(span.mEndUs - span.mStartUs);
+        } else {
+            writer.name("id").value(Long.toHexString(span.mAsyncId));
+        }
+        writer.name("pid").value(pid);
+        writer.name("tid").value(span.mTid);
+        if (span.mRequestId != null) {
+            writer.name("args").beginObject().name("requestId").value(span.mRequestId)
+                    .endObject();
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Writes the end of the flow arrow that the span is, bound to the span itself.
+     */
+    private static void writeFlow(JsonWriter writer, Span span, int pid) throws IOException {
+        writer.beginObject();
+        writer.name("name").value(FLOW_NAME);
+        writer.name("cat").value(CATEGORY);
+        if (span.mFlow == FLOW_OUT) {
+            writer.name("ph").value("s");
+        } else {
+            writer.name("ph").value("f");
+            writer.name("bp").value("e");
+        }
+        writer.name("id").value(span.mRequestId);
+        writer.name("ts").value(span.mStartUs);
+        writer.name("pid").value(pid);
+        writer.name("tid").value(span.mTid);
+        writer.endObject();
+    }
+
+    private long nowUs() {
+        return mWallAnchorUs + (SystemClock.elapsedRealtimeNanos() - mElapsedAnchorNs) / 1000;
+    }
+
+    private void record(Span span) {
+        synchronized (mSpans) {
+            if (mSpans.size() == MAX_SPANS) {
+                mSpans.removeFirst();
+            }
+            mSpans.addLast(span);
+        }
+    }
+
+    /**
+     * A step of an operation, from {@link Tracer#begin} to {@link #end()}.
+     */
+    public static class Span {
+
+        private final Tracer mTracer;
+        private final String mName;
+        private final int mFlow;
+        private final boolean mAsync;
+        private final long mAsyncId;
+        private final int mTid;
+        private final String mThreadName;
+        private final long mStartUs;
+        private volatile String mRequestId;
+        private long mEndUs = -1;
+
+        private Span(Tracer tracer, String name, String requestId, int flow, boolean async) {
+            mTracer = tracer;
+            mName = name;
+            mRequestId = requestId;
+            mFlow = flow;
+            mAsync = async;
+            if (tracer == null) {
+                mAsyncId = 0;
+                mTid = 0;
+                mThreadName = null;
+                mStartUs = 0;
+                return;
+            }
+            mAsyncId = async ? tracer.mNextAsyncId.incrementAndGet() : 0;
+            mTid = Process.myTid();
+            mThreadName = Thread.currentThread().getName();
+            mStartUs = tracer.nowUs();
+        }
+
+        /**
+         * Sets the request id of the span, when it is only known after the span has begun.
+         */
+        public Span setRequestId(String requestId) {
+            mRequestId = requestId;
+            return this;
+        }
+
+        /**
+         * Ends the span; it is ignored after the first time.
+         */
+        public void end() {
+            if (mTracer == null) {
+                return;
+            }
+            synchronized (this) {
+                if (mEndUs >= 0) {
+                    return;
+                }
+                mEndUs = mTracer.nowUs();
+            }
+            mTracer.record(this);
+        }
+    }
+}
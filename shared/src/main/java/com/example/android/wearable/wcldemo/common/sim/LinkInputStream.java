@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+
+/**
+ * Hands out the bytes of a stream as if they came over the link of a {@link SimulatedNode}: the
+ * first packet arrives after the latency of the link, and the rest at its bandwidth, or at the
+ * pace the source produces them if that is slower. A channel is reliable, so a packet that is
+ * lost is not missing from the stream; it is sent again, and arrives a round trip later.
+ *
+ * <p>The reader blocks until the bytes it asks for have "arrived", so the stream has to be read
+ * on a thread that can wait, as a real channel would be.
+ */
+class LinkInputStream extends FilterInputStream {
+
+    // the size of the packets that the stream is cut into
+    static final int PACKET_BYTES = 1024;
+
+    private final SimulatedNode mNode;
+    private final int mBytesPerSecond;
+    private final long mStartMs;
+    private long mSentBytes;
+    private long mRetransmitDelayMs;
+
+    /**
+     * @param sourceBytesPerSecond How fast the source produces the stream, say a live voice
+     * stream, or 0 if it is all available right away
+     */
+    LinkInputStream(SimulatedNode node, InputStream source, int sourceBytesPerSecond) {
+        super(source);
+        mNode = node;
+        int bandwidth = node.getLink().getBytesPerSecond();
+        mBytesPerSecond = sourceBytesPerSecond > 0
+                ? Math.min(bandwidth, sourceBytesPerSecond) : bandwidth;
+        mStartMs = NodeSimulator.nowMs();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read = super.read(buffer, offset, Math.min(count, PACKET_BYTES));
+        if (read < 0) {
+            return read;
+        }
+        mSentBytes += read;
+        if (mNode.isLost()) {
+            mRetransmitDelayMs += 2 * mNode.getLink().getLatencyMs();
+        }
+        long arrivalMs = mStartMs + mNode.getLink().getLatencyMs() + mRetransmitDelayMs
+                + mSentBytes * 1000 / mBytesPerSecond;
+        long waitMs = arrivalMs - NodeSimulator.nowMs();
+        if (waitMs > 0) {
+            try {
+                Thread.sleep(waitMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the link");
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(count, PACKET_BYTES)];
+        int read = read(buffer, 0, buffer.length);
+        return read < 0 ? 0 : read;
+    }
+
+    @Override
+    public int available() {
+        // nothing has arrived until it has been read
+        return 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
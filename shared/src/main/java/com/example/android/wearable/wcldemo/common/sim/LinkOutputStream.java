@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end of a stream that this device writes to a {@link SimulatedNode}. The writer blocks for
+ * as long as the link takes to send what it writes, as it would once the buffers of a real
+ * channel are full, and a packet that is lost is sent again a round trip later. When the stream
+ * is closed, all that was written reaches the {@link NodeSimulator.Peer} once the last packet
+ * has crossed the link.
+ */
+class LinkOutputStream extends OutputStream {
+
+    private final NodeSimulator mSimulator;
+    private final SimulatedNode mNode;
+    private final String mRequestId;
+    private final ByteArrayOutputStream mContent = new ByteArrayOutputStream();
+    private boolean mClosed;
+
+    // when the link is done sending what has been written so far, in microseconds, so that the
+    // time of the small packets adds up
+    private long mBusyUntilUs;
+
+    LinkOutputStream(NodeSimulator simulator, SimulatedNode node, String requestId) {
+        mSimulator = simulator;
+        mNode = node;
+        mRequestId = requestId;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (mClosed) {
+            throw new IOException("The stream is closed");
+        }
+        while (count > 0) {
+            int packet = Math.min(count, LinkInputStream.PACKET_BYTES);
+            mContent.write(buffer, offset, packet);
+            offset += packet;
+            count -= packet;
+            long nowUs = TimeUnit.NANOSECONDS.toMicros(System.nanoTime());
+            mBusyUntilUs = Math.max(nowUs, mBusyUntilUs)
+                    + packet * 1000000L / mNode.getLink().getBytesPerSecond();
+            if (mNode.isLost()) {
+                mBusyUntilUs += 2000 * mNode.getLink().getLatencyMs();
+            }
+            long waitUs = mBusyUntilUs - nowUs;
+            if (waitUs > 0) {
+                try {
+                    TimeUnit.MICROSECONDS.sleep(waitUs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the link");
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        final byte[] content = mContent.toByteArray();
+        mSimulator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mSimulator.getPeer().onStreamReceived(mNode, mRequestId, content);
+            }
+        }, mNode.getLink().getLatencyMs());
+    }
+}
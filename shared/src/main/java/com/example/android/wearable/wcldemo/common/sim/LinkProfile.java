@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+/**
+ * How the link between a simulated node and this device behaves: how many bytes it carries per
+ * second, how long a message takes to cross it, and how often a packet is lost on it.
+ */
+public class LinkProfile {
+
+    /**
+     * Roughly a watch that is connected over Bluetooth.
+     */
+    public static final LinkProfile BLUETOOTH = new LinkProfile(64 * 1024, 30, 0.01);
+
+    /**
+     * Roughly a watch that is connected through the cloud, over Wi-Fi.
+     */
+    public static final LinkProfile CLOUD = new LinkProfile(256 * 1024, 150, 0.02);
+
+    private final int mBytesPerSecond;
+    private final long mLatencyMs;
+    private final double mLossRate;
+
+    /**
+     * @param bytesPerSecond The bandwidth of the link
+     * @param latencyMs How long a packet takes to cross the link, on top of its transmission time
+     * @param lossRate The chance, between 0 and 1, that a packet is lost
+     */
+    public LinkProfile(int bytesPerSecond, long latencyMs, double lossRate) {
+        if (bytesPerSecond <= 0 || latencyMs < 0 || lossRate < 0 || lossRate >= 1) {
+            throw new IllegalArgumentException("Invalid link profile");
+        }
+        mBytesPerSecond = bytesPerSecond;
+        mLatencyMs = latencyMs;
+        mLossRate = lossRate;
+    }
+
+    public int getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    public long getLatencyMs() {
+        return mLatencyMs;
+    }
+
+    public double getLossRate() {
+        return mLossRate;
+    }
+
+    /**
+     * Returns how long it takes to put {@code bytes} on the link.
+     */
+    public long getTransmitTimeMs(int bytes) {
+        return (long) bytes * 1000 / mBytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "LinkProfile{" + mBytesPerSecond + "B/s, " + mLatencyMs + "ms, loss=" + mLossRate
+                + "}";
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+import android.util.Log;
+
+import com.google.android.gms.wearable.MessageEvent;
+
+import com.example.android.wearable.wcldemo.common.MessageDispatcher;
+import com.example.android.wearable.wcldemo.common.metrics.Histogram;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the watches, so that the code of this device that handles what they send can be
+ * loaded without paired hardware. The simulator holds any number of {@link SimulatedNode}s, each
+ * with the capabilities and the {@link LinkProfile} it is given, and delivers what they send
+ * through the same entry points that the {@code WearManager} uses:
+ * <ul>
+ *     <li>a message goes to the {@link MessageDispatcher}, or to the consumers of the
+ *     {@link SimulatedTransport} if there is one, after the time it takes to cross the link of
+ *     its node, unless it is lost on the way;</li>
+ *     <li>a stream, say a voice stream, is handed to a {@link StreamReceiver} as a channel would
+ *     be, and its bytes come in at the pace of the link.</li>
+ * </ul>
+ *
+ * <p>What this device sends to the nodes goes through a {@link SimulatedTransport}, which crosses
+ * the same links, and the {@link Peer} of the simulator answers it.
+ *
+ * <p>The simulator keeps track of how many messages are delivered and lost, and of how late they
+ * are, so that the load that the app can take can be read off {@link #getSummary()}. It only uses
+ * the JVM's clock and threads, so it runs in a plain JVM test as well as in the app.
+ */
+public class NodeSimulator {
+
+    private static final String TAG = "NodeSimulator";
+    private static final String NODE_ID_PREFIX = "sim-";
+    private static final long MAX_DELAY_MS = 10000;
+
+    private final List<SimulatedNode> mNodes = new CopyOnWriteArrayList<>();
+    private final Map<String, SimulatedNode> mNodesById = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService mDeliveryExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // streams are opened on a thread of their own, the way the channels of a real node are
+    private final ExecutorService mStreamExecutor = Executors.newCachedThreadPool();
+
+    private final AtomicLong mSentMessages = new AtomicLong();
+    private final AtomicLong mLostMessages = new AtomicLong();
+    private final AtomicLong mOpenedStreams = new AtomicLong();
+    private final AtomicLong mReceivedPackets = new AtomicLong();
+    private final AtomicLong mFailedPackets = new AtomicLong();
+    private final Histogram mDeliveryDelays = new Histogram(MAX_DELAY_MS, 5);
+
+    private volatile SimulatedTransport mTransport;
+    private volatile Peer mPeer = new Peer();
+
+    /**
+     * Adds {@code count} nodes, all with the same link and capabilities; the nodes with other
+     * links or capabilities are added with other calls. The losses of each node are drawn from a
+     * fixed seed, so two runs with the same load lose the same packets.
+     *
+     * @return The nodes that were added
+     */
+    public List<SimulatedNode> addNodes(int count, LinkProfile link, String... capabilities) {
+        Set<String> capabilitySet = new HashSet<>(Arrays.asList(capabilities));
+        List<SimulatedNode> nodes = new ArrayList<>(count);
+        synchronized (mNodes) {
+            for (int i = 0; i < count; i++) {
+                int index = mNodes.size() + i;
+                nodes.add(new SimulatedNode(
+                        String.format(Locale.US, "%s%03d", NODE_ID_PREFIX, index), link,
+                        capabilitySet, index));
+            }
+            mNodes.addAll(nodes);
+            for (SimulatedNode node : nodes) {
+                mNodesById.put(node.getId(), node);
+            }
+        }
+        Log.d(TAG, "Simulating " + count + " more nodes over " + link + " with " + capabilitySet);
+        SimulatedTransport transport = mTransport;
+        if (transport != null) {
+            transport.onNodesAdded(nodes);
+        }
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Sets how the nodes answer what this device sends them.
+     */
+    public void setPeer(Peer peer) {
+        mPeer = peer;
+    }
+
+    Peer getPeer() {
+        return mPeer;
+    }
+
+    void attach(SimulatedTransport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * Returns an unmodifiable list of all the nodes.
+     */
+    public List<SimulatedNode> getNodes() {
+        return Collections.unmodifiableList(mNodes);
+    }
+
+    /**
+     * Returns the node whose id is {@code nodeId}, or {@code null}.
+     */
+    public SimulatedNode getNode(String nodeId) {
+        return nodeId != null ? mNodesById.get(nodeId) : null;
+    }
+
+    /**
+     * Returns the nodes that have {@code capability}.
+     */
+    public Set<SimulatedNode> getNodesForCapability(String capability) {
+        Set<SimulatedNode> nodes = new HashSet<>();
+        for (SimulatedNode node : mNodes) {
+            if (node.hasCapability(capability)) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Sends a message from {@code node} to this device. It can be called from any thread.
+     */
+    public void sendMessage(SimulatedNode node, String path, byte[] data) {
+        final long sentMs = nowMs();
+        final long arrivalMs = node.send(path.length() + data.length, sentMs);
+        mSentMessages.incrementAndGet();
+        if (arrivalMs < 0) {
+            mLostMessages.incrementAndGet();
+            return;
+        }
+        final MessageEvent event = new SimulatedMessageEvent(node.getId(), path, data);
+        mDeliveryExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // how late the message is also tells if the dispatcher keeps up with the load
+                mDeliveryDelays.record(nowMs() - sentMs);
+                SimulatedTransport transport = mTransport;
+                if (transport != null) {
+                    transport.onMessageReceived(event);
+                } else {
+                    MessageDispatcher.getInstance().dispatch(event);
+                }
+            }
+        }, arrivalMs - sentMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a packet of {@code bytes} over the link of {@code node}, either way, and runs
+     * {@code onArrival} on the delivery thread when it gets there, or {@code onLoss}, if it is
+     * not {@code null}, when it would have, if it is lost.
+     */
+    void transmit(SimulatedNode node, int bytes, final Runnable onArrival,
+            final Runnable onLoss) {
+        long sentMs = nowMs();
+        long arrivalMs = node.send(bytes, sentMs);
+        if (arrivalMs < 0) {
+            mFailedPackets.incrementAndGet();
+            if (onLoss == null) {
+                return;
+            }
+            // the sender only learns of the loss once the packet is overdue
+            schedule(onLoss, node.getLink().getTransmitTimeMs(bytes)
+                    + 2 * node.getLink().getLatencyMs());
+            return;
+        }
+        mReceivedPackets.incrementAndGet();
+        schedule(onArrival, arrivalMs - sentMs);
+    }
+
+    /**
+     * Runs {@code runnable} on the delivery thread after {@code delayMs}.
+     */
+    void schedule(Runnable runnable, long delayMs) {
+        mDeliveryExecutor.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs {@code runnable} on a thread of its own, as a stream would be.
+     */
+    void executeStream(Runnable runnable) {
+        mStreamExecutor.execute(runnable);
+    }
+
+    /**
+     * Opens a stream from {@code node} to this device and hands it to {@code receiver}, on a
+     * thread of its own, as a channel would be.
+     *
+     * @param content What the node sends
+     * @param sourceBytesPerSecond How fast the node produces {@code content}, for a live stream,
+     * or 0 if it is all there from the start
+     */
+    public void openStream(final SimulatedNode node, InputStream content,
+            int sourceBytesPerSecond, final StreamReceiver receiver) {
+        final InputStream inputStream = new LinkInputStream(node, content, sourceBytesPerSecond);
+        onStreamOpened();
+        mStreamExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                receiver.onStreamOpened(node.getId(), inputStream);
+            }
+        });
+    }
+
+    /**
+     * Returns the delays of the messages that have been delivered, from the time they were sent,
+     * in milliseconds.
+     */
+    public Histogram getDeliveryDelays() {
+        return mDeliveryDelays;
+    }
+
+    public String getSummary() {
+        return String.format(Locale.US,
+                "%d nodes: messages sent=%d lost=%d delivered=%d delay p50=%dms p99=%dms"
+                        + " max=%dms, streams opened=%d, packets to the nodes=%d lost=%d",
+                mNodes.size(), mSentMessages.get(), mLostMessages.get(),
+                mDeliveryDelays.getCount(), mDeliveryDelays.getPercentile(50),
+                mDeliveryDelays.getPercentile(99), mDeliveryDelays.getMax(), mOpenedStreams.get(),
+                mReceivedPackets.get(), mFailedPackets.get());
+    }
+
+    void onStreamOpened() {
+        mOpenedStreams.incrementAndGet();
+    }
+
+    /**
+     * The time the links are simulated on, in milliseconds; {@code SystemClock} is not there on
+     * the plain JVM.
+     */
+    static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * Stops delivering; the messages that are on their way are dropped.
+     */
+    public void shutdown() {
+        mDeliveryExecutor.shutdownNow();
+        mStreamExecutor.shutdown();
+    }
+
+    /**
+     * Takes the streams that the simulated nodes open, the way the consumer of the channels of
+     * the app would.
+     */
+    public interface StreamReceiver {
+
+        /**
+         * Called on a thread of its own; {@code inputStream} may be read on it, or handed off.
+         */
+        void onStreamOpened(String nodeId, InputStream inputStream);
+    }
+
+    /**
+     * How the simulated nodes answer what this device sends them. The methods are called on the
+     * delivery thread of the simulator, once what was sent has crossed the link, and do nothing
+     * unless they are overridden.
+     */
+    public static class Peer {
+
+        public void onMessageReceived(SimulatedNode node, String path, byte[] data) {
+        }
+
+        /**
+         * Called with the response that this device sends to an http request of {@code node}.
+         */
+        public void onHttpResponseReceived(SimulatedNode node, String requestId, int statusCode,
+                String body) {
+        }
+
+        public void onFileReceived(SimulatedNode node, File file, String targetName) {
+        }
+
+        /**
+         * Called when a stream to {@code node} is closed, with all that was written to it.
+         */
+        public void onStreamReceived(SimulatedNode node, String requestId, byte[] content) {
+        }
+
+        /**
+         * Makes the http GET request of {@code url} that this device asked {@code node} to make.
+         *
+         * @return The body of the response, or {@code null} to fail the request, as a node
+         * without a connection would
+         */
+        public String onHttpRequest(SimulatedNode node, String url) {
+            return null;
+        }
+    }
+
+    static class SimulatedMessageEvent implements MessageEvent {
+
+        private static final AtomicInteger sNextRequestId = new AtomicInteger();
+
+        private final int mRequestId = sNextRequestId.incrementAndGet();
+        private final String mSourceNodeId;
+        private final String mPath;
+        private final byte[] mData;
+
+        SimulatedMessageEvent(String sourceNodeId, String path, byte[] data) {
+            mSourceNodeId = sourceNodeId;
+            mPath = path;
+            mData = data;
+        }
+
+        @Override
+        public int getRequestId() {
+            return mRequestId;
+        }
+
+        @Override
+        public String getPath() {
+            return mPath;
+        }
+
+        @Override
+        public byte[] getData() {
+            return mData;
+        }
+
+        @Override
+        public String getSourceNodeId() {
+            return mSourceNodeId;
+        }
+    }
+}
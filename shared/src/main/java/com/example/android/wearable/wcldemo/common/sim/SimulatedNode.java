@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+import com.google.android.gms.wearable.Node;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * A node that only exists in a {@link NodeSimulator}. It looks like any other {@link Node} to the
+ * code that is handed one, and it has a link of its own to this device: the messages that it
+ * sends queue up behind each other on that link, at its bandwidth.
+ */
+public class SimulatedNode implements Node {
+
+    private final String mId;
+    private final LinkProfile mLink;
+    private final Set<String> mCapabilities;
+    private final Random mRandom;
+
+    // when the link is done sending what has been queued on it so far
+    private long mLinkBusyUntilMs;
+
+    SimulatedNode(String id, LinkProfile link, Set<String> capabilities, long seed) {
+        mId = id;
+        mLink = link;
+        mCapabilities = Collections.unmodifiableSet(new HashSet<>(capabilities));
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Simulated " + mId;
+    }
+
+    @Override
+    public boolean isNearby() {
+        return mLink.getLatencyMs() < LinkProfile.CLOUD.getLatencyMs();
+    }
+
+    public LinkProfile getLink() {
+        return mLink;
+    }
+
+    public Set<String> getCapabilities() {
+        return mCapabilities;
+    }
+
+    public boolean hasCapability(String capability) {
+        return mCapabilities.contains(capability);
+    }
+
+    /**
+     * Queues a packet of {@code bytes} on the link and returns when it reaches this device, or -1
+     * if it is lost on the way.
+     */
+    synchronized long send(int bytes, long nowMs) {
+        long start = Math.max(nowMs, mLinkBusyUntilMs);
+        mLinkBusyUntilMs = start + mLink.getTransmitTimeMs(bytes);
+        if (isLost()) {
+            return -1;
+        }
+        return mLinkBusyUntilMs + mLink.getLatencyMs();
+    }
+
+    synchronized boolean isLost() {
+        return mRandom.nextDouble() < mLink.getLossRate();
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedNode{" + mId + ", " + mLink + ", " + mCapabilities + "}";
+    }
+}
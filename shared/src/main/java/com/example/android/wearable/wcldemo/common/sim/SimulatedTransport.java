@@ -0,0 +1,438 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+import android.util.Log;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.WearableStatusCodes;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+import com.google.devrel.wcl.connectivity.WearHttpHelper;
+
+import com.example.android.wearable.wcldemo.common.WearTransport;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link WearTransport} whose nodes are the ones of a {@link NodeSimulator}, so the app can run
+ * without the Wearable API, say in a test on the plain JVM. It is installed with
+ * {@link WearTransport#setInstance(WearTransport)} before the application is created.
+ *
+ * <p>What this device sends crosses the link of the node it is sent to, and the
+ * {@link NodeSimulator.Peer} of the simulator answers it; a message or an http request that is
+ * lost on the way fails, while a file or a stream is sent again, as a channel would; a file only
+ * fails once it has been lost {@link #MAX_TRANSMIT_ATTEMPTS} times. What the nodes send to this
+ * device, and the nodes that are added to the simulator, are reported to the consumers. The
+ * callbacks, the listeners and the consumers are all called on the delivery thread of the
+ * simulator rather than on the main thread.
+ */
+public class SimulatedTransport extends WearTransport {
+
+    private static final String TAG = "SimulatedTransport";
+    private static final String CHANNEL_PATH_PREFIX = "/simulated/";
+    private static final String HTTP_METHOD_GET = "GET";
+    private static final String HTTP_CHARSET = "UTF-8";
+
+    // how many times a file is sent before the transfer fails, as a channel gives up on a node
+    // that stops answering
+    static final int MAX_TRANSMIT_ATTEMPTS = 10;
+
+    private final NodeSimulator mSimulator;
+    private final List<AbstractWearConsumer> mConsumers = new CopyOnWriteArrayList<>();
+    private final Set<String> mCapabilities = Collections.synchronizedSet(new HashSet<String>());
+    private volatile boolean mConnected = true;
+
+    public SimulatedTransport(NodeSimulator simulator) {
+        mSimulator = simulator;
+        simulator.attach(this);
+    }
+
+    public NodeSimulator getSimulator() {
+        return mSimulator;
+    }
+
+    /**
+     * Connects or disconnects this device from the Wearable API; while it is disconnected, no
+     * node is connected and nothing can be sent.
+     */
+    public void setConnected(boolean connected) {
+        if (mConnected == connected) {
+            return;
+        }
+        mConnected = connected;
+        for (AbstractWearConsumer consumer : mConsumers) {
+            if (connected) {
+                consumer.onWearableApiConnected();
+            } else {
+                for (SimulatedNode node : mSimulator.getNodes()) {
+                    consumer.onWearablePeerDisconnected(node);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the capabilities that this device provides.
+     */
+    public Set<String> getCapabilities() {
+        synchronized (mCapabilities) {
+            return new HashSet<>(mCapabilities);
+        }
+    }
+
+    /**
+     * Makes an http request from {@code node} to this device, as the WearHttpHelper of a watch
+     * would, and returns its request id; the response goes to the {@link NodeSimulator.Peer}.
+     */
+    public String receiveHttpRequest(final SimulatedNode node, final String url) {
+        final String requestId = UUID.randomUUID().toString();
+        mSimulator.transmit(node, url.length(), new Runnable() {
+            @Override
+            public void run() {
+                for (AbstractWearConsumer consumer : mConsumers) {
+                    consumer.onWearableHttpRequestReceived(url, HTTP_METHOD_GET, null,
+                            HTTP_CHARSET, node.getId(), requestId);
+                }
+            }
+        }, null);
+        return requestId;
+    }
+
+    /**
+     * Sends {@code file} from {@code node} to this device, as a watch would with
+     * {@code WearFileTransfer#startTransfer()}. The consumers are handed {@code file} itself, and
+     * may move it.
+     */
+    public void receiveFile(SimulatedNode node, final File file, final String originalName) {
+        final String requestId = UUID.randomUUID().toString();
+        transmitReliably(node, (int) Math.min(file.length(), Integer.MAX_VALUE), new Runnable() {
+            @Override
+            public void run() {
+                for (AbstractWearConsumer consumer : mConsumers) {
+                    consumer.onWearableFileReceivedResult(WearableStatusCodes.SUCCESS, requestId,
+                            file, originalName);
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                for (AbstractWearConsumer consumer : mConsumers) {
+                    consumer.onWearableFileReceivedResult(
+                            WearableStatusCodes.TARGET_NODE_NOT_CONNECTED, requestId, null,
+                            originalName);
+                }
+            }
+        });
+    }
+
+    void onNodesAdded(List<SimulatedNode> nodes) {
+        if (!mConnected) {
+            return;
+        }
+        for (AbstractWearConsumer consumer : mConsumers) {
+            for (SimulatedNode node : nodes) {
+                consumer.onWearablePeerConnected(node);
+            }
+        }
+    }
+
+    void onMessageReceived(MessageEvent event) {
+        for (AbstractWearConsumer consumer : mConsumers) {
+            consumer.onWearableMessageReceived(event);
+        }
+    }
+
+    @Override
+    public void addWearConsumer(AbstractWearConsumer consumer) {
+        mConsumers.add(consumer);
+    }
+
+    @Override
+    public void removeWearConsumer(AbstractWearConsumer consumer) {
+        mConsumers.remove(consumer);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public Set<Node> getConnectedNodes() {
+        if (!mConnected) {
+            return Collections.emptySet();
+        }
+        return new HashSet<Node>(mSimulator.getNodes());
+    }
+
+    @Override
+    public Set<Node> getNodesForCapability(String capability) {
+        if (!mConnected) {
+            return Collections.emptySet();
+        }
+        return new HashSet<Node>(mSimulator.getNodesForCapability(capability));
+    }
+
+    @Override
+    public void addCapabilities(String... capabilities) {
+        Collections.addAll(mCapabilities, capabilities);
+    }
+
+    @Override
+    public void removeCapabilities(String... capabilities) {
+        for (String capability : capabilities) {
+            mCapabilities.remove(capability);
+        }
+    }
+
+    @Override
+    public void sendMessage(String nodeId, final String path, final byte[] data,
+            final ResultCallback<MessageApi.SendMessageResult> callback) {
+        final SimulatedNode node = getConnectedNode(nodeId);
+        if (node == null) {
+            reportLater(callback, WearableStatusCodes.TARGET_NODE_NOT_CONNECTED);
+            return;
+        }
+        mSimulator.transmit(node, path.length() + data.length, new Runnable() {
+            @Override
+            public void run() {
+                mSimulator.getPeer().onMessageReceived(node, path, data);
+                report(callback, WearableStatusCodes.SUCCESS);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                report(callback, WearableStatusCodes.TARGET_NODE_NOT_CONNECTED);
+            }
+        });
+    }
+
+    @Override
+    public void sendHttpResponse(final String body, final int statusCode, String nodeId,
+            final String requestId, final ResultCallback<MessageApi.SendMessageResult> callback) {
+        final SimulatedNode node = getConnectedNode(nodeId);
+        if (node == null) {
+            reportLater(callback, WearableStatusCodes.TARGET_NODE_NOT_CONNECTED);
+            return;
+        }
+        mSimulator.transmit(node, requestId.length() + body.length(), new Runnable() {
+            @Override
+            public void run() {
+                mSimulator.getPeer().onHttpResponseReceived(node, requestId, statusCode, body);
+                report(callback, WearableStatusCodes.SUCCESS);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                report(callback, WearableStatusCodes.TARGET_NODE_NOT_CONNECTED);
+            }
+        });
+    }
+
+    @Override
+    public void putDataItem(PutDataRequest request) {
+        // the simulated nodes keep no data layer
+        Log.d(TAG, "Dropping the data item " + request.getUri());
+    }
+
+    @Override
+    public Map<String, DataMap> getDataItems(String path) {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void sendFile(Node node, final File file, final String targetName) {
+        final String requestId = UUID.randomUUID().toString();
+        final SimulatedNode simulatedNode = getConnectedNode(node.getId());
+        if (simulatedNode == null) {
+            mSimulator.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    reportFileResult(WearableStatusCodes.TARGET_NODE_NOT_CONNECTED, requestId);
+                }
+            }, 0);
+            return;
+        }
+        transmitReliably(simulatedNode, (int) Math.min(file.length(), Integer.MAX_VALUE),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        mSimulator.getPeer().onFileReceived(simulatedNode, file, targetName);
+                        reportFileResult(WearableStatusCodes.SUCCESS, requestId);
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        reportFileResult(WearableStatusCodes.TARGET_NODE_NOT_CONNECTED,
+                                requestId);
+                    }
+                });
+    }
+
+    @Override
+    public void openOutputStream(Node node, final String requestId,
+            final OutputStreamListener listener) {
+        final SimulatedNode simulatedNode = getConnectedNode(node.getId());
+        if (simulatedNode == null) {
+            mSimulator.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onOutputStreamReady(WearableStatusCodes.TARGET_NODE_NOT_CONNECTED,
+                            null, null);
+                }
+            }, 0);
+            return;
+        }
+        // opening a channel takes a round trip
+        mSimulator.onStreamOpened();
+        mSimulator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                listener.onOutputStreamReady(WearableStatusCodes.SUCCESS,
+                        CHANNEL_PATH_PREFIX + requestId,
+                        new LinkOutputStream(mSimulator, simulatedNode, requestId));
+            }
+        }, 2 * simulatedNode.getLink().getLatencyMs());
+    }
+
+    @Override
+    public void makeHttpRequest(final String url, String nodeId, long timeoutMs,
+            final WearHttpHelper.OnHttpResponseListener listener) {
+        if (!mConnected) {
+            throw new IllegalStateException("The simulated transport is disconnected");
+        }
+        final String requestId = UUID.randomUUID().toString();
+        final AtomicBoolean answered = new AtomicBoolean();
+        final SimulatedNode node = mSimulator.getNode(nodeId);
+        if (node == null) {
+            respond(answered, listener, requestId, WearHttpHelper.ERROR_REQUEST_FAILED, null, 0);
+            return;
+        }
+        // a request or a response that is lost is only noticed when the request times out
+        respond(answered, listener, requestId, WearHttpHelper.ERROR_TIMEOUT, null, timeoutMs);
+        mSimulator.transmit(node, url.length(), new Runnable() {
+            @Override
+            public void run() {
+                String body = mSimulator.getPeer().onHttpRequest(node, url);
+                if (body == null) {
+                    respond(answered, listener, requestId, WearHttpHelper.ERROR_REQUEST_FAILED,
+                            null, node.getLink().getLatencyMs());
+                    return;
+                }
+                final String response = body;
+                mSimulator.transmit(node, response.length(), new Runnable() {
+                    @Override
+                    public void run() {
+                        respond(answered, listener, requestId, HttpURLConnection.HTTP_OK,
+                                response, 0);
+                    }
+                }, null);
+            }
+        }, null);
+    }
+
+    private SimulatedNode getConnectedNode(String nodeId) {
+        return mConnected ? mSimulator.getNode(nodeId) : null;
+    }
+
+    /**
+     * Sends a packet until it gets across, as a channel does, or until it has been lost
+     * {@link #MAX_TRANSMIT_ATTEMPTS} times, when {@code onFailure} runs.
+     */
+    private void transmitReliably(SimulatedNode node, int bytes, Runnable onArrival,
+            Runnable onFailure) {
+        transmitReliably(node, bytes, onArrival, onFailure, 1);
+    }
+
+    private void transmitReliably(final SimulatedNode node, final int bytes,
+            final Runnable onArrival, final Runnable onFailure, final int attempt) {
+        mSimulator.transmit(node, bytes, onArrival, new Runnable() {
+            @Override
+            public void run() {
+                if (attempt < MAX_TRANSMIT_ATTEMPTS) {
+                    transmitReliably(node, bytes, onArrival, onFailure, attempt + 1);
+                } else {
+                    Log.d(TAG, "Giving up on " + node + " after " + attempt + " attempts");
+                    onFailure.run();
+                }
+            }
+        });
+    }
+
+    private void reportFileResult(int statusCode, String requestId) {
+        for (AbstractWearConsumer consumer : mConsumers) {
+            consumer.onWearableSendFileResult(statusCode, requestId);
+        }
+    }
+
+    private void respond(final AtomicBoolean answered,
+            final WearHttpHelper.OnHttpResponseListener listener, final String requestId,
+            final int status, final String response, long delayMs) {
+        mSimulator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (answered.compareAndSet(false, true)) {
+                    listener.onHttpResponseReceived(requestId, status, response);
+                }
+            }
+        }, delayMs);
+    }
+
+    private void reportLater(final ResultCallback<MessageApi.SendMessageResult> callback,
+            final int statusCode) {
+        mSimulator.schedule(new Runnable() {
+            @Override
+            public void run() {
+                report(callback, statusCode);
+            }
+        }, 0);
+    }
+
+    private static void report(ResultCallback<MessageApi.SendMessageResult> callback,
+            int statusCode) {
+        if (callback == null) {
+            return;
+        }
+        final Status status = new Status(statusCode);
+        callback.onResult(new MessageApi.SendMessageResult() {
+            @Override
+            public int getRequestId() {
+                return 0;
+            }
+
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+        });
+    }
+}
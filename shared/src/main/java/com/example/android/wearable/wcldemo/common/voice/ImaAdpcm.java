@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.voice;
+
+/**
+ * An IMA-ADPCM codec: each 16-bit sample is coded in 4 bits. Every encoded block starts with the
+ * state of the coder (the predicted sample and the step index, 3 bytes) so that each block can be
+ * decoded on its own and a lost or dropped block does not affect the ones that follow.
+ */
+public class ImaAdpcm {
+
+    /**
+     * The number of bytes that the state at the start of each block takes.
+     */
+    public static final int BLOCK_HEADER_BYTES = 3;
+
+    private static final int[] INDEX_TABLE = {
+            -1, -1, -1, -1, 2, 4, 6, 8,
+            -1, -1, -1, -1, 2, 4, 6, 8
+    };
+
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55,
+            60, 66, 73, 80, 88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307,
+            337, 371, 408, 449, 494, 544, 598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411,
+            1552, 1707, 1878, 2066, 2272, 2499, 2749, 3024, 3327, 3660, 4026, 4428, 4871, 5358,
+            5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635, 13899, 15289, 16818, 18500,
+            20350, 22385, 24623, 27086, 29794, 32767
+    };
+
+    private ImaAdpcm() {
+    }
+
+    /**
+     * Returns the size of the block that {@code samples} samples are encoded into.
+     */
+    public static int encodedSize(int samples) {
+        return BLOCK_HEADER_BYTES + (samples + 1) / 2;
+    }
+
+    /**
+     * Encodes {@code count} samples into a block that starts at {@code out[offset]}.
+     *
+     * @return The number of bytes written
+     */
+    public static int encode(short[] samples, int count, byte[] out, int offset, State state) {
+        int predicted = state.predicted;
+        int index = state.index;
+        out[offset] = (byte) predicted;
+        out[offset + 1] = (byte) (predicted >> 8);
+        out[offset + 2] = (byte) index;
+        int position = offset + BLOCK_HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            int step = STEP_TABLE[index];
+            int diff = samples[i] - predicted;
+            int code = 0;
+            if (diff < 0) {
+                code = 8;
+                diff = -diff;
+            }
+            // the same arithmetic as the decoder, so both sides keep the same prediction
+            int delta = step >> 3;
+            if (diff >= step) {
+                code |= 4;
+                diff -= step;
+                delta += step;
+            }
+            if (diff >= step >> 1) {
+                code |= 2;
+                diff -= step >> 1;
+                delta += step >> 1;
+            }
+            if (diff >= step >> 2) {
+                code |= 1;
+                delta += step >> 2;
+            }
+            predicted = clamp((code & 8) != 0 ? predicted - delta : predicted + delta);
+            index = clampIndex(index + INDEX_TABLE[code]);
+            if ((i & 1) == 0) {
+                out[position] = (byte) code;
+            } else {
+                out[position++] |= (byte) (code << 4);
+            }
+        }
+        state.predicted = predicted;
+        state.index = index;
+        return encodedSize(count);
+    }
+
+    /**
+     * Decodes the block of {@code count} samples that starts at {@code in[offset]}.
+     */
+    public static void decode(byte[] in, int offset, int count, short[] samples) {
+        int predicted = (short) ((in[offset] & 0xff) | (in[offset + 1] << 8));
+        int index = clampIndex(in[offset + 2]);
+        int position = offset + BLOCK_HEADER_BYTES;
+        for (int i = 0; i < count; i++) {
+            int code = (i & 1) == 0 ? in[position] & 0x0f : (in[position++] >> 4) & 0x0f;
+            int step = STEP_TABLE[index];
+            int delta = step >> 3;
+            if ((code & 4) != 0) {
+                delta += step;
+            }
+            if ((code & 2) != 0) {
+                delta += step >> 1;
+            }
+            if ((code & 1) != 0) {
+                delta += step >> 2;
+            }
+            predicted = clamp((code & 8) != 0 ? predicted - delta : predicted + delta);
+            index = clampIndex(index + INDEX_TABLE[code]);
+            samples[i] = (short) predicted;
+        }
+    }
+
+    private static int clamp(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
+    private static int clampIndex(int index) {
+        return Math.max(0, Math.min(STEP_TABLE.length - 1, index));
+    }
+
+    /**
+     * The state that the encoder carries from one block to the next.
+     */
+    public static class State {
+
+        int predicted;
+        int index;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.voice;
+
+/**
+ * Tells speech from silence, one frame at a time, from the energy and the zero-crossing rate of
+ * the frame. The energy is compared to a noise floor that is learnt as the frames go by: it drops
+ * right away to a quieter frame and creeps up slowly otherwise. While speech goes on, the floor
+ * creeps up towards the quietest frame of the last few seconds instead, which the pauses between
+ * words keep close to the noise, so a noise that gets louder is not taken for endless speech.
+ * Voiced speech stands well above that floor; unvoiced sounds (such as "s" or "f") are quieter but
+ * cross zero much more often, so they are accepted with a lower margin when their zero-crossing
+ * rate is high. A frame after speech is still reported as speech for a short hangover, so that the
+ * trailing consonants and the short pauses inside a phrase are not cut.
+ */
+public class VoiceActivityDetector {
+
+    // the margins over the noise floor, as ratios of the mean square of the samples
+    private static final float VOICED_MARGIN = 6f;      // ~8dB
+    private static final float UNVOICED_MARGIN = 2f;    // ~3dB
+    private static final float UNVOICED_ZERO_CROSSING_RATE = 0.3f;
+
+    // frames quieter than this (an rms of ~60) are silence no matter what the floor is
+    private static final float MIN_SPEECH_ENERGY = 60f * 60f;
+
+    // the noise floor never gets lower than this, so the margins stay meaningful in a quiet room
+    private static final float MIN_NOISE_FLOOR = 10f * 10f;
+    private static final float NOISE_FLOOR_RISE = 0.02f;
+
+    // the quietest frame is looked for over MIN_WINDOWS windows of MIN_WINDOW_FRAMES frames each,
+    // the oldest of which is dropped as a new one fills up
+    private static final int MIN_WINDOWS = 4;
+    private static final int MIN_WINDOW_FRAMES = 50; // 1s
+
+    public static final int DEFAULT_HANGOVER_FRAMES = 10; // 200ms
+
+    private final int mHangoverFrames;
+    private float mNoiseFloor = -1;
+    private int mHangover;
+    private final float[] mWindowMinimums = new float[MIN_WINDOWS];
+    private int mWindow;
+    private int mWindowFrames;
+
+    public VoiceActivityDetector() {
+        this(DEFAULT_HANGOVER_FRAMES);
+    }
+
+    public VoiceActivityDetector(int hangoverFrames) {
+        mHangoverFrames = hangoverFrames;
+        resetMinimums();
+    }
+
+    /**
+     * Returns {@code true} if the {@code count} samples of {@code frame} should be sent as speech.
+     */
+    public boolean isSpeech(short[] frame, int count) {
+        long sumOfSquares = 0;
+        int zeroCrossings = 0;
+        for (int i = 0; i < count; i++) {
+            sumOfSquares += frame[i] * frame[i];
+            if (i > 0 && (frame[i] >= 0) != (frame[i - 1] >= 0)) {
+                zeroCrossings++;
+            }
+        }
+        float energy = (float) sumOfSquares / count;
+        float zeroCrossingRate = (float) zeroCrossings / count;
+
+        if (mNoiseFloor < 0 || energy < mNoiseFloor) {
+            mNoiseFloor = Math.max(energy, MIN_NOISE_FLOOR);
+        }
+        boolean active = energy > MIN_SPEECH_ENERGY
+                && (energy > mNoiseFloor * VOICED_MARGIN
+                || (energy > mNoiseFloor * UNVOICED_MARGIN
+                && zeroCrossingRate > UNVOICED_ZERO_CROSSING_RATE));
+        float minimum = trackMinimum(energy);
+        if (!active) {
+            mNoiseFloor += (energy - mNoiseFloor) * NOISE_FLOOR_RISE;
+        } else if (minimum > mNoiseFloor) {
+            // a long phrase does not become the new floor, but its quietest frames can raise it
+            mNoiseFloor += (minimum - mNoiseFloor) * NOISE_FLOOR_RISE;
+        }
+
+        if (active) {
+            mHangover = mHangoverFrames;
+            return true;
+        }
+        if (mHangover > 0) {
+            mHangover--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records the energy of a frame and returns the lowest energy seen in the recent windows.
+     */
+    private float trackMinimum(float energy) {
+        if (energy < mWindowMinimums[mWindow]) {
+            mWindowMinimums[mWindow] = energy;
+        }
+        float minimum = Float.MAX_VALUE;
+        for (float windowMinimum : mWindowMinimums) {
+            minimum = Math.min(minimum, windowMinimum);
+        }
+        if (++mWindowFrames == MIN_WINDOW_FRAMES) {
+            mWindow = (mWindow + 1) % MIN_WINDOWS;
+            mWindowMinimums[mWindow] = Float.MAX_VALUE;
+            mWindowFrames = 0;
+        }
+        return minimum;
+    }
+
+    private void resetMinimums() {
+        for (int i = 0; i < MIN_WINDOWS; i++) {
+            mWindowMinimums[i] = Float.MAX_VALUE;
+        }
+        mWindow = 0;
+        mWindowFrames = 0;
+    }
+
+    public void reset() {
+        mNoiseFloor = -1;
+        mHangover = 0;
+        resetMinimums();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.voice;
+
+/**
+ * The format of the voice that is streamed from the wear device: 16-bit PCM, mono, at 8 kHz, the
+ * same as the recorder of the Wear Companion Library. The stream is handled in frames of 20ms.
+ */
+public class VoiceFormat {
+
+    public static final int SAMPLE_RATE = 8000;
+    public static final int BYTES_PER_SAMPLE = 2;
+    public static final int FRAME_DURATION_MS = 20;
+    public static final int FRAME_SAMPLES = SAMPLE_RATE * FRAME_DURATION_MS / 1000;
+    public static final int FRAME_BYTES = FRAME_SAMPLES * BYTES_PER_SAMPLE;
+
+    private VoiceFormat() {
+    }
+
+    /**
+     * Converts {@code count} samples from little-endian PCM bytes, starting at {@code offset}.
+     */
+    public static void toSamples(byte[] bytes, int offset, short[] samples, int count) {
+        for (int i = 0; i < count; i++) {
+            int j = offset + i * BYTES_PER_SAMPLE;
+            samples[i] = (short) ((bytes[j] & 0xff) | (bytes[j + 1] << 8));
+        }
+    }
+
+    /**
+     * Converts {@code count} samples to little-endian PCM bytes, starting at {@code offset}.
+     */
+    public static void toBytes(short[] samples, int count, byte[] bytes, int offset) {
+        for (int i = 0; i < count; i++) {
+            int j = offset + i * BYTES_PER_SAMPLE;
+            bytes[j] = (byte) samples[i];
+            bytes[j + 1] = (byte) (samples[i] >> 8);
+        }
+    }
+}
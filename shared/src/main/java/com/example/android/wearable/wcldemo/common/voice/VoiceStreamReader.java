@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.voice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Reads the frames of a voice stream written by {@link VoiceStreamWriter}, decoding them with the
+ * codec named in the header of the stream. A stream that does not start with that header is read
+ * as raw PCM, which is what the recorder of the Wear Companion Library sends. Silence records are
+ * expanded back into as many frames of silence as they stand for, and timestamp records are made
+ * available, through {@link #getCaptureTimeMs()}, with the frame that follows them.
+ */
+public class VoiceStreamReader implements Closeable {
+
+    /**
+     * The codec of a stream without a header.
+     */
+    public static final int CODEC_RAW = -1;
+
+    private final PushbackInputStream mInputStream;
+    private final int mCodec;
+    private final byte[] mPayload = new byte[0xffff];
+    private int mPendingSilentFrames;
+    private long mPendingCaptureTimeMs = -1;
+    private long mCaptureTimeMs = -1;
+
+    public VoiceStreamReader(InputStream inputStream) throws IOException {
+        mInputStream = new PushbackInputStream(inputStream, VoiceStreamWriter.HEADER_BYTES);
+        byte[] header = new byte[VoiceStreamWriter.HEADER_BYTES];
+        int read = readUpTo(header, header.length);
+        if (read == header.length && hasMagic(header)) {
+            int version = header[VoiceStreamWriter.MAGIC.length];
+            if (version != VoiceStreamWriter.VERSION) {
+                throw new IOException("Unsupported voice stream version: " + version);
+            }
+            mCodec = header[VoiceStreamWriter.MAGIC.length + 1];
+            if (mCodec != VoiceStreamWriter.CODEC_PCM
+                    && mCodec != VoiceStreamWriter.CODEC_IMA_ADPCM) {
+                throw new IOException("Unsupported voice codec: " + mCodec);
+            }
+        } else {
+            mCodec = CODEC_RAW;
+            if (read > 0) {
+                mInputStream.unread(header, 0, read);
+            }
+        }
+    }
+
+    /**
+     * Returns the codec of the stream; one of {@link #CODEC_RAW},
+     * {@link VoiceStreamWriter#CODEC_PCM} or {@link VoiceStreamWriter#CODEC_IMA_ADPCM}.
+     */
+    public int getCodec() {
+        return mCodec;
+    }
+
+    /**
+     * Reads the next frame of {@link VoiceFormat#FRAME_SAMPLES} samples into {@code frame}.
+     *
+     * @return {@code false} if the stream has ended
+     */
+    public boolean readFrame(short[] frame) throws IOException {
+        mCaptureTimeMs = -1;
+        if (mPendingSilentFrames > 0) {
+            mPendingSilentFrames--;
+            fillSilence(frame);
+            return true;
+        }
+        if (mCodec == CODEC_RAW) {
+            if (!readFully(mPayload, VoiceFormat.FRAME_BYTES)) {
+                return false;
+            }
+            VoiceFormat.toSamples(mPayload, 0, frame, VoiceFormat.FRAME_SAMPLES);
+            return true;
+        }
+        while (true) {
+            int type = mInputStream.read();
+            if (type < 0) {
+                return false;
+            }
+            int high = mInputStream.read();
+            int low = mInputStream.read();
+            if (low < 0) {
+                return false;
+            }
+            int length = (high << 8) | low;
+            if (!readFully(mPayload, length)) {
+                return false;
+            }
+            if (type == VoiceStreamWriter.RECORD_AUDIO) {
+                decodeAudio(length, frame);
+                mCaptureTimeMs = mPendingCaptureTimeMs;
+                mPendingCaptureTimeMs = -1;
+                return true;
+            }
+            if (type == VoiceStreamWriter.RECORD_TIMESTAMP && length >= 8) {
+                long time = 0;
+                for (int i = 0; i < 8; i++) {
+                    time = (time << 8) | (mPayload[i] & 0xff);
+                }
+                mPendingCaptureTimeMs = time;
+                continue;
+            }
+            if (type == VoiceStreamWriter.RECORD_SILENCE && length >= 2) {
+                int frames = ((mPayload[0] & 0xff) << 8) | (mPayload[1] & 0xff);
+                if (frames > 0) {
+                    mPendingSilentFrames = frames - 1;
+                    fillSilence(frame);
+                    return true;
+                }
+                continue;
+            }
+            // records of a type that we do not know are skipped, so newer writers can add some
+        }
+    }
+
+    /**
+     * Returns the time that the frame last returned by {@link #readFrame(short[])} was captured,
+     * on the clock of the sender, or -1 if the stream did not say.
+     */
+    public long getCaptureTimeMs() {
+        return mCaptureTimeMs;
+    }
+
+    /**
+     * Returns the number of frames that are left from the last record that was read; these are
+     * returned by {@link #readFrame(short[])} without reading from the stream.
+     */
+    public int getQueuedFrames() {
+        return mPendingSilentFrames;
+    }
+
+    private static void fillSilence(short[] frame) {
+        for (int i = 0; i < VoiceFormat.FRAME_SAMPLES; i++) {
+            frame[i] = 0;
+        }
+    }
+
+    private void decodeAudio(int length, short[] frame) throws IOException {
+        if (mCodec == VoiceStreamWriter.CODEC_IMA_ADPCM) {
+            if (length < ImaAdpcm.encodedSize(VoiceFormat.FRAME_SAMPLES)) {
+                throw new IOException("Truncated ADPCM frame: " + length + " bytes");
+            }
+            ImaAdpcm.decode(mPayload, 0, VoiceFormat.FRAME_SAMPLES, frame);
+        } else {
+            if (length < VoiceFormat.FRAME_BYTES) {
+                throw new IOException("Truncated PCM frame: " + length + " bytes");
+            }
+            VoiceFormat.toSamples(mPayload, 0, frame, VoiceFormat.FRAME_SAMPLES);
+        }
+    }
+
+    private static boolean hasMagic(byte[] header) {
+        for (int i = 0; i < VoiceStreamWriter.MAGIC.length; i++) {
+            if (header[i] != VoiceStreamWriter.MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readUpTo(byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = mInputStream.read(buffer, offset, length - offset);
+            if (read < 0) {
+                break;
+            }
+            offset += read;
+        }
+        return offset;
+    }
+
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        return readUpTo(buffer, length) == length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInputStream.close();
+    }
+}
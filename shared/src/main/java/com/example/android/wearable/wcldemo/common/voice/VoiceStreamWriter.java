@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.voice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a voice stream: a header that names the codec, followed by one record per frame. Each
+ * record is a type byte, a 2-byte length and the payload, and is written to the underlying stream
+ * in a single call so that it leaves the device as soon as it is ready. A run of silent frames can
+ * be sent as a single silence record that only holds the number of frames. To measure the latency
+ * of the stream, a timestamp record can be written before a frame with the time it was captured.
+ *
+ * @see VoiceStreamReader
+ */
+public class VoiceStreamWriter implements Closeable {
+
+    static final byte[] MAGIC = {'W', 'C', 'V'};
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = MAGIC.length + 2;
+    static final int RECORD_HEADER_BYTES = 3;
+
+    public static final int CODEC_PCM = 0;
+    public static final int CODEC_IMA_ADPCM = 1;
+
+    static final int RECORD_AUDIO = 1;
+    static final int RECORD_SILENCE = 2;
+    static final int RECORD_TIMESTAMP = 3;
+
+    /**
+     * The longest run of silence that fits in one silence record.
+     */
+    public static final int MAX_SILENCE_FRAMES = 0xffff;
+
+    private final OutputStream mOutputStream;
+    private final int mCodec;
+    private final ImaAdpcm.State mAdpcmState = new ImaAdpcm.State();
+    private final byte[] mRecord;
+
+    /**
+     * Writes the header of the stream to {@code outputStream}.
+     *
+     * @param codec One of {@link #CODEC_PCM} or {@link #CODEC_IMA_ADPCM}
+     */
+    public VoiceStreamWriter(OutputStream outputStream, int codec) throws IOException {
+        if (codec != CODEC_PCM && codec != CODEC_IMA_ADPCM) {
+            throw new IllegalArgumentException("Unknown codec: " + codec);
+        }
+        mOutputStream = outputStream;
+        mCodec = codec;
+        mRecord = new byte[RECORD_HEADER_BYTES + VoiceFormat.FRAME_BYTES];
+        byte[] header = new byte[HEADER_BYTES];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[MAGIC.length] = VERSION;
+        header[MAGIC.length + 1] = (byte) codec;
+        mOutputStream.write(header);
+    }
+
+    /**
+     * Encodes and writes a frame of {@link VoiceFormat#FRAME_SAMPLES} samples.
+     */
+    public void writeFrame(short[] frame) throws IOException {
+        int length;
+        if (mCodec == CODEC_IMA_ADPCM) {
+            length = ImaAdpcm.encode(frame, VoiceFormat.FRAME_SAMPLES, mRecord,
+                    RECORD_HEADER_BYTES, mAdpcmState);
+        } else {
+            VoiceFormat.toBytes(frame, VoiceFormat.FRAME_SAMPLES, mRecord, RECORD_HEADER_BYTES);
+            length = VoiceFormat.FRAME_BYTES;
+        }
+        writeRecord(RECORD_AUDIO, length);
+    }
+
+    /**
+     * Writes a silence record that stands for {@code frames} frames of silence, at most
+     * {@link #MAX_SILENCE_FRAMES}.
+     */
+    public void writeSilence(int frames) throws IOException {
+        if (frames <= 0 || frames > MAX_SILENCE_FRAMES) {
+            throw new IllegalArgumentException("Invalid number of silent frames: " + frames);
+        }
+        mRecord[RECORD_HEADER_BYTES] = (byte) (frames >> 8);
+        mRecord[RECORD_HEADER_BYTES + 1] = (byte) frames;
+        writeRecord(RECORD_SILENCE, 2);
+    }
+
+    /**
+     * Writes a timestamp record with the time, on the clock of this device, that the next frame
+     * started to be captured.
+     */
+    public void writeTimestamp(long captureTimeMs) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            mRecord[RECORD_HEADER_BYTES + i] = (byte) (captureTimeMs >> (56 - 8 * i));
+        }
+        writeRecord(RECORD_TIMESTAMP, 8);
+    }
+
+    private void writeRecord(int type, int length) throws IOException {
+        mRecord[0] = (byte) type;
+        mRecord[1] = (byte) (length >> 8);
+        mRecord[2] = (byte) length;
+        mOutputStream.write(mRecord, 0, RECORD_HEADER_BYTES + length);
+    }
+
+    public int getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mOutputStream.close();
+    }
+}
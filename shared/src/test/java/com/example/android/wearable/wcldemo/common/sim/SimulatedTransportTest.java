@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.sim;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableStatusCodes;
+import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
+import com.google.devrel.wcl.connectivity.WearHttpHelper;
+
+import com.example.android.wearable.wcldemo.common.WearTransport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs what the app sends through a {@link SimulatedTransport}, on the plain JVM, and checks that
+ * it crosses the simulated links the way it would cross real ones.
+ */
+public class SimulatedTransportTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final LinkProfile LINK = new LinkProfile(10000, 50, 0);
+
+    // the losses are drawn from a fixed seed; the first packet of the first node is lost
+    private static final LinkProfile LOSSY_LINK = new LinkProfile(10000, 50, 0.99);
+
+    // the links and the test both read System.nanoTime() in whole milliseconds, so the start and
+    // the end of a delay can each be up to a millisecond off
+    private static final long CLOCK_SLACK_MS = 2;
+
+    private final NodeSimulator mSimulator = new NodeSimulator();
+    private final SimulatedTransport mTransport = new SimulatedTransport(mSimulator);
+    private final BlockingQueue<Object> mReceived = new LinkedBlockingQueue<>();
+
+    @After
+    public void tearDown() {
+        mSimulator.shutdown();
+    }
+
+    @Test
+    public void messageCrossesTheLink() throws InterruptedException {
+        SimulatedNode node = mSimulator.addNodes(1, LINK).get(0);
+        mSimulator.setPeer(new NodeSimulator.Peer() {
+            @Override
+            public void onMessageReceived(SimulatedNode node, String path, byte[] data) {
+                mReceived.add(path);
+            }
+        });
+        BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+
+        long start = System.nanoTime();
+        mTransport.sendMessage(node.getId(), "/path", new byte[10], callback(results));
+
+        assertEquals("/path", poll(mReceived));
+        assertEquals(WearableStatusCodes.SUCCESS, (int) poll(results));
+        assertTrue(elapsedMs(start) >= LINK.getLatencyMs() - CLOCK_SLACK_MS);
+    }
+
+    @Test
+    public void lostMessageFails() throws InterruptedException {
+        SimulatedNode node = mSimulator.addNodes(1, LOSSY_LINK).get(0);
+        BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+
+        mTransport.sendMessage(node.getId(), "/path", new byte[10], callback(results));
+
+        assertEquals(WearableStatusCodes.TARGET_NODE_NOT_CONNECTED, (int) poll(results));
+    }
+
+    @Test
+    public void messageToUnknownNodeFails() throws InterruptedException {
+        BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+
+        mTransport.sendMessage("nobody", "/path", new byte[10], callback(results));
+
+        assertEquals(WearableStatusCodes.TARGET_NODE_NOT_CONNECTED, (int) poll(results));
+    }
+
+    @Test
+    public void messageFromNodeReachesTheConsumers() throws InterruptedException {
+        SimulatedNode node = mSimulator.addNodes(1, LINK).get(0);
+        mTransport.addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableMessageReceived(MessageEvent messageEvent) {
+                mReceived.add(messageEvent.getSourceNodeId() + messageEvent.getPath());
+            }
+        });
+
+        mSimulator.sendMessage(node, "/path", new byte[10]);
+
+        assertEquals(node.getId() + "/path", poll(mReceived));
+    }
+
+    @Test
+    public void httpRequestIsAnsweredByThePeer() throws InterruptedException {
+        SimulatedNode node = mSimulator.addNodes(1, LINK).get(0);
+        mSimulator.setPeer(new NodeSimulator.Peer() {
+            @Override
+            public String onHttpRequest(SimulatedNode node, String url) {
+                return "response to " + url;
+            }
+        });
+
+        long start = System.nanoTime();
+        mTransport.makeHttpRequest("http://example.com", node.getId(),
+                WearTransport.DEFAULT_HTTP_TIMEOUT_MS, httpListener());
+
+        assertEquals(HttpURLConnection.HTTP_OK + " response to http://example.com",
+                poll(mReceived));
+        // the request and the response both cross the link
+        assertTrue(elapsedMs(start) >= 2 * LINK.getLatencyMs() - CLOCK_SLACK_MS);
+    }
+
+    @Test
+    public void httpRequestTimesOut() throws InterruptedException {
+        SimulatedNode node = mSimulator.addNodes(1, LOSSY_LINK).get(0);
+
+        mTransport.makeHttpRequest("http://example.com", node.getId(), 100, httpListener());
+
+        assertEquals(WearHttpHelper.ERROR_TIMEOUT + " null", poll(mReceived));
+    }
+
+    @Test
+    public void httpRequestNeedsTheConnection() {
+        SimulatedNode node = mSimulator.addNodes(1, LINK).get(0);
+        mTransport.setConnected(false);
+        try {
+            mTransport.makeHttpRequest("http://example.com", node.getId(),
+                    WearTransport.DEFAULT_HTTP_TIMEOUT_MS, httpListener());
+            fail("The request was made while disconnected");
+        } catch (IllegalStateException e) {
+            // expected, as with the WearHttpHelper
+        }
+    }
+
+    @Test
+    public void streamIsPacedByTheLink() throws InterruptedException, IOException {
+        SimulatedNode node = mSimulator.addNodes(1, LINK).get(0);
+        mSimulator.setPeer(new NodeSimulator.Peer() {
+            @Override
+            public void onStreamReceived(SimulatedNode node, String requestId, byte[] content) {
+                mReceived.add(content);
+            }
+        });
+        final BlockingQueue<OutputStream> streams = new LinkedBlockingQueue<>();
+        mTransport.openOutputStream(node, "stream", new WearTransport.OutputStreamListener() {
+            @Override
+            public void onOutputStreamReady(int statusCode, String path,
+                    OutputStream outputStream) {
+                streams.add(outputStream);
+            }
+        });
+        OutputStream outputStream = poll(streams);
+        byte[] content = new byte[LINK.getBytesPerSecond() / 2];
+        Arrays.fill(content, (byte) 7);
+
+        long start = System.nanoTime();
+        outputStream.write(content);
+        outputStream.close();
+
+        assertTrue(elapsedMs(start) >= 500 - CLOCK_SLACK_MS);
+        assertTrue(Arrays.equals(content, (byte[]) poll(mReceived)));
+    }
+
+    @Test
+    public void fileReachesThePeer() throws InterruptedException, IOException {
+        SimulatedNode node = mSimulator.addNodes(1, LINK).get(0);
+        mSimulator.setPeer(new NodeSimulator.Peer() {
+            @Override
+            public void onFileReceived(SimulatedNode node, File file, String targetName) {
+                mReceived.add(targetName);
+            }
+        });
+        final BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+        mTransport.addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableSendFileResult(int statusCode, String requestId) {
+                results.add(statusCode);
+            }
+        });
+        File file = File.createTempFile("transfer", ".txt");
+        try {
+            mTransport.sendFile(node, file, "target.txt");
+
+            assertEquals("target.txt", poll(mReceived));
+            assertEquals(WearableStatusCodes.SUCCESS, (int) poll(results));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void fileFailsAfterTooManyLosses() throws InterruptedException, IOException {
+        SimulatedNode node = mSimulator.addNodes(1, LOSSY_LINK).get(0);
+        final BlockingQueue<Integer> results = new LinkedBlockingQueue<>();
+        mTransport.addWearConsumer(new AbstractWearConsumer() {
+            @Override
+            public void onWearableSendFileResult(int statusCode, String requestId) {
+                results.add(statusCode);
+            }
+        });
+        File file = File.createTempFile("transfer", ".txt");
+        try {
+            mTransport.sendFile(node, file, "target.txt");
+
+            assertEquals(WearableStatusCodes.TARGET_NODE_NOT_CONNECTED, (int) poll(results));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private WearHttpHelper.OnHttpResponseListener httpListener() {
+        return new WearHttpHelper.OnHttpResponseListener() {
+            @Override
+            public void onHttpResponseReceived(String requestId, int status, String response) {
+                mReceived.add(status + " " + response);
+            }
+        };
+    }
+
+    private static ResultCallback<MessageApi.SendMessageResult> callback(
+            final BlockingQueue<Integer> results) {
+        return new ResultCallback<MessageApi.SendMessageResult>() {
+            @Override
+            public void onResult(MessageApi.SendMessageResult result) {
+                results.add(result.getStatus().getStatusCode());
+            }
+        };
+    }
+
+    private static <T> T poll(BlockingQueue<T> queue) throws InterruptedException {
+        T item = queue.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(item);
+        return item;
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
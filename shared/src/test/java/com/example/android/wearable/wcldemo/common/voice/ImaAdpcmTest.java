@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.common.voice;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Round-trips voice through the IMA-ADPCM codec and the voice stream format, and checks that the
+ * quality of the codec stays where the streaming relies on it to be.
+ */
+public class ImaAdpcmTest {
+
+    // the stream carries a few seconds of a voice-like signal
+    private static final int FRAMES = 250;
+
+    // what a 4-bit ADPCM coder gives on such a signal is about 25dB; below 20dB, voice is
+    // noticeably degraded
+    private static final double MIN_SNR_DB = 20;
+
+    @Test
+    public void roundTripKeepsTheSignal() throws IOException {
+        short[][] frames = voiceFrames(FRAMES);
+        short[][] decoded = roundTrip(frames, VoiceStreamWriter.CODEC_IMA_ADPCM);
+
+        double snr = snrDb(frames, decoded);
+        assertTrue("SNR too low: " + snr + "dB", snr >= MIN_SNR_DB);
+    }
+
+    @Test
+    public void pcmRoundTripIsLossless() throws IOException {
+        short[][] frames = voiceFrames(FRAMES);
+        short[][] decoded = roundTrip(frames, VoiceStreamWriter.CODEC_PCM);
+
+        for (int i = 0; i < FRAMES; i++) {
+            for (int j = 0; j < VoiceFormat.FRAME_SAMPLES; j++) {
+                assertEquals(frames[i][j], decoded[i][j]);
+            }
+        }
+    }
+
+    @Test
+    public void blocksDecodeOnTheirOwn() {
+        short[][] frames = voiceFrames(FRAMES);
+        ImaAdpcm.State state = new ImaAdpcm.State();
+        byte[] block = new byte[ImaAdpcm.encodedSize(VoiceFormat.FRAME_SAMPLES)];
+        short[] decoded = new short[VoiceFormat.FRAME_SAMPLES];
+        // encode every frame, but only decode the last one, as if all the others were lost
+        for (short[] frame : frames) {
+            ImaAdpcm.encode(frame, VoiceFormat.FRAME_SAMPLES, block, 0, state);
+        }
+        ImaAdpcm.decode(block, 0, VoiceFormat.FRAME_SAMPLES, decoded);
+
+        double snr = snrDb(new short[][] {frames[FRAMES - 1]}, new short[][] {decoded});
+        assertTrue("SNR too low: " + snr + "dB", snr >= MIN_SNR_DB);
+    }
+
+    @Test
+    public void silenceSurvivesTheStream() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VoiceStreamWriter writer = new VoiceStreamWriter(out, VoiceStreamWriter.CODEC_IMA_ADPCM);
+        short[][] frames = voiceFrames(1);
+        writer.writeFrame(frames[0]);
+        writer.writeSilence(3);
+        writer.close();
+
+        VoiceStreamReader reader = new VoiceStreamReader(
+                new ByteArrayInputStream(out.toByteArray()));
+        short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+        assertTrue(reader.readFrame(frame));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(reader.readFrame(frame));
+            for (short sample : frame) {
+                assertEquals(0, sample);
+            }
+        }
+        assertFalse(reader.readFrame(frame));
+    }
+
+    private static short[][] roundTrip(short[][] frames, int codec) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VoiceStreamWriter writer = new VoiceStreamWriter(out, codec);
+        for (short[] frame : frames) {
+            writer.writeFrame(frame);
+        }
+        writer.close();
+
+        VoiceStreamReader reader = new VoiceStreamReader(
+                new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(codec, reader.getCodec());
+        short[][] decoded = new short[frames.length][VoiceFormat.FRAME_SAMPLES];
+        for (short[] frame : decoded) {
+            assertTrue(reader.readFrame(frame));
+        }
+        assertFalse(reader.readFrame(new short[VoiceFormat.FRAME_SAMPLES]));
+        return decoded;
+    }
+
+    /**
+     * A few harmonics of a pitch that glides, with a slowly changing loudness, which is close
+     * enough to voice for the codec.
+     */
+    private static short[][] voiceFrames(int count) {
+        short[][] frames = new short[count][VoiceFormat.FRAME_SAMPLES];
+        double phase = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < VoiceFormat.FRAME_SAMPLES; j++) {
+                double t = (double) (i * VoiceFormat.FRAME_SAMPLES + j) / VoiceFormat.SAMPLE_RATE;
+                double pitch = 150 + 50 * Math.sin(2 * Math.PI * 0.5 * t);
+                phase += 2 * Math.PI * pitch / VoiceFormat.SAMPLE_RATE;
+                double envelope = 0.6 + 0.4 * Math.sin(2 * Math.PI * 2 * t);
+                double sample = 0;
+                for (int harmonic = 1; harmonic <= 8; harmonic++) {
+                    sample += Math.sin(harmonic * phase) / harmonic;
+                }
+                frames[i][j] = (short) (6000 * envelope * sample);
+            }
+        }
+        return frames;
+    }
+
+    private static double snrDb(short[][] expected, short[][] actual) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int j = 0; j < VoiceFormat.FRAME_SAMPLES; j++) {
+                double error = expected[i][j] - actual[i][j];
+                signal += (double) expected[i][j] * expected[i][j];
+                noise += error * error;
+            }
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+}
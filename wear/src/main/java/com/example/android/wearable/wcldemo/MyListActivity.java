@@ -28,11 +28,16 @@ import com.google.devrel.wcl.widgets.list.AbstractWearableListViewActivity;
 import com.google.devrel.wcl.widgets.list.WearableListConfig;
 
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.StartupTrace;
+import com.example.android.wearable.wcldemo.common.metrics.FlowTimer;
 import com.example.android.wearable.wcldemo.pages.DataExchangeActivity;
 import com.example.android.wearable.wcldemo.pages.FileTransferActivity;
+import com.example.android.wearable.wcldemo.pages.MetricsActivity;
 import com.example.android.wearable.wcldemo.pages.StockActivity;
 import com.example.android.wearable.wcldemo.pages.StreamingVoiceActivity;
 
+import java.util.Arrays;
+
 /**
  * The entry point to the application. This activity also serves as a demo of the
  * {@link AbstractWearableListViewActivity}; clients need to only implement two methods in this
@@ -49,6 +54,7 @@ public class MyListActivity extends AbstractWearableListViewActivity {
     private static final String TAG = "MyListActivity";
     private static final int REQUEST_CODE_LIST_DIALOG = 1;
     private static final String MOBILE_APP_CAPABILITY = "mobile_application";
+    private static final String EXTRA_BENCHMARK_RUNS = "benchmark_runs";
     private WearManager mWearManager;
     private static final String MOBILE_APP_ACTIVITY_NAME
             = "com.example.android.wearable.wcldemo.MobileMainActivity";
@@ -56,7 +62,29 @@ public class MyListActivity extends AbstractWearableListViewActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTrace.traceFirstFrame(getWindow().getDecorView());
         mWearManager = WearManager.getInstance();
+        if (BuildConfig.DEBUG && getIntent().hasExtra(EXTRA_BENCHMARK_RUNS)) {
+            benchmarkConfiguration(getIntent().getIntExtra(EXTRA_BENCHMARK_RUNS, 0));
+        }
+    }
+
+    /**
+     * Builds the configuration of the list {@code runs} times and logs how long it takes and how
+     * much it allocates; the time to the first frame of the list is logged by the
+     * {@link StartupTrace}. Only available in debug builds:
+     * {@code adb shell am start -W -n <package>/.MyListActivity --ei benchmark_runs 50}.
+     */
+    private void benchmarkConfiguration(int runs) {
+        FlowTimer timer = new FlowTimer("getConfiguration()");
+        FlowTimer.startAllocCounting();
+        for (int i = 0; i < runs; i++) {
+            timer.start();
+            getConfiguration();
+            timer.stop();
+        }
+        FlowTimer.stopAllocCounting();
+        Log.i(TAG, timer.getSummary());
     }
 
     @Override // AbstractWearableListViewActivity
@@ -81,6 +109,9 @@ public class MyListActivity extends AbstractWearableListViewActivity {
             case 5:
                 launchMobileApp();
                 break;
+            case 6:
+                showActivity(MetricsActivity.class);
+                break;
         }
     }
 
@@ -104,6 +135,13 @@ public class MyListActivity extends AbstractWearableListViewActivity {
                 R.drawable.ic_mic_24dp,
                 R.drawable.ic_phone_android_24dp
         };
+        if (BuildConfig.DEBUG) {
+            // the metrics page is only for debugging, so it is the last item
+            data = Arrays.copyOf(data, data.length + 1);
+            data[data.length - 1] = getString(R.string.metrics);
+            icons = Arrays.copyOf(icons, icons.length + 1);
+            icons[icons.length - 1] = R.drawable.ic_assessment_24dp;
+        }
         // we build a configuration object that allows us to show a list of items where each row
         // is represented by a different icon. We also turn on the ambient mode for this page.
         return new WearableListConfig.Builder(data)
@@ -127,7 +165,7 @@ public class MyListActivity extends AbstractWearableListViewActivity {
                 .setIcon(R.drawable.ic_person_24dp) // here we use the same icon for all rows
                 .setCheckable(true) // we declare that we can have "checked" state
                 .build();
-        WearApplication.sendNavMessage(Constants.TARGET_LIST_DIALOG);
+        WearApplication.setPage(Constants.TARGET_LIST_DIALOG);
         WearManager.getInstance().showWearableList(this, config);
     }
 
@@ -172,6 +210,6 @@ public class MyListActivity extends AbstractWearableListViewActivity {
     @Override
     protected void onResume() {
         super.onResume();
-        WearApplication.sendNavMessage(Constants.TARGET_LIST);
+        WearApplication.setPage(Constants.TARGET_LIST);
     }
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Node;
+import com.google.devrel.wcl.connectivity.WearHttpHelper;
+
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A durable queue for the requests that the watch wants to send to the phone while the phone is not
+ * reachable. Each entry is identified by a key; enqueuing an entry with the same key replaces the
+ * older one, so a user who taps "Get Price" a few times while disconnected ends up with one
+ * request. Entries expire after their time-to-live and the whole queue is written to a small binary
+ * file so it survives the process being killed.
+ *
+ * <p>The queue is flushed, as one batch, every time the {@link NodeDirectory} has been updated,
+ * say when a peer connects or the phone starts to provide a capability, so the flush sees the
+ * nodes that caused it. Entries that still have no node to go to stay in the queue for the next
+ * flush; the ones that fail to go out are tried again later, backing off each time.
+ */
+public class OutboundQueue {
+
+    private static final String TAG = "OutboundQueue";
+    private static final String FILE_NAME = "outbound_queue";
+    // version 1 also had a kind and a payload for each entry, but only http requests were queued
+    private static final int FILE_VERSION = 2;
+
+    private static final long RETRY_DELAY_MS = 2000;
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    private final AtomicFile mFile;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // all reads and writes of the entries happen on this thread
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>();
+
+    // the flush that is scheduled for the next entry that waits to be retried, if any
+    private ScheduledFuture<?> mRetryFlush;
+    private long mRetryFlushAt;
+
+    private final List<PendingResponse> mUndeliveredResponses = new ArrayList<>();
+    private WearHttpHelper.OnHttpResponseListener mHttpResponseListener;
+
+    // delivers the responses of the queued http requests to the current listener, if any
+    private final WearHttpHelper.OnHttpResponseListener mResponseListener
+            = new WearHttpHelper.OnHttpResponseListener() {
+        @Override
+        public void onHttpResponseReceived(String requestId, int status, String response) {
+            WearHttpHelper.OnHttpResponseListener listener;
+            synchronized (mUndeliveredResponses) {
+                listener = mHttpResponseListener;
+                if (listener == null) {
+                    mUndeliveredResponses.add(new PendingResponse(requestId, status, response));
+                    return;
+                }
+            }
+            listener.onHttpResponseReceived(requestId, status, response);
+        }
+    };
+
+    public OutboundQueue(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+        NodeDirectory.getInstance().addListener(new NodeDirectory.Listener() {
+            @Override
+            public void onNodesChanged() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Queues an http GET request to be made by a nearby node that provides {@code capability}.
+     * The response is delivered to the listener that is set by
+     * {@link #setHttpResponseListener(WearHttpHelper.OnHttpResponseListener)}.
+     */
+    public void enqueueHttpRequest(String key, String capability, String url, long ttlMillis) {
+        long now = System.currentTimeMillis();
+        enqueue(new Entry(key, capability, url, now + ttlMillis));
+    }
+
+    /**
+     * Sets the listener for the responses of the queued http requests. Responses that arrived while
+     * there was no listener are delivered to the new listener right away. Pass {@code null} to
+     * remove the current listener.
+     */
+    public void setHttpResponseListener(
+            @Nullable WearHttpHelper.OnHttpResponseListener listener) {
+        List<PendingResponse> pending;
+        synchronized (mUndeliveredResponses) {
+            mHttpResponseListener = listener;
+            if (listener == null || mUndeliveredResponses.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<>(mUndeliveredResponses);
+            mUndeliveredResponses.clear();
+        }
+        for (PendingResponse response : pending) {
+            listener.onHttpResponseReceived(response.requestId, response.status,
+                    response.response);
+        }
+    }
+
+    /**
+     * Sends every queued entry that has a node to go to, drops the expired ones and persists what
+     * is left.
+     */
+    public void flush() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushInternal();
+            }
+        });
+    }
+
+    private void enqueue(final Entry entry) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mEntries.remove(entry.key);
+                mEntries.put(entry.key, entry);
+                save();
+                if (WearTransport.getInstance().isConnected()) {
+                    flushInternal();
+                }
+            }
+        });
+    }
+
+    private void flushInternal() {
+        if (mEntries.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        NodeDirectory nodeDirectory = NodeDirectory.getInstance();
+        int sent = 0;
+        long nextRetryAt = Long.MAX_VALUE;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.expiresAt <= now) {
+                Log.d(TAG, "Dropping expired entry: " + entry.key);
+                iterator.remove();
+                continue;
+            }
+            if (entry.retryAt > now) {
+                nextRetryAt = Math.min(nextRetryAt, entry.retryAt);
+                continue;
+            }
+            Node node = nodeDirectory.getNearbyNodeForCapability(entry.capability);
+            if (node == null) {
+                continue;
+            }
+            makeHttpRequest(entry, node.getId());
+            iterator.remove();
+            sent++;
+        }
+        Log.d(TAG, "Flushed " + sent + " entries, " + mEntries.size() + " left in the queue");
+        save();
+        if (nextRetryAt != Long.MAX_VALUE) {
+            scheduleRetryFlush(nextRetryAt, now);
+        }
+    }
+
+    private void scheduleRetryFlush(long retryAt, long now) {
+        if (mRetryFlush != null && !mRetryFlush.isDone() && mRetryFlushAt <= retryAt) {
+            return;
+        }
+        if (mRetryFlush != null) {
+            mRetryFlush.cancel(false);
+        }
+        mRetryFlushAt = retryAt;
+        mRetryFlush = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flushInternal();
+            }
+        }, retryAt - now, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Puts back an entry that failed to go out, to be tried again after a delay that doubles
+     * with each attempt. It is dropped if a newer entry with the same key has been queued since.
+     */
+    private void retry(final Entry entry) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mEntries.containsKey(entry.key)) {
+                    Log.d(TAG, "Not retrying " + entry.key + ", a newer one is queued");
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                long delay = Math.min(MAX_RETRY_DELAY_MS,
+                        RETRY_DELAY_MS << Math.min(entry.attempts, 16));
+                Entry retry = entry.retryAt(now + delay);
+                if (retry.retryAt >= retry.expiresAt) {
+                    Log.d(TAG, "Dropping " + entry.key + ", it would expire before the retry");
+                    return;
+                }
+                Log.d(TAG, "Retrying " + entry.key + " in " + delay + " ms");
+                mEntries.put(entry.key, retry);
+                save();
+                scheduleRetryFlush(retry.retryAt, now);
+            }
+        });
+    }
+
+    private void makeHttpRequest(final Entry entry, final String nodeId) {
+        // the http requests have to be made on a thread with a looper
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    WearTransport.getInstance().makeHttpRequest(entry.url, nodeId,
+                            WearTransport.DEFAULT_HTTP_TIMEOUT_MS, mResponseListener);
+                } catch (IllegalStateException e) {
+                    Log.e(TAG, "No Api Client Connection, re-queuing " + entry.key);
+                    retry(entry);
+                }
+            }
+        });
+    }
+
+    private void load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != FILE_VERSION) {
+                Log.w(TAG, "Ignoring a queue file with an unknown version");
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                String capability = in.readUTF();
+                String url = in.readUTF();
+                long expiresAt = in.readLong();
+                mEntries.put(key, new Entry(key, capability, url, expiresAt));
+            }
+            Log.d(TAG, "Loaded " + count + " queued entries");
+        } catch (FileNotFoundException e) {
+            // nothing has been queued yet
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read the queue, dropping it", e);
+            mEntries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void save() {
+        FileOutputStream fos = null;
+        try {
+            fos = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(fos);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> mapEntry : mEntries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(entry.key);
+                out.writeUTF(entry.capability);
+                out.writeUTF(entry.url);
+                out.writeLong(entry.expiresAt);
+            }
+            out.flush();
+            mFile.finishWrite(fos);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist the queue", e);
+            if (fos != null) {
+                mFile.failWrite(fos);
+            }
+        }
+    }
+
+    /**
+     * A queued http request. The attempts and the time of the next one are not persisted; after a
+     * restart, the entries are tried right away.
+     */
+    private static class Entry {
+
+        final String key;
+        final String capability;
+        final String url;
+        final long expiresAt;
+        final int attempts;
+        final long retryAt;
+
+        Entry(String key, String capability, String url, long expiresAt) {
+            this(key, capability, url, expiresAt, 0, 0);
+        }
+
+        private Entry(String key, String capability, String url, long expiresAt, int attempts,
+                long retryAt) {
+            this.key = key;
+            this.capability = capability;
+            this.url = url;
+            this.expiresAt = expiresAt;
+            this.attempts = attempts;
+            this.retryAt = retryAt;
+        }
+
+        /**
+         * Returns this entry, counted as one more attempt, to be tried again at {@code retryAt}.
+         */
+        Entry retryAt(long retryAt) {
+            return new Entry(key, capability, url, expiresAt, attempts + 1, retryAt);
+        }
+    }
+
+    private static class PendingResponse {
+
+        final String requestId;
+        final int status;
+        final String response;
+
+        PendingResponse(String requestId, int status, String response) {
+            this.requestId = requestId;
+            this.status = status;
+            this.response = response;
+        }
+    }
+}
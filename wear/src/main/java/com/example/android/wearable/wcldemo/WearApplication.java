@@ -18,48 +18,113 @@ package com.example.android.wearable.wcldemo;
 
 import android.app.Application;
 
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.Node;
 import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.filters.NearbyFilter;
 
+import com.example.android.wearable.wcldemo.common.ClockSync;
 import com.example.android.wearable.wcldemo.common.Constants;
-
-import java.util.Set;
+import com.example.android.wearable.wcldemo.common.MessageDispatcher;
+import com.example.android.wearable.wcldemo.common.NavigationChannel;
+import com.example.android.wearable.wcldemo.common.NavigationState;
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.common.StartupPipeline;
+import com.example.android.wearable.wcldemo.common.StartupTrace;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
 
 /**
  * The application instance for the wear app. We need to initialize the {@link WearManager} in the
  * {@link #onCreate()} method of the application instance to make sure it is available before any
- * other component of the application has been instantiated.
+ * other component of the application has been instantiated. The rest of the set up that reads from
+ * the disk is done in the background, by a {@link StartupPipeline}, so it does not hold up the
+ * first frame of the list.
+ *
+ * <p>The transport, and what is built on it (the dispatcher, the node directory, the outbound
+ * queue and the navigation state and channel), stay in {@link #onCreate()}: the pages reach them
+ * from their own {@code onCreate()}, and none of them blocks, since the Wearable API connects
+ * asynchronously. What no page reads while it is created waits for the pipeline to be ready.
  */
 public class WearApplication extends Application {
 
+    private static OutboundQueue sOutboundQueue;
+    private static NavigationState sNavigationState;
+    private static NavigationChannel sNavigationChannel;
+    private static StartupPipeline sStartupPipeline;
+
+    // the capabilities of the phone that the watch routes by; the phone advertises most of them
+    // only while the page that handles them is showing, so their changes have to be watched
+    private static final String[] WATCHED_CAPABILITIES = new String[]{
+            Constants.CAPABILITY_FILE_PROCESSOR,
+            Constants.CAPABILITY_HTTP_HANDLER,
+            Constants.CAPABILITY_VOICE_PROCESSING,
+            Constants.CAPABILITY_VOICE_CODEC_ADPCM,
+            Constants.CAPABILITY_VOICE_SILENCE,
+            Constants.CAPABILITY_VOICE_TIMESTAMPS
+    };
+
     @Override
     public void onCreate() {
         super.onCreate();
-        WearManager.initialize(this);
+        StartupTrace.begin();
+        if (BuildConfig.DEBUG) {
+            Tracer.getInstance().enable("watch");
+        }
+        sStartupPipeline = new StartupPipeline();
+        // the pages use the transport and the components below as soon as they are created, so
+        // they cannot wait for the pipeline; none of them blocks
+        WearTransport.initialize(this, WATCHED_CAPABILITIES);
+        StartupTrace.traceWearManager();
+        MessageDispatcher.initialize();
+        NodeDirectory.initialize(WATCHED_CAPABILITIES);
+        sOutboundQueue = new OutboundQueue(this);
+        sNavigationState = new NavigationState(this, NavigationState.STATE_PATH_WEAR,
+                Constants.NAVIGATION_PATH_MOBILE, NavigationState.STATE_PATH_MOBILE);
+        sStartupPipeline.runInBackground("NavigationState", new Runnable() {
+            @Override
+            public void run() {
+                sNavigationState.preload();
+            }
+        });
+        sNavigationChannel = new NavigationChannel(this, Constants.NAVIGATION_PATH_WEAR,
+                sNavigationState);
+        sStartupPipeline.finish();
+        // the phone only pings while it streams voice, which is never this early
+        sStartupPipeline.whenReady(new Runnable() {
+            @Override
+            public void run() {
+                ClockSync.startResponder();
+            }
+        });
     }
 
     /**
-     * A helper method to send a message to the nearby nodes with the information about the pages
-     * that are being opened as we navigate through this app. This information is used on the
-     * "Data Exchange" demo page.
+     * Records the page that is being opened as we navigate through this app; the nearby nodes are
+     * informed through a debounced message. This information is used on the "Data Exchange" demo
+     * page.
      */
-    public static void sendNavMessage(int page) {
-        WearManager wearManager = WearManager.getInstance();
-        Set<Node> nodes = wearManager.getConnectedNodes();
-        if (nodes == null) {
-            return;
-        }
-        Set<Node> nearbyNodes = new NearbyFilter().filterNodes(nodes);
-        DataMap dataMap = new DataMap();
-        dataMap.putInt(Constants.KEY_PAGE, page);
-        for(Node node : nearbyNodes) {
-            wearManager.sendMessage(node.getId(), Constants.NAVIGATION_PATH_WEAR, dataMap, null);
-        }
+    public static void setPage(int page) {
+        sNavigationChannel.setPage(page);
     }
 
-    public static void setPage(int page) {
-        sendNavMessage(page);
+    /**
+     * Returns the navigation state of this device and of the paired phones.
+     */
+    public static NavigationState getNavigationState() {
+        return sNavigationState;
+    }
+
+    /**
+     * Returns the pipeline that finishes the set up of the app in the background; the features
+     * that need it done wait for it to be ready.
+     */
+    public static StartupPipeline getStartupPipeline() {
+        return sStartupPipeline;
+    }
+
+    /**
+     * Returns the queue that holds the requests that could not be sent while the phone was not
+     * reachable.
+     */
+    public static OutboundQueue getOutboundQueue() {
+        return sOutboundQueue;
     }
 }
@@ -21,14 +21,12 @@ import android.support.wearable.activity.WearableActivity;
 import android.support.wearable.view.WatchViewStub;
 import android.widget.TextView;
 
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.MessageEvent;
-import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
-
 import com.example.android.wearable.wcldemo.R;
 import com.example.android.wearable.wcldemo.WearApplication;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.FrameUpdater;
+import com.example.android.wearable.wcldemo.common.NavigationState;
+import com.example.android.wearable.wcldemo.common.PageNames;
 
 /**
  * A simple activity that shows the exchange of data between the phone and wear app. When this
@@ -38,26 +36,26 @@ import com.example.android.wearable.wcldemo.common.Constants;
 public class DataExchangeActivity extends WearableActivity {
 
     private TextView mMessageTextView;
-    private WearManager mWearManager;
-    private AbstractWearConsumer mWearConsumer;
+    private PageNames mPageNames;
+    private FrameUpdater mFrameUpdater;
+    private NavigationState.Listener mNavigationListener;
+    private boolean mResumed;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mWearManager = WearManager.getInstance();
-        // We register a listener to be notified when messages arrive while we are on this page.
-        // We then filter messages based on their path to identify the ones that report on the
-        // navigation in the companion phone app. When such message is discovered, we write the name
-        // of new page to the view.
-        mWearConsumer = new AbstractWearConsumer() {
+        mPageNames = PageNames.getInstance(this);
+        mFrameUpdater = FrameUpdater.getInstance();
+
+        // We register a listener to be notified of the navigation in the companion phone app
+        // while we are on this page and the layout is inflated; it is called right away with the
+        // page that the phone app is known to be on. When the page changes, we write the name of
+        // new page to the view; the view is updated at most once per frame, however many updates
+        // arrive.
+        mNavigationListener = new NavigationState.Listener() {
             @Override
-            public void onWearableMessageReceived(MessageEvent messageEvent) {
-                if (!Constants.NAVIGATION_PATH_MOBILE.equals(messageEvent.getPath())) {
-                    return;
-                }
-                DataMap dataMap = DataMap.fromByteArray(messageEvent.getData());
-                int currentPage  = dataMap.getInt(Constants.KEY_PAGE, Constants.TARGET_INTRO);
-                writeMessage(currentPage);
+            public void onNavigationStateChanged(String nodeId, int page, long version) {
+                writeMessage(page);
             }
         };
 
@@ -67,64 +65,40 @@ public class DataExchangeActivity extends WearableActivity {
             @Override
             public void onLayoutInflated(WatchViewStub stub) {
                 mMessageTextView = (TextView) findViewById(R.id.message);
+                if (mResumed) {
+                    WearApplication.getNavigationState().addListener(mNavigationListener);
+                }
             }
         });
         setAmbientEnabled();
     }
 
     /**
-     * Mapping the id of page to its name and displaying the name
+     * Mapping the id of page to its name and displaying the name at the next frame
      */
-    private void writeMessage(final int page) {
-        String pageName;
-        switch (page) {
-            case Constants.TARGET_INTRO:
-                pageName = getString(R.string.page_intro);
-                break;
-            case Constants.TARGET_DATA:
-                pageName = getString(R.string.page_data_exchange);
-                break;
-            case Constants.TARGET_FILE_TRANSFER:
-                pageName = getString(R.string.page_file_transfer);
-                break;
-            case Constants.TARGET_STOCK:
-                pageName = getString(R.string.page_stock);
-                break;
-            case Constants.TARGET_LIST:
-                pageName = getString(R.string.page_list);
-                break;
-            case Constants.TARGET_LIST_DIALOG:
-                pageName = getString(R.string.page_list_dialog);
-                break;
-            case Constants.TARGET_VOICE_STREAM:
-                pageName = getString(R.string.page_stream_voice);
-                break;
-            default:
-                pageName = getString(R.string.unknown);
-        }
-        final String text = getString(R.string.page_navigation_info, pageName);
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mMessageTextView.setText(text);
-            }
-        });
+    private void writeMessage(int page) {
+        mFrameUpdater.setText(mMessageTextView, mPageNames.getNavigationInfo(page));
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        mResumed = true;
 
-        // register our listener
-        mWearManager.addWearConsumer(mWearConsumer);
+        // register our listener, unless the layout is not inflated yet; it is registered then
+        if (mMessageTextView != null) {
+            WearApplication.getNavigationState().addListener(mNavigationListener);
+        }
 
         WearApplication.setPage(Constants.TARGET_DATA);
     }
 
     @Override
     public void onPause() {
+        mResumed = false;
+
         // remove our listener
-        mWearManager.removeWearConsumer(mWearConsumer);
+        WearApplication.getNavigationState().removeListener(mNavigationListener);
 
         super.onPause();
     }
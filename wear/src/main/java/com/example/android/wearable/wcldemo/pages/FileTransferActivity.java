@@ -25,18 +25,19 @@ import android.view.View;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
-import com.google.android.gms.wearable.Channel;
 import com.google.android.gms.wearable.Node;
 import com.google.android.gms.wearable.WearableStatusCodes;
-import com.google.devrel.wcl.WearManager;
 import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
 import com.google.devrel.wcl.connectivity.WearFileTransfer;
-import com.google.devrel.wcl.filters.NearbyFilter;
-import com.google.devrel.wcl.filters.SingleNodeFilter;
 
 import com.example.android.wearable.wcldemo.R;
 import com.example.android.wearable.wcldemo.WearApplication;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.metrics.Counter;
+import com.example.android.wearable.wcldemo.common.metrics.Metrics;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -45,7 +46,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Set;
+import java.util.UUID;
 
 /**
  * An activity that shows two different approaches to transferring files between wear nodes.
@@ -81,7 +82,7 @@ public class FileTransferActivity extends WearableActivity
     // the resource pointing to the image that we transfer in the "low-level" approach
     private static final int IMAGE_RESOURCE_ID = R.raw.android_wear;
 
-    private WearManager mWearManager;
+    private WearTransport mTransport;
     private AbstractWearConsumer mWearConsumer;
     private ProgressBar mProgressBar;
     private Handler mHandler;
@@ -109,7 +110,7 @@ public class FileTransferActivity extends WearableActivity
                 mProgressBar = (ProgressBar) findViewById(R.id.progress_bar);
             }
         });
-        mWearManager = WearManager.getInstance();
+        mTransport = WearTransport.getInstance();
 
         // we define a listener to inform us of the status of the file transfer
         mWearConsumer = new AbstractWearConsumer() {
@@ -124,33 +125,34 @@ public class FileTransferActivity extends WearableActivity
 
     public void onClick(View view) {
         // first we try to find at least one nearby connected node
-        Set<Node> nodes = mWearManager
-                .getNodesForCapability(Constants.CAPABILITY_FILE_PROCESSOR,
-                        new SingleNodeFilter(new NearbyFilter()));
+        Node targetNode = NodeDirectory.getInstance()
+                .getNearbyNodeForCapability(Constants.CAPABILITY_FILE_PROCESSOR);
 
-        if (nodes != null && !nodes.isEmpty()) {
-            Node targetNode = nodes.iterator().next();
+        if (targetNode != null) {
             Log.d(TAG, "Targeting node: " + targetNode);
 
             switch (view.getId()) {
                 case R.id.high_level:
-                    // high-level approach
-                    WearFileTransfer fileTransferHighLevel = new WearFileTransfer.Builder(
-                            targetNode)
-                            .setTargetName(TEXT_FILE_NAME)
-                            .setFile(copyFileToPrivateDataIfNeededAndReturn(TEXT_FILE_NAME))
-                            .build();
-                    fileTransferHighLevel.startTransfer();
+                    // high-level approach; the phone only learns the name of the file, so that is
+                    // what the traces of both sides carry
+                    Tracer.Span span = Tracer.getInstance().begin("transfer.send_file",
+                            TEXT_FILE_NAME, Tracer.FLOW_OUT);
+                    File textFile = copyFileToPrivateDataIfNeededAndReturn(TEXT_FILE_NAME);
+                    mTransport.sendFile(targetNode, textFile, TEXT_FILE_NAME);
+                    span.end();
+                    Metrics.getInstance().counter(Metrics.TRANSFERS_SENT).increment();
+                    Metrics.getInstance().counter(Metrics.TRANSFER_BYTES_SENT)
+                            .add(textFile.length());
                     break;
                 case R.id.low_level:
                     // the "low-level" approach
-                    WearFileTransfer fileTransferLowLevel = new WearFileTransfer.Builder(
-                            targetNode)
-                            .setOnChannelOutputStreamListener(
-                                    new OutputStreamListener(IMAGE_RESOURCE_ID,
-                                            FileTransferActivity.this))
-                            .build();
-                    fileTransferLowLevel.requestOutputStream();
+                    mTransport.openOutputStream(targetNode,
+                            Constants.STREAM_ID_PREFIX_FILE + UUID.randomUUID(),
+                            new OutputStreamListener(IMAGE_RESOURCE_ID,
+                                    FileTransferActivity.this,
+                                    Tracer.getInstance().beginAsync(
+                                            "transfer.channel_setup", null)));
+                    Metrics.getInstance().counter(Metrics.TRANSFERS_SENT).increment();
                     break;
             }
 
@@ -162,33 +164,44 @@ public class FileTransferActivity extends WearableActivity
     /**
      * A listener that is called when we have a channel open and an {@code OutputStream} ready
      */
-    private class OutputStreamListener
-            implements WearFileTransfer.OnWearableChannelOutputStreamListener {
+    private class OutputStreamListener implements WearTransport.OutputStreamListener {
 
         private final WearFileTransfer.OnChannelTransferProgressListener mProgressListener;
         private final int mResourceId;
+        private final Tracer.Span mSetupSpan;
 
+        /**
+         * @param setupSpan The span that ends once the channel is open
+         */
         OutputStreamListener(int resourceId,
-                WearFileTransfer.OnChannelTransferProgressListener progressListener) {
+                WearFileTransfer.OnChannelTransferProgressListener progressListener,
+                Tracer.Span setupSpan) {
             mResourceId = resourceId;
             mProgressListener = progressListener;
+            mSetupSpan = setupSpan;
         }
 
         @Override
-        public void onOutputStreamForChannelReady(final int statusCode, final Channel channel,
+        public void onOutputStreamReady(final int statusCode, final String path,
                 final OutputStream outputStream) {
 
             if (statusCode != WearableStatusCodes.SUCCESS) {
                 Log.e(TAG, "Failed to open a channel, status code: " + statusCode);
+                mSetupSpan.end();
                 return;
             }
+            // the phone sees the same path on its end of the channel
+            mSetupSpan.setRequestId(path).end();
             new Thread(new Runnable() {
                 @Override
                 public void run() {
+                    Tracer.Span span = Tracer.getInstance().begin("transfer.channel_write",
+                            path, Tracer.FLOW_OUT);
 
                     final byte[] buffer = new byte[BUFFER_SIZE];
                     BufferedInputStream bis = null;
                     BufferedOutputStream bos = new BufferedOutputStream(outputStream);
+                    Counter bytesSent = Metrics.getInstance().counter(Metrics.TRANSFER_BYTES_SENT);
                     int transferred = 0;
                     int nRead;
                     try {
@@ -198,6 +211,7 @@ public class FileTransferActivity extends WearableActivity
                         while ((nRead = bis.read(buffer)) != -1) {
                             bos.write(buffer);
                             transferred += nRead;
+                            bytesSent.add(nRead);
                             if (mProgressListener != null) {
                                 mProgressListener.onProgressUpdated(transferred, fileSize);
                             }
@@ -229,6 +243,7 @@ public class FileTransferActivity extends WearableActivity
                         } catch (Exception e) {
                             // ignore
                         }
+                        span.end();
                     }
                 }
             }).start();
@@ -295,7 +310,7 @@ public class FileTransferActivity extends WearableActivity
         super.onResume();
 
         // register our listener
-        mWearManager.addWearConsumer(mWearConsumer);
+        mTransport.addWearConsumer(mWearConsumer);
         WearApplication.setPage(Constants.TARGET_FILE_TRANSFER);
     }
 
@@ -304,7 +319,7 @@ public class FileTransferActivity extends WearableActivity
         super.onPause();
 
         // remove our listener
-        mWearManager.removeWearConsumer(mWearConsumer);
+        mTransport.removeWearConsumer(mWearConsumer);
     }
 
 }
@@ -28,14 +28,14 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.android.gms.wearable.Node;
-import com.google.devrel.wcl.Utils;
-import com.google.devrel.wcl.WearManager;
-import com.google.devrel.wcl.callbacks.AbstractWearConsumer;
 import com.google.devrel.wcl.connectivity.WearHttpHelper;
 
 import com.example.android.wearable.wcldemo.R;
 import com.example.android.wearable.wcldemo.WearApplication;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.metrics.Tracer;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -45,13 +45,15 @@ import java.net.HttpURLConnection;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A simple activity that makes an HTTP request to get the GOOGLE stock price and if successful,
  * presents the result to the user. The HTTP request is made using the {@link WearHttpHelper}
- * helper class.
+ * helper class. If the phone cannot be reached, the request is put in the
+ * {@link com.example.android.wearable.wcldemo.OutboundQueue} and is sent as soon as the phone is
+ * reachable again; the response is then shown if this activity is in front, or when it comes back
+ * to the front.
  */
 public class StockActivity extends WearableActivity
         implements WearHttpHelper.OnHttpResponseListener {
@@ -59,14 +61,17 @@ public class StockActivity extends WearableActivity
     private static final String TAG = "StockActivity";
     private static final String url =
             "http://finance.google.com/finance/info?client=ig&q=NASDAQ%3aGOOG";
+
+    // the key and time-to-live of the request when it is queued while the phone is not reachable
+    private static final String QUEUE_KEY = "stock:" + url;
+    private static final long QUEUE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
     private TextView mSymbol;
     private TextView mValue;
     private TextView mTime;
     private Button mSubmit;
     private Handler mHandler;
     private ProgressBar mProgressBar;
-    private AbstractWearConsumer mConsumer;
-    private WearManager mWearManager;
+    private WearTransport mTransport;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -74,59 +79,43 @@ public class StockActivity extends WearableActivity
         mHandler = new Handler();
         setContentView(R.layout.stock);
         setAmbientEnabled();
-        mWearManager = WearManager.getInstance();
-        mConsumer = new AbstractWearConsumer() {
-            @Override
-            public void onWearableApiConnected() {
-                updateButton(true);
-            }
-
-            @Override
-            public void onWearableApiConnectionFailed() {
-                Log.d(TAG, "Connection failed");
-                updateButton(false);
-            }
-
-            @Override
-            public void onWearableApiConnectionSuspended() {
-                Log.d(TAG, "Connection suspended");
-                updateButton(false);
-            }
-        };
+        mTransport = WearTransport.getInstance();
         setupViews();
-        updateButton(mWearManager.isConnected());
         mSubmit.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
                 clearValues();
-                Set<Node> nodes = mWearManager
-                        .getNodesForCapability(Constants.CAPABILITY_HTTP_HANDLER);
-                Log.d(TAG, "available http handler nodes: " + nodes);
+                Node node = NodeDirectory.getInstance()
+                        .getNearbyNodeForCapability(Constants.CAPABILITY_HTTP_HANDLER);
+                Log.d(TAG, "nearby http handler node: " + node);
                 String nodeId = null;
-                Node node = Utils.filterForNearby(nodes);
-                if (node != null) {
+                if (node != null && mTransport.isConnected()) {
                     nodeId = node.getId();
                 } else {
-                    Toast.makeText(StockActivity.this, R.string.no_node_available,
+                    // the phone is not reachable; queue the request so it is sent as soon as
+                    // the connection comes back
+                    WearApplication.getOutboundQueue().enqueueHttpRequest(QUEUE_KEY,
+                            Constants.CAPABILITY_HTTP_HANDLER, url, QUEUE_TTL_MS);
+                    Toast.makeText(StockActivity.this, R.string.request_queued,
                             Toast.LENGTH_SHORT).show();
                     return;
                 }
                 mProgressBar.setVisibility(View.VISIBLE);
+                // the request id is only known once the response comes back, so the span travels
+                // with the listener of this request and is tagged with the id on arrival
+                Tracer.Span requestSpan = Tracer.getInstance().beginAsync("stock.request", null);
                 try {
-                    new WearHttpHelper.Builder(url, StockActivity.this)
-                            .setHttpMethod(WearHttpHelper.METHOD_GET) // optional, GET is default
-                            .setTargetNodeId(nodeId)
-                            .setHttpResponseListener(StockActivity.this)
-                            // default timeout is 15000 ms = 15 seconds
-                            .setTimeout(TimeUnit.SECONDS.toMillis(10))
-                            .build()
-                            .makeHttpRequest();
+                    // the default timeout is 15000 ms = 15 seconds
+                    mTransport.makeHttpRequest(url, nodeId, TimeUnit.SECONDS.toMillis(10),
+                            new RequestListener(requestSpan));
                 } catch (IllegalStateException e) {
                     Log.e(TAG, "No Api Client Connection");
                     mProgressBar.setVisibility(View.GONE);
+                    requestSpan.end();
                 } catch (IllegalArgumentException e) {
                     Log.e(TAG, "Arguments are missing for the http call", e);
                     mProgressBar.setVisibility(View.GONE);
+                    requestSpan.end();
                 }
             }
         });
@@ -137,8 +126,8 @@ public class StockActivity extends WearableActivity
     protected void onResume() {
         super.onResume();
 
-        // register our listener
-        mWearManager.addWearConsumer(mConsumer);
+        // receive the responses of the requests that were queued while disconnected
+        WearApplication.getOutboundQueue().setHttpResponseListener(this);
         WearApplication.setPage(Constants.TARGET_STOCK);
     }
 
@@ -146,17 +135,25 @@ public class StockActivity extends WearableActivity
     protected void onPause() {
         super.onPause();
 
-        // remove our listener
-        mWearManager.removeWearConsumer(mConsumer);
-    }
-
-    private void updateButton(boolean enabled) {
-        mSubmit.setEnabled(enabled);
+        WearApplication.getOutboundQueue().setHttpResponseListener(null);
     }
 
+    /**
+     * Receives the responses of the requests that were queued while disconnected.
+     */
     @Override
     public void onHttpResponseReceived(String requestId, int status, String response) {
+        handleResponse(requestId, status, response, null);
+    }
+
+    /**
+     * Shows the response to {@code requestId} and ends {@code requestSpan}, if not {@code null}.
+     */
+    private void handleResponse(final String requestId, int status, String response,
+            final Tracer.Span requestSpan) {
         Log.d(TAG, "Request Id: " + requestId + " Status: " + status + ", response: " + response);
+        Tracer.Span parseSpan = Tracer.getInstance().begin("stock.parse_response", requestId,
+                Tracer.FLOW_IN);
         int toastMessageResource = 0;
         switch (status) {
             case HttpURLConnection.HTTP_OK:
@@ -189,14 +186,22 @@ public class StockActivity extends WearableActivity
                 Log.e(TAG, "Timeout happened while waiting for response");
                 toastMessageResource = R.string.error_timeout;
                 break;
+            case Constants.HTTP_STATUS_UPSTREAM_UNAVAILABLE:
+                Log.e(TAG, "The phone reported that the upstream server is unavailable");
+                toastMessageResource = R.string.error_upstream_unavailable;
+                break;
             default:
                 Log.e(TAG, "A non-successful status code: " + status + " was received");
                 toastMessageResource = R.string.error_request_failed;
         }
+        parseSpan.end();
         final int messageResource = toastMessageResource;
         mHandler.post(new Runnable() {
             @Override
             public void run() {
+                if (requestSpan != null) {
+                    requestSpan.setRequestId(requestId).end();
+                }
                 mProgressBar.setVisibility(View.GONE);
                 if (messageResource > 0) {
                     Toast.makeText(StockActivity.this, messageResource, Toast.LENGTH_SHORT).show();
@@ -205,6 +210,23 @@ public class StockActivity extends WearableActivity
         });
     }
 
+    /**
+     * Listens for the response to a single direct request and carries the span of that request.
+     */
+    private class RequestListener implements WearHttpHelper.OnHttpResponseListener {
+
+        private final Tracer.Span mSpan;
+
+        RequestListener(Tracer.Span span) {
+            mSpan = span;
+        }
+
+        @Override
+        public void onHttpResponseReceived(String requestId, int status, String response) {
+            handleResponse(requestId, status, response, mSpan);
+        }
+    }
+
     private void clearValues() {
         updateValues("", "", "");
     }
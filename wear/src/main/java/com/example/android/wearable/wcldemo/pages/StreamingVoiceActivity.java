@@ -17,8 +17,6 @@
 package com.example.android.wearable.wcldemo.pages;
 
 import android.Manifest;
-import android.app.Activity;
-import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
@@ -30,21 +28,23 @@ import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
-import com.google.devrel.wcl.widgets.recording.WclRecorderActivity;
+import com.google.android.gms.wearable.Node;
 
 import com.example.android.wearable.wcldemo.R;
 import com.example.android.wearable.wcldemo.WearApplication;
 import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.voice.VoiceStreamer;
 
 /**
- *
+ * Streams the microphone to the phone, for as long as the button is toggled on.
  */
 public class StreamingVoiceActivity extends WearableActivity {
 
     private static final String TAG = "StreamingVoiceActivity";
-    private static final int RECORDING_REQUEST_CODE = 1;
     private static final int PERMISSIONS_REQUEST_CODE = 2;
     private Button mButton;
+    private VoiceStreamer mVoiceStreamer;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -56,12 +56,40 @@ public class StreamingVoiceActivity extends WearableActivity {
     }
 
     public void onClick(View view) {
+        if (mVoiceStreamer != null) {
+            stopStreaming();
+            return;
+        }
+        Node node = NodeDirectory.getInstance()
+                .getNearbyNodeForCapability(Constants.CAPABILITY_VOICE_PROCESSING);
+        if (node == null) {
+            Toast.makeText(this, R.string.no_node_available, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        final VoiceStreamer voiceStreamer = VoiceStreamer.forNode(node);
+        Log.d(TAG, "Streaming to " + node.getId() + " with codec " + voiceStreamer.getCodec()
+                + (voiceStreamer.isSuppressingSilence() ? ", without silence" : "")
+                + (voiceStreamer.isSendingTimestamps() ? ", with timestamps" : ""));
+        mVoiceStreamer = voiceStreamer;
+        voiceStreamer.start(new VoiceStreamer.Listener() {
+            @Override
+            public void onStreamingStopped(int reason) {
+                Log.d(TAG, "Streaming stopped, reason: " + reason);
+                if (mVoiceStreamer == voiceStreamer) {
+                    mVoiceStreamer = null;
+                    mButton.setText(R.string.stream_voice);
+                }
+            }
+        });
+        mButton.setText(R.string.stop_streaming);
+    }
 
-        Intent intent = new Intent(this, WclRecorderActivity.class);
-        intent.putExtra(WclRecorderActivity.EXTRA_STREAMING, true);
-        intent.putExtra(WclRecorderActivity.EXTRA_NODE_CAPABILITY,
-                Constants.CAPABILITY_VOICE_PROCESSING);
-        startActivityForResult(intent, RECORDING_REQUEST_CODE);
+    private void stopStreaming() {
+        if (mVoiceStreamer != null) {
+            mVoiceStreamer.stop();
+            mVoiceStreamer = null;
+        }
+        mButton.setText(R.string.stream_voice);
     }
 
     /**
@@ -82,17 +110,6 @@ public class StreamingVoiceActivity extends WearableActivity {
 
     }
 
-    @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        if (resultCode == Activity.RESULT_OK && requestCode == RECORDING_REQUEST_CODE) {
-            int reason = data.getIntExtra(WclRecorderActivity.EXTRA_RECORDING_STATUS, -1);
-            if (reason == WclRecorderActivity.STATUS_ERROR_NODE_NOT_FOUND) {
-                Toast.makeText(this, R.string.no_node_available, Toast.LENGTH_SHORT).show();
-            }
-            Log.d(TAG, "Activity finished, reason: " + reason);
-        }
-    }
-
     @Override
     public void onRequestPermissionsResult(int requestCode,
             @NonNull String permissions[], @NonNull int[] grantResults) {
@@ -117,6 +134,12 @@ public class StreamingVoiceActivity extends WearableActivity {
         WearApplication.setPage(Constants.TARGET_VOICE_STREAM);
     }
 
+    @Override
+    protected void onPause() {
+        stopStreaming();
+        super.onPause();
+    }
+
     private void enableButton() {
         mButton.setEnabled(true);
     }
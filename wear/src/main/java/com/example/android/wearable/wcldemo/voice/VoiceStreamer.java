@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2015 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * imitations under the License.
+ */
+
+package com.example.android.wearable.wcldemo.voice;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.WearableStatusCodes;
+
+import com.example.android.wearable.wcldemo.common.Constants;
+import com.example.android.wearable.wcldemo.common.NodeDirectory;
+import com.example.android.wearable.wcldemo.common.WearTransport;
+import com.example.android.wearable.wcldemo.common.voice.VoiceActivityDetector;
+import com.example.android.wearable.wcldemo.common.voice.VoiceFormat;
+import com.example.android.wearable.wcldemo.common.voice.VoiceStreamWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+/**
+ * Records the microphone and streams it to a node over a channel, one frame at a time. The frames
+ * are compressed with IMA-ADPCM when the target node says it can decode them, by advertising
+ * {@link Constants#CAPABILITY_VOICE_CODEC_ADPCM}; otherwise they are sent as PCM. The codec is
+ * named in the header of each stream, so it is chosen afresh for every stream.
+ *
+ * <p>When the target node advertises {@link Constants#CAPABILITY_VOICE_SILENCE}, frames without
+ * speech are not sent; each run of them is sent as a silence record instead, at least every
+ * {@link #SILENCE_FLUSH_FRAMES} frames so that the phone keeps playing at the same pace.
+ *
+ * <p>When the target node advertises {@link Constants#CAPABILITY_VOICE_TIMESTAMPS}, the capture
+ * time of a frame is written to the stream every {@link #TIMESTAMP_INTERVAL_FRAMES} frames, so the
+ * phone can measure the latency of the stream.
+ */
+public class VoiceStreamer {
+
+    private static final String TAG = "VoiceStreamer";
+
+    public static final int REASON_STOPPED = 0;
+    public static final int REASON_ERROR = 1;
+
+    /**
+     * The longest run of silent frames that is held back before a silence record is sent.
+     */
+    public static final int SILENCE_FLUSH_FRAMES = 5;
+
+    /**
+     * How often a capture timestamp is sent, when timestamps are enabled.
+     */
+    public static final int TIMESTAMP_INTERVAL_FRAMES = 50;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private volatile boolean mStopped;
+    private Listener mListener;
+    private final Node mNode;
+    private final int mCodec;
+    private final boolean mSuppressSilence;
+    private final boolean mTimestamps;
+
+    private VoiceStreamer(Node node) {
+        mNode = node;
+        mCodec = hasCapability(node, Constants.CAPABILITY_VOICE_CODEC_ADPCM)
+                ? VoiceStreamWriter.CODEC_IMA_ADPCM : VoiceStreamWriter.CODEC_PCM;
+        mSuppressSilence = hasCapability(node, Constants.CAPABILITY_VOICE_SILENCE);
+        mTimestamps = hasCapability(node, Constants.CAPABILITY_VOICE_TIMESTAMPS);
+    }
+
+    /**
+     * Returns a streamer to {@code node}, set up for what that node says it supports.
+     */
+    public static VoiceStreamer forNode(Node node) {
+        return new VoiceStreamer(node);
+    }
+
+    private static boolean hasCapability(Node node, String capability) {
+        for (Node capableNode : NodeDirectory.getInstance().getNodesForCapability(capability)) {
+            if (capableNode.getId().equals(node.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a channel to the node and starts streaming to it. The {@code listener} is called on
+     * the main thread.
+     */
+    public void start(Listener listener) {
+        mListener = listener;
+        mStopped = false;
+        WearTransport.getInstance().openOutputStream(mNode,
+                Constants.STREAM_ID_PREFIX_VOICE + UUID.randomUUID(),
+                new WearTransport.OutputStreamListener() {
+                    @Override
+                    public void onOutputStreamReady(int statusCode, String path,
+                            final OutputStream outputStream) {
+                        if (statusCode != WearableStatusCodes.SUCCESS) {
+                            Log.e(TAG, "Failed to open a channel, status code: " + statusCode);
+                            notifyStopped(REASON_ERROR);
+                            return;
+                        }
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                stream(outputStream);
+                            }
+                        }, "VoiceStreamer").start();
+                    }
+                });
+    }
+
+    public int getCodec() {
+        return mCodec;
+    }
+
+    public boolean isSuppressingSilence() {
+        return mSuppressSilence;
+    }
+
+    public boolean isSendingTimestamps() {
+        return mTimestamps;
+    }
+
+    /**
+     * Stops the recording and closes the stream.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    private void stream(OutputStream outputStream) {
+        int minBufferSize = AudioRecord.getMinBufferSize(VoiceFormat.SAMPLE_RATE,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+        AudioRecord audioRecord = new AudioRecord(MediaRecorder.AudioSource.MIC,
+                VoiceFormat.SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT,
+                Math.max(minBufferSize, 4 * VoiceFormat.FRAME_BYTES));
+        int reason = REASON_STOPPED;
+        VoiceStreamWriter writer = null;
+        long frames = 0;
+        long suppressedFrames = 0;
+        try {
+            if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+                Log.e(TAG, "Failed to initialize the audio recorder");
+                reason = REASON_ERROR;
+                return;
+            }
+            writer = new VoiceStreamWriter(outputStream, mCodec);
+            VoiceActivityDetector detector = mSuppressSilence ? new VoiceActivityDetector() : null;
+            short[] frame = new short[VoiceFormat.FRAME_SAMPLES];
+            int silentFrames = 0;
+            long lastTimestampFrame = -TIMESTAMP_INTERVAL_FRAMES;
+            audioRecord.startRecording();
+            while (!mStopped) {
+                if (!readFrame(audioRecord, frame)) {
+                    reason = REASON_ERROR;
+                    break;
+                }
+                // the frame has just been read in full, so its first sample was captured a frame
+                // earlier
+                long captureTimeMs = SystemClock.elapsedRealtime()
+                        - VoiceFormat.FRAME_DURATION_MS;
+                frames++;
+                if (detector != null && !detector.isSpeech(frame, frame.length)) {
+                    suppressedFrames++;
+                    if (++silentFrames == SILENCE_FLUSH_FRAMES) {
+                        writer.writeSilence(silentFrames);
+                        silentFrames = 0;
+                    }
+                    continue;
+                }
+                if (silentFrames > 0) {
+                    writer.writeSilence(silentFrames);
+                    silentFrames = 0;
+                }
+                if (mTimestamps && frames - lastTimestampFrame >= TIMESTAMP_INTERVAL_FRAMES) {
+                    writer.writeTimestamp(captureTimeMs);
+                    lastTimestampFrame = frames;
+                }
+                writer.writeFrame(frame);
+            }
+            if (silentFrames > 0 && reason == REASON_STOPPED) {
+                // the silence that was held back still counts; the stream keeps its length
+                writer.writeSilence(silentFrames);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the voice stream", e);
+            reason = REASON_ERROR;
+        } finally {
+            if (audioRecord.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                audioRecord.stop();
+            }
+            audioRecord.release();
+            Log.d(TAG, "Streamed " + frames + " frames, " + suppressedFrames
+                    + " of them as silence");
+            try {
+                if (writer != null) {
+                    writer.close();
+                } else {
+                    outputStream.close();
+                }
+            } catch (IOException e) {
+                // ignore
+            }
+            notifyStopped(reason);
+        }
+    }
+
+    private static boolean readFrame(AudioRecord audioRecord, short[] frame) {
+        int offset = 0;
+        while (offset < frame.length) {
+            int read = audioRecord.read(frame, offset, frame.length - offset);
+            if (read < 0) {
+                Log.e(TAG, "Failed to read from the audio recorder: " + read);
+                return false;
+            }
+            offset += read;
+        }
+        return true;
+    }
+
+    private void notifyStopped(final int reason) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mListener != null) {
+                    mListener.onStreamingStopped(reason);
+                }
+            }
+        });
+    }
+
+    /**
+     * Is told when the streaming stops, whether it was asked to or not.
+     */
+    public interface Listener {
+
+        /**
+         * @param reason One of {@link #REASON_STOPPED} or {@link #REASON_ERROR}
+         */
+        void onStreamingStopped(int reason);
+    }
+}